@@ -0,0 +1,128 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api;
+
+import journeymap.client.api.display.DisplayKey;
+import journeymap.client.api.display.Displayable;
+import journeymap.client.api.display.Overlay;
+import journeymap.client.api.util.OverlayIndex;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The bookkeeping an IClientAPI implementation does in show() and remove(), the way MockClientAPI does it:
+ * Displayables are kept by key and overlays are added to a spatial index while holding a lock, then change
+ * listeners are called outside it, as the real implementation tells its renderers to rebuild.
+ * <p>
+ * The batch methods take the lock and call the listeners once per batch rather than once per Displayable.
+ * Used to measure show/remove throughput without Minecraft running.
+ */
+public class ReferenceRegistry
+{
+    final HashMap<DisplayKey, Displayable> displayables = new HashMap<DisplayKey, Displayable>();
+    final OverlayIndex overlays = new OverlayIndex();
+    final List<Runnable> changeListeners = new CopyOnWriteArrayList<Runnable>();
+
+    public void addChangeListener(Runnable listener)
+    {
+        changeListeners.add(listener);
+    }
+
+    public void show(Displayable displayable)
+    {
+        synchronized (this)
+        {
+            store(displayable);
+        }
+        changed();
+    }
+
+    public void remove(Displayable displayable)
+    {
+        synchronized (this)
+        {
+            discard(displayable);
+        }
+        changed();
+    }
+
+    public void showAll(Collection<? extends Displayable> batch)
+    {
+        synchronized (this)
+        {
+            for (Displayable displayable : batch)
+            {
+                store(displayable);
+            }
+        }
+        changed();
+    }
+
+    public void removeAll(Collection<? extends Displayable> batch)
+    {
+        synchronized (this)
+        {
+            for (Displayable displayable : batch)
+            {
+                discard(displayable);
+            }
+        }
+        changed();
+    }
+
+    public synchronized int size()
+    {
+        return displayables.size();
+    }
+
+    private void store(Displayable displayable)
+    {
+        Displayable previous = displayables.put(displayable.getKey(), displayable);
+        if (previous instanceof Overlay && previous != displayable)
+        {
+            overlays.remove((Overlay) previous);
+        }
+        if (displayable instanceof Overlay)
+        {
+            overlays.put((Overlay) displayable);
+        }
+    }
+
+    private void discard(Displayable displayable)
+    {
+        Displayable previous = displayables.remove(displayable.getKey());
+        if (previous instanceof Overlay)
+        {
+            overlays.remove((Overlay) previous);
+        }
+    }
+
+    private void changed()
+    {
+        for (Runnable listener : changeListeners)
+        {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api;
+
+import journeymap.client.api.display.MarkerOverlay;
+import journeymap.client.api.display.Overlay;
+import journeymap.client.api.display.PolygonOverlay;
+import journeymap.client.api.model.MapImage;
+import journeymap.client.api.model.ShapeProperties;
+import journeymap.client.api.util.PolygonHelper;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of showing and removing overlays, one at a time and in batches, while many others are already shown.
+ * Batches take the registry's lock and notify its listeners once, rather than once per overlay.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ShowRemoveBenchmark
+{
+    static final int BATCH = 1000;
+
+    @Param({"1000", "10000"})
+    int existing;
+
+    ReferenceRegistry registry;
+    List<Overlay> batch;
+    int rebuilds;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkSupport.bootstrap();
+        registry = new ReferenceRegistry();
+        // Stands in for JourneyMap rebuilding what it draws after each change
+        registry.addChangeListener(() -> rebuilds++);
+        MapImage icon = new MapImage(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB));
+        for (int i = 0; i < existing; i++)
+        {
+            registry.show(create("existing", i, icon));
+        }
+
+        batch = new ArrayList<Overlay>(BATCH);
+        for (int i = 0; i < BATCH; i++)
+        {
+            batch.add(create("batch", i, icon));
+        }
+    }
+
+    private static Overlay create(String prefix, int i, MapImage icon)
+    {
+        int x = (i * 7919) % 2000 - 1000;
+        int z = (i * 104729) % 2000 - 1000;
+        if (i % 2 == 0)
+        {
+            return new MarkerOverlay("benchmark", prefix + i, new BlockPos(x * 16, 64, z * 16), icon)
+                    .setDimension(Level.OVERWORLD);
+        }
+        return new PolygonOverlay("benchmark", prefix + i, Level.OVERWORLD, new ShapeProperties(),
+                PolygonHelper.createChunkPolygon(x, 64, z));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int showThenRemove()
+    {
+        for (int i = 0; i < BATCH; i++)
+        {
+            registry.show(batch.get(i));
+            registry.remove(batch.get(i));
+        }
+        return registry.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int showAllThenRemoveAll()
+    {
+        registry.showAll(batch);
+        registry.removeAll(batch);
+        return registry.size();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.display;
+
+import journeymap.client.api.BenchmarkSupport;
+import journeymap.client.api.model.MapImage;
+import journeymap.client.api.model.ShapeProperties;
+import journeymap.client.api.util.PolygonHelper;
+import journeymap.client.api.util.UIState;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.image.BufferedImage;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame checks made on every overlay: whether it is active, and its identity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OverlayBenchmark
+{
+    static final int OVERLAYS = 1000;
+
+    Overlay[] overlays;
+    Overlay[] copies;
+    UIState fullscreen;
+    UIState minimap;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkSupport.bootstrap();
+
+        MapImage icon = new MapImage(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB));
+        overlays = new Overlay[OVERLAYS];
+        copies = new Overlay[OVERLAYS];
+        for (int i = 0; i < OVERLAYS; i++)
+        {
+            overlays[i] = create(i, icon);
+            copies[i] = create(i, icon);
+        }
+
+        AABB bounds = new AABB(-512, 0, -512, 512, 256, 512);
+        fullscreen = new UIState(Context.UI.Fullscreen, true, Level.OVERWORLD, 3, Context.MapType.Day,
+                BlockPos.ZERO, null, bounds, null);
+        minimap = new UIState(Context.UI.Minimap, true, Level.OVERWORLD, 6, Context.MapType.Night,
+                BlockPos.ZERO, null, bounds, null);
+    }
+
+    private static Overlay create(int i, MapImage icon)
+    {
+        Overlay overlay;
+        if (i % 2 == 0)
+        {
+            overlay = new MarkerOverlay("benchmark", "marker" + i, new BlockPos(i, 64, -i), icon);
+        }
+        else
+        {
+            overlay = new PolygonOverlay("benchmark", "polygon" + i, Level.OVERWORLD, new ShapeProperties(),
+                    PolygonHelper.createChunkPolygon(i, 64, -i));
+        }
+        overlay.setDimension(Level.OVERWORLD);
+        if (i % 3 == 0)
+        {
+            overlay.setActiveUIs(EnumSet.of(Context.UI.Fullscreen));
+        }
+        if (i % 5 == 0)
+        {
+            overlay.setMinZoom(4);
+        }
+        return overlay;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OVERLAYS)
+    public int isActiveIn()
+    {
+        int active = 0;
+        for (Overlay overlay : overlays)
+        {
+            if (overlay.isActiveIn(fullscreen))
+            {
+                active++;
+            }
+            if (overlay.isActiveIn(minimap))
+            {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OVERLAYS)
+    public void getGuid(Blackhole blackhole)
+    {
+        for (Overlay overlay : overlays)
+        {
+            blackhole.consume(overlay.getGuid());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OVERLAYS)
+    public void getKey(Blackhole blackhole)
+    {
+        for (Overlay overlay : overlays)
+        {
+            blackhole.consume(overlay.getKey());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OVERLAYS)
+    public int hashCodes()
+    {
+        int hash = 0;
+        for (Overlay overlay : overlays)
+        {
+            hash += overlay.hashCode();
+        }
+        return hash;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OVERLAYS)
+    public int equalsCopy()
+    {
+        int equal = 0;
+        for (int i = 0; i < OVERLAYS; i++)
+        {
+            if (overlays[i].equals(copies[i]))
+            {
+                equal++;
+            }
+        }
+        return equal;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.display;
+
+import journeymap.client.api.BenchmarkSupport;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waypoint positions as seen from the waypoint's own dimension and from others,
+ * such as when the same waypoint is drawn in the Overworld and the Nether.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WaypointBenchmark
+{
+    static final int WAYPOINTS = 1000;
+
+    Waypoint[] waypoints;
+    String overworld;
+    String nether;
+    String end;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkSupport.bootstrap();
+        overworld = Level.OVERWORLD.location().toString();
+        nether = Level.NETHER.location().toString();
+        end = Level.END.location().toString();
+
+        waypoints = new Waypoint[WAYPOINTS];
+        for (int i = 0; i < WAYPOINTS; i++)
+        {
+            String dimension = i % 2 == 0 ? overworld : nether;
+            waypoints[i] = new Waypoint("benchmark", "waypoint" + i, "Waypoint " + i, dimension, new BlockPos(i * 8, 64, -i * 8));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WAYPOINTS)
+    public void sameDimension(Blackhole blackhole)
+    {
+        for (Waypoint waypoint : waypoints)
+        {
+            blackhole.consume(waypoint.getPosition(waypoint.getDimension()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WAYPOINTS)
+    public void singleOtherDimension(Blackhole blackhole)
+    {
+        for (Waypoint waypoint : waypoints)
+        {
+            blackhole.consume(waypoint.getPosition(nether));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WAYPOINTS * 3)
+    public void alternatingDimensions(Blackhole blackhole)
+    {
+        for (Waypoint waypoint : waypoints)
+        {
+            blackhole.consume(waypoint.getPosition(overworld));
+            blackhole.consume(waypoint.getPosition(nether));
+            blackhole.consume(waypoint.getPosition(end));
+        }
+    }
+}
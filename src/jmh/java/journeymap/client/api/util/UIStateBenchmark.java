@@ -0,0 +1,68 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import journeymap.client.api.BenchmarkSupport;
+import journeymap.client.api.display.Context;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating a UIState, done each time a map UI pans or zooms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UIStateBenchmark
+{
+    BlockPos center;
+    AABB blockBounds;
+    Rectangle2D.Double displayBounds;
+    int zoom;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkSupport.bootstrap();
+        center = new BlockPos(100, 64, -100);
+        blockBounds = new AABB(-412, 0, -612, 612, 256, 412);
+        displayBounds = new Rectangle2D.Double(0, 0, 1920, 1080);
+    }
+
+    @Benchmark
+    public UIState construct()
+    {
+        zoom = (zoom + 1) % 9;
+        return new UIState(Context.UI.Fullscreen, true, Level.OVERWORLD, zoom, Context.MapType.Day,
+                center, null, blockBounds, displayBounds);
+    }
+}
@@ -4,16 +4,22 @@ import example.mod.ExampleMod;
 import journeymap.client.api.IClientAPI;
 import journeymap.client.api.display.DisplayType;
 import journeymap.client.api.display.PolygonOverlay;
+import journeymap.client.api.util.ChunkAreas;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.levelgen.WorldgenRandom;
+import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.event.entity.player.PlayerSleepInBedEvent;
 import net.minecraftforge.event.world.ChunkEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 
 /**
  * Listens to Forge events, creates bed waypoints and slime chunk overlays via the ClientAPI.
@@ -21,7 +27,14 @@ import java.util.HashMap;
 class ForgeEventListener
 {
     IClientAPI jmAPI;
-    HashMap<ChunkPos, PolygonOverlay> slimeChunkOverlays;
+
+    // Slime chunks merged into areas, with one overlay per area rather than per chunk
+    HashMap<ResourceKey<Level>, ChunkAreas> slimeChunkAreas;
+    HashMap<ChunkAreas.Area, PolygonOverlay> slimeChunkOverlays;
+
+    // Slime chunks loaded/unloaded since the last client tick, applied in a single batch at the end of the tick
+    HashMap<ResourceKey<Level>, List<ChunkPos>> pendingLoads;
+    HashMap<ResourceKey<Level>, List<ChunkPos>> pendingUnloads;
 
     /**
      * Constructor.
@@ -31,7 +44,10 @@ class ForgeEventListener
     ForgeEventListener(IClientAPI jmAPI)
     {
         this.jmAPI = jmAPI;
-        this.slimeChunkOverlays = new HashMap<ChunkPos, PolygonOverlay>();
+        this.slimeChunkAreas = new HashMap<ResourceKey<Level>, ChunkAreas>();
+        this.slimeChunkOverlays = new HashMap<ChunkAreas.Area, PolygonOverlay>();
+        this.pendingLoads = new HashMap<ResourceKey<Level>, List<ChunkPos>>();
+        this.pendingUnloads = new HashMap<ResourceKey<Level>, List<ChunkPos>>();
     }
 
     /**
@@ -58,7 +74,8 @@ class ForgeEventListener
     }
 
     /**
-     * Listen for Forge chunk load, show polygon overlay if it is a slime chunk.
+     * Listen for Forge chunk load, queue the chunk if it is a slime chunk.
+     * Many chunks load at once on login, so overlays are updated in a batch by {@link #onClientTick}.
      */
     @SubscribeEvent
     public void onChunkLoadEvent(ChunkEvent.Load event)
@@ -72,14 +89,8 @@ class ForgeEventListener
                     LevelChunk chunk = (LevelChunk) event.getChunk();
                     if (isSlimeChunk(chunk))
                     {
-                        ChunkPos chunkCoords = chunk.getPos();
-                        if (!slimeChunkOverlays.containsKey(chunkCoords))
-                        {
-                            ResourceKey<Level> dimension = ((Level) event.getWorld()).dimension();
-                            PolygonOverlay overlay = SamplePolygonOverlayFactory.create(chunkCoords, dimension);
-                            slimeChunkOverlays.put(chunkCoords, overlay);
-                            jmAPI.show(overlay);
-                        }
+                        ResourceKey<Level> dimension = ((Level) event.getWorld()).dimension();
+                        pendingLoads.computeIfAbsent(dimension, k -> new ArrayList<ChunkPos>()).add(chunk.getPos());
                     }
                 }
             }
@@ -91,7 +102,7 @@ class ForgeEventListener
     }
 
     /**
-     * Listen for Forge chunk unload, remove polygon overlay if it is a slime chunk.
+     * Listen for Forge chunk unload, queue the chunk if it is a slime chunk.
      */
     @SubscribeEvent
     public void onChunkUnloadEvent(ChunkEvent.Unload event)
@@ -101,15 +112,73 @@ class ForgeEventListener
             if (jmAPI.playerAccepts(ExampleMod.MODID, DisplayType.Polygon))
             {
                 ChunkPos chunkCoords = event.getChunk().getPos();
-                if (!slimeChunkOverlays.containsKey(chunkCoords))
+                ResourceKey<Level> dimension = ((Level) event.getWorld()).dimension();
+                List<ChunkPos> loads = pendingLoads.get(dimension);
+                if (loads == null || !loads.remove(chunkCoords))
                 {
-                    PolygonOverlay overlay = slimeChunkOverlays.remove(chunkCoords);
+                    ChunkAreas areas = slimeChunkAreas.get(dimension);
+                    if (areas != null && areas.contains(chunkCoords))
+                    {
+                        pendingUnloads.computeIfAbsent(dimension, k -> new ArrayList<ChunkPos>()).add(chunkCoords);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Listen for the end of the client tick, update the slime chunk areas with any queued chunks,
+     * and show/remove the overlays of the areas which changed in one batch each.
+     */
+    @SubscribeEvent
+    public void onClientTick(TickEvent.ClientTickEvent event)
+    {
+        if (event.phase != TickEvent.Phase.END || (pendingLoads.isEmpty() && pendingUnloads.isEmpty()))
+        {
+            return;
+        }
+
+        try
+        {
+            List<PolygonOverlay> toRemove = new ArrayList<PolygonOverlay>();
+            List<PolygonOverlay> toShow = new ArrayList<PolygonOverlay>();
+
+            HashSet<ResourceKey<Level>> dimensions = new HashSet<ResourceKey<Level>>(pendingLoads.keySet());
+            dimensions.addAll(pendingUnloads.keySet());
+            for (ResourceKey<Level> dimension : dimensions)
+            {
+                ChunkAreas areas = slimeChunkAreas.computeIfAbsent(dimension, k -> new ChunkAreas(70));
+                ChunkAreas.Changes changes = areas.update(
+                        pendingLoads.getOrDefault(dimension, Collections.<ChunkPos>emptyList()),
+                        pendingUnloads.getOrDefault(dimension, Collections.<ChunkPos>emptyList()));
+
+                for (ChunkAreas.Area area : changes.getRemoved())
+                {
+                    PolygonOverlay overlay = slimeChunkOverlays.remove(area);
                     if (overlay != null)
                     {
-                        jmAPI.remove(overlay);
+                        toRemove.add(overlay);
                     }
                 }
+                for (ChunkAreas.Area area : changes.getAdded())
+                {
+                    PolygonOverlay overlay = SamplePolygonOverlayFactory.create(area, dimension);
+                    slimeChunkOverlays.put(area, overlay);
+                    toShow.add(overlay);
+                }
             }
+            pendingLoads.clear();
+            pendingUnloads.clear();
+
+            // Removals first, since a new area may reuse the displayId of one it replaced
+            jmAPI.removeAll(toRemove);
+            jmAPI.showAll(toShow);
+        }
+        catch (Throwable t)
+        {
+            ExampleMod.LOGGER.error(t.getMessage(), t);
+            pendingLoads.clear();
+            pendingUnloads.clear();
         }
     }
 
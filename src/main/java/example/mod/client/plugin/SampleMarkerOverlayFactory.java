@@ -4,6 +4,7 @@ import example.mod.ExampleMod;
 import journeymap.client.api.IClientAPI;
 import journeymap.client.api.display.IOverlayListener;
 import journeymap.client.api.display.MarkerOverlay;
+import journeymap.client.api.display.Overlay;
 import journeymap.client.api.model.MapImage;
 import journeymap.client.api.util.UIState;
 import net.minecraft.core.BlockPos;
@@ -138,8 +139,8 @@ class SampleMarkerOverlayFactory
                         .setAnchorX(size / 2)
                         .setAnchorY(size);
 
-                // Use sparingly
-                overlay.flagForRerender();
+                // Only the icon changed, so the marker doesn't need to be moved or relabeled
+                overlay.markDirty(Overlay.DIRTY_STYLE);
             }
         }
 
@@ -177,8 +178,8 @@ class SampleMarkerOverlayFactory
                     .setAnchorX(size / 2)
                     .setAnchorY(size);
 
-            // Use sparingly
-            overlay.flagForRerender();
+            // Only the icon changed, so the marker doesn't need to be moved or relabeled
+            overlay.markDirty(Overlay.DIRTY_STYLE);
         }
     }
 }
@@ -3,10 +3,9 @@ package example.mod.client.plugin;
 import example.mod.ExampleMod;
 import journeymap.client.api.display.IOverlayListener;
 import journeymap.client.api.display.PolygonOverlay;
-import journeymap.client.api.model.MapPolygon;
 import journeymap.client.api.model.ShapeProperties;
 import journeymap.client.api.model.TextProperties;
-import journeymap.client.api.util.PolygonHelper;
+import journeymap.client.api.util.ChunkAreas;
 import journeymap.client.api.util.UIState;
 import net.minecraft.client.Minecraft;
 import net.minecraft.core.BlockPos;
@@ -23,17 +22,20 @@ import java.util.Random;
 class SamplePolygonOverlayFactory
 {
     /**
-     * Create an overlay for the given chunk coords.
+     * Create an overlay for the given area of chunks.
      *
-     * @param chunkCoords chunk location
-     * @param dimension   chunk dimension
+     * @param area      area of adjoining slime chunks
+     * @param dimension chunk dimension
      * @return a new overlay
      */
-    static PolygonOverlay create(ChunkPos chunkCoords, ResourceKey<Level> dimension)
+    static PolygonOverlay create(ChunkAreas.Area area, ResourceKey<Level> dimension)
     {
-        String displayId = "slime_" + chunkCoords.toString();
+        ChunkPos anchor = area.getAnchor();
+        String displayId = "slime_" + anchor.toString();
         String groupName = "Slime Chunks";
-        String label = String.format("Slime Chunk [%s,%s]", chunkCoords.x, chunkCoords.z);
+        String label = area.size() == 1
+                ? String.format("Slime Chunk [%s,%s]", anchor.x, anchor.z)
+                : String.format("%s Slime Chunks", area.size());
 
         // Style the polygon
         ShapeProperties shapeProps = new ShapeProperties()
@@ -50,11 +52,9 @@ class SamplePolygonOverlayFactory
                 .setMinZoom(2)
                 .setFontShadow(true);
 
-        // Define the shape
-        MapPolygon polygon = PolygonHelper.createChunkPolygon(chunkCoords.x, 70, chunkCoords.z);
-
-        // Create the overlay
-        PolygonOverlay slimeChunkOverlay = new PolygonOverlay(ExampleMod.MODID, displayId, dimension, shapeProps, polygon);
+        // Create the overlay, using the outline of the whole area as the shape
+        PolygonOverlay slimeChunkOverlay = new PolygonOverlay(ExampleMod.MODID, displayId, dimension, shapeProps,
+                area.getOuterArea(), area.getHoles());
 
         // Set the text
         slimeChunkOverlay.setOverlayGroupName(groupName)
@@ -20,6 +20,8 @@
 
 package journeymap.client.api;
 
+import journeymap.client.api.event.ClientEvent;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Target;
 
@@ -28,8 +30,41 @@ import java.lang.annotation.Target;
  * <p>
  * Classes with this annotation must have a no-arg constructor
  * and must also implement the {@link IClientPlugin} interface.
+ * <p>
+ * When the API jar is on the annotation processor path, the plugin is also written to a plugin index at compile time
+ * (see {@link journeymap.client.api.util.PluginIndex}).  If both {@link #modId()} and {@link #events()} are given,
+ * JourneyMap can then put off loading the plugin class until the first of those events is sent to it.
+ * <p>
+ * A deferred plugin is loaded and initialized by the first event, on the thread sending it: the main thread,
+ * unless {@link #asyncEvents()} is set and the event can't be cancelled.  Don't defer plugins whose initialization
+ * is slow, since the first event would wait for it.  Until it is loaded, only the annotation is known about it, so
+ * {@link IClientPlugin#supportsParallelInitialization()} doesn't apply.
  */
 @Target(ElementType.TYPE)
 public @interface ClientPlugin
 {
+    /**
+     * The mod id the plugin's {@link IClientPlugin#getModId()} returns.  Optional.
+     *
+     * @return the mod id, or an empty string if not given
+     */
+    String modId() default "";
+
+    /**
+     * The event types the plugin subscribes to in {@link IClientPlugin#initialize(IClientAPI)}.  Optional.
+     * <p>
+     * Only give these if the plugin does nothing in initialize which can't wait until the first event,
+     * such as showing overlays or registering other listeners.
+     *
+     * @return the event types, or none if not given
+     */
+    ClientEvent.Type[] events() default {};
+
+    /**
+     * What the plugin's {@link IClientPlugin#acceptsAsyncEvents()} returns.  Only used while the plugin is deferred,
+     * since its class isn't loaded yet; without it, a deferred plugin's events are always sent on the main thread.
+     *
+     * @return true if the plugin accepts async events
+     */
+    boolean asyncEvents() default false;
 }
@@ -23,16 +23,30 @@ package journeymap.client.api;
 import journeymap.client.api.display.Context;
 import journeymap.client.api.display.DisplayType;
 import journeymap.client.api.display.Displayable;
+import journeymap.client.api.display.ImageOverlay;
+import journeymap.client.api.display.MarkerOverlay;
+import journeymap.client.api.display.Overlay;
+import journeymap.client.api.display.OverlayHandle;
+import journeymap.client.api.display.PolygonOverlay;
+import journeymap.client.api.display.Waypoint;
 import journeymap.client.api.event.ClientEvent;
+import journeymap.client.api.event.IMouseMoveListener;
+import journeymap.client.api.model.MapTileKey;
+import journeymap.client.api.util.MapTileScheduler;
 import journeymap.client.api.util.UIState;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.awt.image.BufferedImage;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 /**
@@ -64,6 +78,31 @@ public interface IClientAPI
      */
     void subscribe(String modId, EnumSet<ClientEvent.Type> eventTypes);
 
+    /**
+     * Adds a listener for mouse moves on the Fullscreen map.  Moves are combined so the listener is called at most
+     * once per frame, with primitive arguments, so nothing is allocated per move.  Prefer this to subscribing to
+     * {@link ClientEvent.Type#MAP_MOUSE_MOVED} when the mouse and block positions are all that's needed.
+     *
+     * @param modId    Mod id
+     * @param listener the listener
+     * @return false if listeners aren't supported by this version of JourneyMap, in which case subscribe to
+     * MAP_MOUSE_MOVED instead
+     */
+    default boolean addMouseMoveListener(String modId, IMouseMoveListener listener)
+    {
+        return false;
+    }
+
+    /**
+     * Removes a listener added with {@link #addMouseMoveListener(String, IMouseMoveListener)}.
+     *
+     * @param modId    Mod id
+     * @param listener the listener
+     */
+    default void removeMouseMoveListener(String modId, IMouseMoveListener listener)
+    {
+    }
+
     /**
      * Add (or update) a displayable object to the player's maps. If you modify a Displayable after it
      * has been added, call this method again to ensure the maps reflect your changes.
@@ -79,6 +118,91 @@ public interface IClientAPI
      */
     void show(Displayable displayable) throws Exception;
 
+    /**
+     * Add (or update) a marker to the player's maps, and get a handle for changing it afterward.
+     * Changes made through the handle don't need another call to show, and JourneyMap only updates the
+     * properties which changed.  Prefer this for overlays which change often, such as markers following entities.
+     * <p>
+     * Has no effect on display types not accepted by the player.  The default implementation, for an IClientAPI
+     * without support for handles, shows the overlay again in full on each change.
+     *
+     * @param overlay The overlay to display.
+     * @return the handle
+     * @throws Exception if the Overlay can't be shown.
+     * @see #show(Displayable)
+     */
+    default OverlayHandle.Marker showWithHandle(MarkerOverlay overlay) throws Exception
+    {
+        show(overlay);
+        return new OverlayHandle.Marker(overlay, showingAgain());
+    }
+
+    /**
+     * Add (or update) an image to the player's maps, and get a handle for changing it afterward.
+     * See {@link #showWithHandle(MarkerOverlay)}.
+     *
+     * @param overlay The overlay to display.
+     * @return the handle
+     * @throws Exception if the Overlay can't be shown.
+     */
+    default OverlayHandle.Image showWithHandle(ImageOverlay overlay) throws Exception
+    {
+        show(overlay);
+        return new OverlayHandle.Image(overlay, showingAgain());
+    }
+
+    /**
+     * Add (or update) a polygon to the player's maps, and get a handle for changing it afterward.
+     * See {@link #showWithHandle(MarkerOverlay)}.
+     *
+     * @param overlay The overlay to display.
+     * @return the handle
+     * @throws Exception if the Overlay can't be shown.
+     */
+    default OverlayHandle.Polygon showWithHandle(PolygonOverlay overlay) throws Exception
+    {
+        show(overlay);
+        return new OverlayHandle.Polygon(overlay, showingAgain());
+    }
+
+    /**
+     * What the default showWithHandle methods do on a change: show the overlay again in full, straight away.
+     */
+    private Consumer<OverlayHandle<?>> showingAgain()
+    {
+        return handle -> {
+            handle.takeChanges();
+            try
+            {
+                show(handle.getOverlay());
+            }
+            catch (Exception e)
+            {
+                throw new IllegalStateException("Can't update " + handle.getOverlay().getGuid(), e);
+            }
+        };
+    }
+
+    /**
+     * Add (or update) a batch of displayable objects to the player's maps.  This has the same effect as calling
+     * {@link #show(Displayable)} for each of them, but implementations validate and register the whole batch
+     * together and only flag the maps for rerendering once.  Prefer this when showing many objects at once,
+     * such as on login or when a large area is loaded.
+     * <p>
+     * Has no effect on display types not accepted by the player.
+     *
+     * @param displayables The objects to display.
+     * @throws Exception if any of the Displayables can't be shown.
+     * @see #show(Displayable)
+     */
+    default void showAll(Collection<? extends Displayable> displayables) throws Exception
+    {
+        for (Displayable displayable : displayables)
+        {
+            show(displayable);
+        }
+    }
+
     /**
      * Remove a displayable from the player's maps.
      * Has no effect on display types not accepted by the player.
@@ -88,6 +212,23 @@ public interface IClientAPI
      */
     void remove(Displayable displayable);
 
+    /**
+     * Remove a batch of displayables from the player's maps.  This has the same effect as calling
+     * {@link #remove(Displayable)} for each of them, but implementations only flag the maps for rerendering once.
+     * <p>
+     * Has no effect on display types not accepted by the player.
+     *
+     * @param displayables The objects to remove.
+     * @see #remove(Displayable)
+     */
+    default void removeAll(Collection<? extends Displayable> displayables)
+    {
+        for (Displayable displayable : displayables)
+        {
+            remove(displayable);
+        }
+    }
+
     /**
      * Remove all displayables by DisplayType from the player's maps.
      * Has no effect on display types not accepted by the player.
@@ -128,6 +269,49 @@ public interface IClientAPI
      */
     boolean playerAccepts(String modId, DisplayType displayType);
 
+    /**
+     * Finds the waypoints shown by any mod which are displayed in a dimension, nearest to a position first.
+     * Positions are in the dimension's coordinates, so a Nether waypoint displayed in the Overworld is 8 times
+     * as far out as its Nether position.
+     *
+     * @param dimension the dimension, such as "minecraft:overworld"
+     * @param x         block x
+     * @param z         block z
+     * @param count     maximum number of waypoints
+     * @return the waypoints, nearest first; empty if not supported by this version of JourneyMap
+     * @see journeymap.client.api.util.WaypointIndex
+     */
+    default List<Waypoint> getNearestWaypoints(String dimension, double x, double z, int count)
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Finds the waypoints shown by any mod which are displayed in a dimension within a horizontal distance of a position.
+     *
+     * @param dimension the dimension, such as "minecraft:overworld"
+     * @param x         block x
+     * @param z         block z
+     * @param radius    distance in blocks
+     * @return the waypoints, in no particular order; empty if not supported by this version of JourneyMap
+     */
+    default List<Waypoint> getWaypointsWithin(String dimension, double x, double z, double radius)
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Finds the waypoints shown by any mod which are displayed in a dimension within the bounds.
+     *
+     * @param dimension the dimension, such as "minecraft:overworld"
+     * @param bounds    the area of blocks
+     * @return the waypoints, in no particular order; empty if not supported by this version of JourneyMap
+     */
+    default List<Waypoint> getWaypointsWithin(String dimension, AABB bounds)
+    {
+        return Collections.emptyList();
+    }
+
     /**
      * Note:  This method IS NOT SUPPORTED for most mods. Misuse will lead to severe performance issues.
      * Talk to Techbrew if you need to use this function.
@@ -148,6 +332,40 @@ public interface IClientAPI
     void requestMapTile(String modId, ResourceKey<Level> dimension, Context.MapType mapType, ChunkPos startChunk, net.minecraft.world.level.ChunkPos endChunk,
                         @Nullable Integer chunkY, int zoom, boolean showGrid, final Consumer<BufferedImage> callback);
 
+    /**
+     * Note:  This method IS NOT SUPPORTED for most mods. Misuse will lead to severe performance issues.
+     * Talk to Techbrew if you need to use this function.
+     * <p>
+     * Asynchronously request a BufferedImage map tile from JourneyMap, with a priority.  Tiles with lower priority values
+     * are rendered first; see {@link MapTileScheduler#PRIORITY_VISIBLE}.  Identical requests which are pending at the same
+     * time, from any mod, share one render.
+     * <p>
+     * Cancel the returned future when the tile is no longer needed, such as when it has been panned off screen.
+     * Once every request for a tile is cancelled it will not be rendered.
+     *
+     * @param modId    Mod id
+     * @param tile     The tile
+     * @param priority Lower values are rendered first
+     * @return A future for the BufferedImage. If it completes with null, then no image available.
+     */
+    default CompletableFuture<BufferedImage> requestMapTile(String modId, MapTileKey tile, int priority)
+    {
+        CompletableFuture<BufferedImage> future = new CompletableFuture<BufferedImage>();
+        requestMapTile(modId, tile.getDimension(), tile.getMapType(), tile.getStartChunk(), tile.getEndChunk(),
+                tile.getChunkY(), tile.getZoom(), tile.isShowGrid(), future::complete);
+        return future;
+    }
+
+    /**
+     * Returns the number of map tiles waiting to be rendered.
+     *
+     * @return the queue depth, or -1 if not known.
+     */
+    default int getMapTileQueueDepth()
+    {
+        return -1;
+    }
+
     /**
      * Note:  This method IS NOT SUPPORTED for most mods. Talk to Techbrew if you need to use this function.
      * <p>
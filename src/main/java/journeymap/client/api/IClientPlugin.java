@@ -51,7 +51,8 @@ public interface IClientPlugin
     String getModId();
 
     /**
-     * Called by JourneyMap on the main Minecraft thread when a {@link journeymap.client.api.event.ClientEvent} occurs.
+     * Called by JourneyMap on the main Minecraft thread when a {@link journeymap.client.api.event.ClientEvent} occurs,
+     * or on a background thread if {@link #acceptsAsyncEvents()} and the event can't be cancelled.
      * Be careful to minimize the time spent in this method so you don't lag the game.
      * <p>
      * You must call {@link IClientAPI#subscribe(String, EnumSet)} to subscribe to these events ( preferably during
@@ -65,4 +66,35 @@ public interface IClientPlugin
      * @param event the event
      */
     void onEvent(final ClientEvent event);
+
+    /**
+     * Whether events which can't be cancelled, such as DISPLAY_UPDATE and MAPPING_STARTED, may be sent to
+     * {@link #onEvent(ClientEvent)} on a background thread instead of the main Minecraft thread.  Cancellable events
+     * are always sent on the main thread.
+     * <p>
+     * Return true if your plugin does heavy work in response to events and doesn't touch game state which is only
+     * safe to use on the main thread.  Queued events are still sent one at a time, in order, but a cancellable
+     * event is sent as soon as it happens: it may arrive ahead of earlier events which are still queued, and while
+     * one of them is being handled on the background thread.
+     *
+     * @return false by default
+     */
+    default boolean acceptsAsyncEvents()
+    {
+        return false;
+    }
+
+    /**
+     * Whether {@link #initialize(IClientAPI)} may be called on a background thread, at the same time as other
+     * plugins are initialized.  Otherwise it is called on the thread which loads JourneyMap.
+     * <p>
+     * Return true if your initialization is slow and doesn't touch game state which is only safe to use on
+     * the main thread.
+     *
+     * @return false by default
+     */
+    default boolean supportsParallelInitialization()
+    {
+        return false;
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.display;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable key of a Displayable: its mod, DisplayType and display id.  Two Displayables with equal keys
+ * replace one another when shown.
+ * <p>
+ * Keys are interned, so every Displayable with the same key shares one instance while any of them is alive.
+ * The hash is computed once, mod ids are compared as small ints, and the GUID string is only built the
+ * first time it is asked for.  Use keys rather than {@link Displayable#getGuid()} to look Displayables up.
+ */
+@ParametersAreNonnullByDefault
+public final class DisplayKey
+{
+    private static final Interner<DisplayKey> INTERNER = Interners.newWeakInterner();
+    private static final ConcurrentHashMap<String, Integer> MOD_INDICES = new ConcurrentHashMap<String, Integer>();
+    private static final AtomicInteger NEXT_MOD_INDEX = new AtomicInteger();
+
+    private final String modId;
+    private final int modIndex;
+    private final DisplayType displayType;
+    private final String id;
+    private final int hash;
+    private volatile String guid;
+
+    private DisplayKey(@Nullable String modId, @Nullable DisplayType displayType, @Nullable String id)
+    {
+        this.modId = modId;
+        this.modIndex = modId == null ? -1 : MOD_INDICES.computeIfAbsent(modId, k -> NEXT_MOD_INDEX.getAndIncrement());
+        this.displayType = displayType;
+        this.id = id;
+        this.hash = 31 * (31 * modIndex + (displayType == null ? -1 : displayType.ordinal())) + (id == null ? 0 : id.hashCode());
+    }
+
+    /**
+     * Gets the shared key for a mod id, DisplayType and display id.  Nulls are allowed, since a Displayable
+     * created by deserialization has no fields set until it is populated.
+     *
+     * @param modId       the mod id
+     * @param displayType the display type
+     * @param id          the display id
+     * @return the key
+     */
+    public static DisplayKey of(@Nullable String modId, @Nullable DisplayType displayType, @Nullable String id)
+    {
+        return INTERNER.intern(new DisplayKey(modId, displayType, id));
+    }
+
+    /**
+     * The mod id.
+     *
+     * @return the mod id
+     */
+    @Nullable
+    public String getModId()
+    {
+        return modId;
+    }
+
+    /**
+     * A small number standing for the mod id, the same for every key with that mod id.
+     *
+     * @return the index, -1 if the mod id is null
+     */
+    public int getModIndex()
+    {
+        return modIndex;
+    }
+
+    /**
+     * The display type.
+     *
+     * @return the display type
+     */
+    @Nullable
+    public DisplayType getDisplayType()
+    {
+        return displayType;
+    }
+
+    /**
+     * The display id.
+     *
+     * @return the display id
+     */
+    @Nullable
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * Dash-delimited GUID in the form of "modid-displayType-displayId".  Built once, then reused.
+     *
+     * @return the guid
+     */
+    public String getGuid()
+    {
+        String result = guid;
+        if (result == null)
+        {
+            result = Joiner.on("-").join(modId, displayType, id);
+            guid = result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof DisplayKey))
+        {
+            return false;
+        }
+        DisplayKey that = (DisplayKey) o;
+        return hash == that.hash && modIndex == that.modIndex && displayType == that.displayType && Objects.equal(id, that.id);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+                .add("modId", modId)
+                .add("displayType", displayType)
+                .add("id", id)
+                .toString();
+    }
+}
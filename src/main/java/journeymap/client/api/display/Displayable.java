@@ -20,8 +20,6 @@
 
 package journeymap.client.api.display;
 
-import com.google.common.base.Joiner;
-import com.google.common.base.Objects;
 import com.google.common.base.Strings;
 import com.google.gson.annotations.Since;
 
@@ -44,6 +42,11 @@ public abstract class Displayable implements Comparable<Displayable>
     @Since(1.1)
     protected final DisplayType displayType;
 
+    /**
+     * Created on first use, since GSON sets the fields after construction.
+     */
+    private transient DisplayKey key;
+
     /**
      * Needed for GSON deserialization.
      */
@@ -144,6 +147,27 @@ public abstract class Displayable implements Comparable<Displayable>
         return displayType;
     }
 
+    /**
+     * Key made of the mod id, DisplayType and display id.  Cheaper than {@link #getGuid()} for looking
+     * Displayables up, since it is created once and shared.
+     *
+     * @return the key
+     */
+    public final DisplayKey getKey()
+    {
+        DisplayKey result = key;
+        if (result == null)
+        {
+            result = DisplayKey.of(modId, displayType, id);
+            // Not kept until every field is set, such as while Gson is still populating this
+            if (modId != null && displayType != null && id != null)
+            {
+                key = result;
+            }
+        }
+        return result;
+    }
+
     /**
      * Dash-delimited GUID for the display object in the form of "modid-displayType-displayId".
      *
@@ -151,7 +175,7 @@ public abstract class Displayable implements Comparable<Displayable>
      */
     public final String getGuid()
     {
-        return Joiner.on("-").join(modId, displayType, id);
+        return getKey().getGuid();
     }
 
     /**
@@ -171,16 +195,13 @@ public abstract class Displayable implements Comparable<Displayable>
         {
             return false;
         }
-        Displayable that = (Displayable) o;
-        return Objects.equal(modId, that.modId) &&
-                Objects.equal(displayType, that.displayType) &&
-                Objects.equal(id, that.id);
+        return getKey().equals(((Displayable) o).getKey());
     }
 
     @Override
     public int hashCode()
     {
-        return Objects.hashCode(modId, displayType, id);
+        return getKey().hashCode();
     }
 
     /**
@@ -22,6 +22,7 @@ package journeymap.client.api.display;
 
 import journeymap.client.api.model.MapImage;
 import net.minecraft.core.BlockPos;
+import net.minecraft.world.phys.AABB;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -32,7 +33,8 @@ import javax.annotation.ParametersAreNonnullByDefault;
  * <p>
  * Note that like all Displayables, simply changing this object doesn't guarantee the player will get the changes.
  * You must call {@link journeymap.client.api.IClientAPI#show(Displayable)} in order for the changes to take effect
- * in JourneyMap.
+ * in JourneyMap.  Alternatively, make changes through the {@link OverlayHandle} returned by
+ * {@link journeymap.client.api.IClientAPI#showWithHandle(ImageOverlay)}.
  */
 @ParametersAreNonnullByDefault
 public final class ImageOverlay extends Overlay
@@ -75,6 +77,7 @@ public final class ImageOverlay extends Overlay
     public ImageOverlay setNorthWestPoint(BlockPos northWestPoint)
     {
         this.northWestPoint = northWestPoint;
+        markDirty(DIRTY_GEOMETRY);
         return this;
     }
 
@@ -95,6 +98,7 @@ public final class ImageOverlay extends Overlay
     public ImageOverlay setSouthEastPoint(BlockPos southEastPoint)
     {
         this.southEastPoint = southEastPoint;
+        markDirty(DIRTY_GEOMETRY);
         return this;
     }
 
@@ -117,9 +121,21 @@ public final class ImageOverlay extends Overlay
     public ImageOverlay setImage(MapImage image)
     {
         this.image = image;
+        markDirty(DIRTY_STYLE);
         return this;
     }
 
+    /**
+     * The bounds between the north-west and south-east points of the image.
+     *
+     * @return the bounds
+     */
+    @Override
+    public AABB getBounds()
+    {
+        return new AABB(northWestPoint, southEastPoint);
+    }
+
     @Override
     public String toString()
     {
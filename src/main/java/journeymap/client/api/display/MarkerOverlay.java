@@ -22,6 +22,7 @@ package journeymap.client.api.display;
 
 import journeymap.client.api.model.MapImage;
 import net.minecraft.core.BlockPos;
+import net.minecraft.world.phys.AABB;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -33,7 +34,8 @@ import javax.annotation.ParametersAreNonnullByDefault;
  * <p>
  * Note that like all Displayables, simply changing this object doesn't guarantee the player will get the changes.
  * You must call {@link journeymap.client.api.IClientAPI#show(Displayable)} in order for the changes to take effect
- * in JourneyMap.
+ * in JourneyMap.  Alternatively, make changes through the {@link OverlayHandle} returned by
+ * {@link journeymap.client.api.IClientAPI#showWithHandle(MarkerOverlay)}.
  */
 @ParametersAreNonnullByDefault
 public final class MarkerOverlay extends Overlay
@@ -73,6 +75,7 @@ public final class MarkerOverlay extends Overlay
     public MarkerOverlay setPoint(net.minecraft.core.BlockPos point)
     {
         this.point = point;
+        markDirty(DIRTY_GEOMETRY);
         return this;
     }
 
@@ -95,9 +98,22 @@ public final class MarkerOverlay extends Overlay
     public MarkerOverlay setIcon(MapImage icon)
     {
         this.icon = icon;
+        markDirty(DIRTY_STYLE);
         return this;
     }
 
+    /**
+     * The bounds of the marker's point.  The icon isn't included, since its size is in pixels rather than blocks
+     * and so depends on the zoom level of the UI.
+     *
+     * @return the bounds
+     */
+    @Override
+    public AABB getBounds()
+    {
+        return new AABB(point, point);
+    }
+
     @Override
     public String toString()
     {
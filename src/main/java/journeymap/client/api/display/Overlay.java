@@ -22,13 +22,16 @@ package journeymap.client.api.display;
 
 import com.google.common.base.MoreObjects;
 import journeymap.client.api.model.TextProperties;
+import journeymap.client.api.util.ActivationMask;
 import journeymap.client.api.util.UIState;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Provides IDs and key information for map overlays in JourneyMap.
@@ -36,6 +39,38 @@ import java.util.EnumSet;
 @ParametersAreNonnullByDefault
 public abstract class Overlay extends Displayable
 {
+    /**
+     * Dirty flag: the position or shape changed, such as a marker's point or a polygon's area.
+     */
+    public static final int DIRTY_GEOMETRY = 1;
+
+    /**
+     * Dirty flag: how the geometry is drawn changed, such as an icon, shape properties or display order.
+     */
+    public static final int DIRTY_STYLE = 1 << 1;
+
+    /**
+     * Dirty flag: the title, label or text properties changed.
+     */
+    public static final int DIRTY_TEXT = 1 << 2;
+
+    /**
+     * Dirty flag: where the overlay is active changed, such as its zoom range, UIs, map types or group.
+     */
+    public static final int DIRTY_VISIBILITY = 1 << 3;
+
+    /**
+     * Dirty flag: the overlay listener changed.
+     */
+    public static final int DIRTY_LISTENER = 1 << 4;
+
+    /**
+     * Every dirty flag.
+     */
+    public static final int DIRTY_ALL = DIRTY_GEOMETRY | DIRTY_STYLE | DIRTY_TEXT | DIRTY_VISIBILITY | DIRTY_LISTENER;
+
+    private static final AtomicLongFieldUpdater<Overlay> ACTIVATION_MASK = AtomicLongFieldUpdater.newUpdater(Overlay.class, "activationMask");
+
     protected String overlayGroupName;
     protected String title;
     protected String label;
@@ -45,9 +80,14 @@ public abstract class Overlay extends Displayable
     protected int displayOrder;
     protected EnumSet<Context.UI> activeUIs = EnumSet.of(Context.UI.Any);
     protected EnumSet<Context.MapType> activeMapTypes = EnumSet.of(Context.MapType.Any);
+    protected transient volatile long activationMask;
     protected TextProperties textProperties = new TextProperties();
     protected IOverlayListener overlayListener;
-    protected boolean needsRerender = true;
+    /**
+     * Flags which are clean rather than dirty, so a deserialized overlay starts with every flag dirty.
+     */
+    protected transient int cleanFlags;
+    private transient int cleanTextRevision = -1;
 
     /**
      * Constructor.
@@ -79,6 +119,7 @@ public abstract class Overlay extends Displayable
     public Overlay setDimension(ResourceKey<Level> dimension)
     {
         this.dimension = dimension;
+        markDirty(DIRTY_GEOMETRY);
         return this;
     }
 
@@ -101,6 +142,7 @@ public abstract class Overlay extends Displayable
     public Overlay setOverlayGroupName(String overlayGroupName)
     {
         this.overlayGroupName = overlayGroupName;
+        markDirty(DIRTY_VISIBILITY);
         return this;
     }
 
@@ -123,6 +165,7 @@ public abstract class Overlay extends Displayable
     public Overlay setTitle(@Nullable String title)
     {
         this.title = title;
+        markDirty(DIRTY_TEXT);
         return this;
     }
 
@@ -145,6 +188,7 @@ public abstract class Overlay extends Displayable
     public Overlay setLabel(@Nullable String label)
     {
         this.label = label;
+        markDirty(DIRTY_TEXT);
         return this;
     }
 
@@ -167,6 +211,8 @@ public abstract class Overlay extends Displayable
     public Overlay setMinZoom(int minZoom)
     {
         this.minZoom = Math.max(0, minZoom);
+        this.activationMask = ActivationMask.of(activeUIs, activeMapTypes, minZoom, maxZoom);
+        markDirty(DIRTY_VISIBILITY);
         return this;
     }
 
@@ -189,6 +235,8 @@ public abstract class Overlay extends Displayable
     public Overlay setMaxZoom(int maxZoom)
     {
         this.maxZoom = Math.min(8, maxZoom);
+        this.activationMask = ActivationMask.of(activeUIs, activeMapTypes, minZoom, maxZoom);
+        markDirty(DIRTY_VISIBILITY);
         return this;
     }
 
@@ -213,6 +261,7 @@ public abstract class Overlay extends Displayable
     public Overlay setDisplayOrder(int zIndex)
     {
         this.displayOrder = zIndex;
+        markDirty(DIRTY_STYLE);
         return this;
     }
 
@@ -235,12 +284,14 @@ public abstract class Overlay extends Displayable
     public Overlay setTextProperties(TextProperties textProperties)
     {
         this.textProperties = textProperties;
+        markDirty(DIRTY_TEXT);
         return this;
     }
 
     /**
      * Returns a set of enums indicating which JourneyMap UIs (Fullscreen, Minimap, Webmap)
-     * the overlay should be active in.
+     * the overlay should be active in.  Use {@link #setActiveUIs(EnumSet)} to change them; changing the
+     * returned set directly won't update the {@link #getActivationMask() activation mask}.
      *
      * @return enumset
      */
@@ -261,12 +312,16 @@ public abstract class Overlay extends Displayable
         {
             activeUIs = EnumSet.of(Context.UI.Any);
         }
-        this.activeUIs = activeUIs;
+        this.activeUIs = EnumSet.copyOf(activeUIs);
+        this.activationMask = ActivationMask.of(activeUIs, activeMapTypes, minZoom, maxZoom);
+        markDirty(DIRTY_VISIBILITY);
         return this;
     }
 
     /**
      * Returns a set of enums indicating which map types (Day, Night) the overlay should be active in.
+     * Use {@link #setActiveMapTypes(EnumSet)} to change them; changing the returned set directly won't
+     * update the {@link #getActivationMask() activation mask}.
      *
      * @return enumset
      */
@@ -287,7 +342,9 @@ public abstract class Overlay extends Displayable
         {
             activeMapTypes = EnumSet.of(Context.MapType.Any);
         }
-        this.activeMapTypes = activeMapTypes;
+        this.activeMapTypes = EnumSet.copyOf(activeMapTypes);
+        this.activationMask = ActivationMask.of(activeUIs, activeMapTypes, minZoom, maxZoom);
+        markDirty(DIRTY_VISIBILITY);
         return this;
     }
 
@@ -299,12 +356,37 @@ public abstract class Overlay extends Displayable
      */
     public boolean isActiveIn(UIState uiState)
     {
-        return ((uiState.active && this.dimension == uiState.dimension)
-                && (activeUIs.contains(Context.UI.Any) || activeUIs.contains(uiState.ui))
-                && (activeMapTypes.contains(Context.MapType.Any) || activeMapTypes.contains(uiState.mapType))
-                && (this.minZoom <= uiState.zoom && this.maxZoom >= uiState.zoom));
+        return uiState.active && this.dimension == uiState.dimension
+                && ActivationMask.matches(getActivationMask(), uiState.activationMask);
     }
 
+    /**
+     * The {@link ActivationMask} of the UIs, map types and zoom levels where the overlay is active.
+     * Set along with those properties, and computed when first needed on one that was constructed or deserialized
+     * without them, so it is never saved with them.
+     *
+     * @return the mask
+     */
+    public long getActivationMask()
+    {
+        long mask = activationMask;
+        if (mask == 0)
+        {
+            mask = ActivationMask.of(activeUIs, activeMapTypes, minZoom, maxZoom);
+            // Only if no setter has stored a newer mask meanwhile; an empty mask is just recomputed each time
+            ACTIVATION_MASK.compareAndSet(this, 0, mask);
+        }
+        return mask;
+    }
+
+    /**
+     * The area of blocks covered by the overlay, used to find the overlays within a UI's
+     * {@link UIState#blockBounds}.  Only the X and Z axes are meaningful for the map.
+     *
+     * @return the bounds
+     */
+    public abstract AABB getBounds();
+
     /**
      * Gets the listener for user events on the overlay.
      *
@@ -324,6 +406,7 @@ public abstract class Overlay extends Displayable
     public Overlay setOverlayListener(@Nullable IOverlayListener overlayListener)
     {
         this.overlayListener = overlayListener;
+        markDirty(DIRTY_LISTENER);
         return this;
     }
 
@@ -331,28 +414,85 @@ public abstract class Overlay extends Displayable
      * Indicate the overlay needs to be re-rendered. Typically you don't need to use this unless you
      * are updating an overlay dynamically and the chances aren't shown until the map is panned
      * or zoomed. For example within and IOverlayListener. Overusing this can cause performance problems.
+     * <p>
+     * The setters mark what they change with {@link #markDirty(int)}, so this is only needed for changes made
+     * some other way, such as to a MapImage or MapPolygon which is already in use.  It marks everything dirty.
      */
     public void flagForRerender()
     {
-        needsRerender = true;
+        markDirty(DIRTY_ALL);
     }
 
     /**
-     * Used by JourneyMap after the overlay has been re-rendered.
+     * Used by JourneyMap after the overlay has been re-rendered.  Clears every dirty flag.
      */
     public void clearFlagForRerender()
     {
-        needsRerender = false;
+        clearDirty(DIRTY_ALL);
     }
 
     /**
      * Gets whether the overlay needs to be re-rendered.
      *
-     * @return true if rerender needed
+     * @return true if any dirty flag is set
      */
     public boolean getNeedsRerender()
     {
-        return needsRerender;
+        return getDirtyFlags() != 0;
+    }
+
+    /**
+     * Which aspects of the overlay have changed since JourneyMap last cleared them, so only the work they
+     * affect needs to be redone.  For example, a changed label doesn't need a polygon to be tessellated again.
+     * New and deserialized overlays start with every flag set.  Changes to the TextProperties through its setters count as
+     * {@link #DIRTY_TEXT}.
+     *
+     * @return bits of {@link #DIRTY_GEOMETRY}, {@link #DIRTY_STYLE}, {@link #DIRTY_TEXT}, {@link #DIRTY_VISIBILITY}
+     * and {@link #DIRTY_LISTENER}
+     */
+    public int getDirtyFlags()
+    {
+        int flags = DIRTY_ALL & ~cleanFlags;
+        if (textProperties.getRevision() != cleanTextRevision)
+        {
+            flags |= DIRTY_TEXT;
+        }
+        return flags;
+    }
+
+    /**
+     * Whether any of the given aspects of the overlay have changed.
+     *
+     * @param flags dirty flags
+     * @return true if any are set
+     */
+    public boolean isDirty(int flags)
+    {
+        return (getDirtyFlags() & flags) != 0;
+    }
+
+    /**
+     * Marks aspects of the overlay as changed.
+     *
+     * @param flags dirty flags
+     */
+    public void markDirty(int flags)
+    {
+        cleanFlags &= ~flags;
+    }
+
+    /**
+     * Used by JourneyMap once it has handled changes to aspects of the overlay.
+     *
+     * @param flags dirty flags
+     */
+    public void clearDirty(int flags)
+    {
+        cleanFlags |= flags;
+        if ((flags & DIRTY_TEXT) != 0)
+        {
+            cleanTextRevision = textProperties.getRevision();
+        }
     }
 
     /**
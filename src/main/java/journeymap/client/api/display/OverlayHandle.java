@@ -0,0 +1,411 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.display;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import journeymap.client.api.model.MapImage;
+import journeymap.client.api.model.MapPolygon;
+import journeymap.client.api.model.ShapeProperties;
+import journeymap.client.api.model.TextProperties;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Handle to an overlay which has been shown, returned by one of the showWithHandle methods of
+ * {@link journeymap.client.api.IClientAPI}.  There is a handle type for each kind of overlay,
+ * {@link Marker}, {@link Image} and {@link Polygon}, with setters for just the properties that kind has.
+ * <p>
+ * Changing an overlay through its handle records which properties changed, so JourneyMap only has to update what
+ * is affected, such as moving a marker without reloading its icon.  The overlay doesn't need to be shown again.
+ * JourneyMap picks changes up on the next frame, combining several changes to the same overlay in one frame;
+ * an IClientAPI without support for handles shows the overlay again in full on each change instead.
+ * <p>
+ * Changes are reported as the same {@link Overlay} dirty flags the overlay's own setters mark.
+ * Setting a property to its current value, or to properties equal to the current ones, isn't a change.
+ * <p>
+ * Setters use the Builder pattern so they can be chained.  Not thread-safe; use it on the client thread.
+ *
+ * @param <T> the overlay type
+ */
+@ParametersAreNonnullByDefault
+public abstract class OverlayHandle<T extends Overlay>
+{
+    private final T overlay;
+    private final Consumer<? super OverlayHandle<?>> onChange;
+    private int changes;
+
+    OverlayHandle(T overlay, Consumer<? super OverlayHandle<?>> onChange)
+    {
+        this.overlay = overlay;
+        this.onChange = onChange;
+    }
+
+    /**
+     * The overlay.  Changing it directly isn't tracked; use the handle's setters instead.
+     *
+     * @return the overlay
+     */
+    public T getOverlay()
+    {
+        return overlay;
+    }
+
+    /**
+     * Moves the overlay to another dimension.
+     *
+     * @param dimension the dimension
+     * @return this
+     */
+    public OverlayHandle<T> setDimension(ResourceKey<Level> dimension)
+    {
+        if (dimension != overlay.getDimension())
+        {
+            overlay.setDimension(dimension);
+            changed(Overlay.DIRTY_GEOMETRY);
+        }
+        return this;
+    }
+
+    /**
+     * Changes the label.
+     *
+     * @param label the label
+     * @return this
+     */
+    public OverlayHandle<T> setLabel(@Nullable String label)
+    {
+        if (!Objects.equal(label, overlay.getLabel()))
+        {
+            overlay.setLabel(label);
+            changed(Overlay.DIRTY_TEXT);
+        }
+        return this;
+    }
+
+    /**
+     * Changes the title.
+     *
+     * @param title the title
+     * @return this
+     */
+    public OverlayHandle<T> setTitle(@Nullable String title)
+    {
+        if (!Objects.equal(title, overlay.getTitle()))
+        {
+            overlay.setTitle(title);
+            changed(Overlay.DIRTY_TEXT);
+        }
+        return this;
+    }
+
+    /**
+     * Changes the text properties.  Properties equal to the current ones are ignored, so keep changing the
+     * overlay's own properties rather than the ones passed in.
+     *
+     * @param textProperties the properties
+     * @return this
+     */
+    public OverlayHandle<T> setTextProperties(TextProperties textProperties)
+    {
+        if (!textProperties.equals(overlay.getTextProperties()))
+        {
+            overlay.setTextProperties(textProperties);
+            changed(Overlay.DIRTY_TEXT);
+        }
+        return this;
+    }
+
+    /**
+     * Changes the zoom levels where the overlay is shown.
+     *
+     * @param minZoom the min zoom
+     * @param maxZoom the max zoom
+     * @return this
+     */
+    public OverlayHandle<T> setZoomRange(int minZoom, int maxZoom)
+    {
+        if (minZoom != overlay.getMinZoom() || maxZoom != overlay.getMaxZoom())
+        {
+            overlay.setMinZoom(minZoom);
+            overlay.setMaxZoom(maxZoom);
+            changed(Overlay.DIRTY_VISIBILITY);
+        }
+        return this;
+    }
+
+    /**
+     * Changes the UIs where the overlay is shown.
+     *
+     * @param activeUIs the UIs
+     * @return this
+     */
+    public OverlayHandle<T> setActiveUIs(EnumSet<Context.UI> activeUIs)
+    {
+        if (!activeUIs.equals(overlay.getActiveUIs()))
+        {
+            overlay.setActiveUIs(activeUIs);
+            changed(Overlay.DIRTY_VISIBILITY);
+        }
+        return this;
+    }
+
+    /**
+     * Changes the map types where the overlay is shown.
+     *
+     * @param activeMapTypes the map types
+     * @return this
+     */
+    public OverlayHandle<T> setActiveMapTypes(EnumSet<Context.MapType> activeMapTypes)
+    {
+        if (!activeMapTypes.equals(overlay.getActiveMapTypes()))
+        {
+            overlay.setActiveMapTypes(activeMapTypes);
+            changed(Overlay.DIRTY_VISIBILITY);
+        }
+        return this;
+    }
+
+    /**
+     * The changes made since {@link #takeChanges()} was last called.
+     *
+     * @return the {@link Overlay} dirty flags of what changed, such as {@link Overlay#DIRTY_GEOMETRY}
+     */
+    public int getChanges()
+    {
+        return changes;
+    }
+
+    /**
+     * Used by JourneyMap to get the changes to apply, which clears them.
+     *
+     * @return the {@link Overlay} dirty flags of what changed, such as {@link Overlay#DIRTY_GEOMETRY}
+     */
+    public int takeChanges()
+    {
+        int taken = changes;
+        changes = 0;
+        return taken;
+    }
+
+    void changed(int change)
+    {
+        boolean wasClean = changes == 0;
+        changes |= change;
+        if (wasClean)
+        {
+            onChange.accept(this);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+                .add("overlay", overlay.getKey())
+                .add("changes", Integer.toBinaryString(changes))
+                .toString();
+    }
+
+    /**
+     * Handle to a {@link MarkerOverlay}.
+     */
+    public static final class Marker extends OverlayHandle<MarkerOverlay>
+    {
+        /**
+         * Constructor.  Used by JourneyMap.
+         *
+         * @param overlay  the overlay, which has been shown
+         * @param onChange called when the handle goes from having no changes to having some, so it can be queued
+         *                 until the next frame
+         */
+        public Marker(MarkerOverlay overlay, Consumer<? super OverlayHandle<?>> onChange)
+        {
+            super(overlay, onChange);
+        }
+
+        /**
+         * Moves the marker.
+         *
+         * @param point location
+         * @return this
+         */
+        public Marker setPoint(BlockPos point)
+        {
+            if (!point.equals(getOverlay().getPoint()))
+            {
+                getOverlay().setPoint(point);
+                changed(Overlay.DIRTY_GEOMETRY);
+            }
+            return this;
+        }
+
+        /**
+         * Changes the icon.
+         *
+         * @param icon the image
+         * @return this
+         */
+        public Marker setIcon(MapImage icon)
+        {
+            if (icon != getOverlay().getIcon())
+            {
+                getOverlay().setIcon(icon);
+                changed(Overlay.DIRTY_STYLE);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Handle to an {@link ImageOverlay}.
+     */
+    public static final class Image extends OverlayHandle<ImageOverlay>
+    {
+        /**
+         * Constructor.  Used by JourneyMap.
+         *
+         * @param overlay  the overlay, which has been shown
+         * @param onChange called when the handle goes from having no changes to having some, so it can be queued
+         *                 until the next frame
+         */
+        public Image(ImageOverlay overlay, Consumer<? super OverlayHandle<?>> onChange)
+        {
+            super(overlay, onChange);
+        }
+
+        /**
+         * Moves or resizes the image.
+         *
+         * @param northWestPoint location of the top left corner
+         * @param southEastPoint location of the bottom right corner
+         * @return this
+         */
+        public Image setCorners(BlockPos northWestPoint, BlockPos southEastPoint)
+        {
+            ImageOverlay image = getOverlay();
+            if (!northWestPoint.equals(image.getNorthWestPoint()) || !southEastPoint.equals(image.getSouthEastPoint()))
+            {
+                image.setNorthWestPoint(northWestPoint);
+                image.setSouthEastPoint(southEastPoint);
+                changed(Overlay.DIRTY_GEOMETRY);
+            }
+            return this;
+        }
+
+        /**
+         * Changes the image.
+         *
+         * @param image the image
+         * @return this
+         */
+        public Image setImage(MapImage image)
+        {
+            if (image != getOverlay().getImage())
+            {
+                getOverlay().setImage(image);
+                changed(Overlay.DIRTY_STYLE);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Handle to a {@link PolygonOverlay}.
+     */
+    public static final class Polygon extends OverlayHandle<PolygonOverlay>
+    {
+        /**
+         * Coordinates of the outer area and holes when last set, since the polygons may since have been changed
+         * in place.
+         */
+        private int[][] area;
+
+        /**
+         * Constructor.  Used by JourneyMap.
+         *
+         * @param overlay  the overlay, which has been shown
+         * @param onChange called when the handle goes from having no changes to having some, so it can be queued
+         *                 until the next frame
+         */
+        public Polygon(PolygonOverlay overlay, Consumer<? super OverlayHandle<?>> onChange)
+        {
+            super(overlay, onChange);
+            this.area = coordsOf(overlay.getOuterArea(), overlay.getHoles());
+        }
+
+        /**
+         * Changes the area.
+         *
+         * @param outerArea the outer polygon
+         * @param holes     polygons cut out of it, or null for none
+         * @return this
+         */
+        public Polygon setArea(MapPolygon outerArea, @Nullable List<MapPolygon> holes)
+        {
+            int[][] coords = coordsOf(outerArea, holes);
+            if (!Arrays.deepEquals(coords, area))
+            {
+                getOverlay().setOuterArea(outerArea);
+                getOverlay().setHoles(holes);
+                area = coords;
+                changed(Overlay.DIRTY_GEOMETRY);
+            }
+            return this;
+        }
+
+        /**
+         * Changes the shape properties.  Properties equal to the current ones are ignored, so keep changing the
+         * overlay's own properties rather than the ones passed in.
+         *
+         * @param shapeProperties the properties
+         * @return this
+         */
+        public Polygon setShapeProperties(ShapeProperties shapeProperties)
+        {
+            if (!shapeProperties.equals(getOverlay().getShapeProperties()))
+            {
+                getOverlay().setShapeProperties(shapeProperties);
+                changed(Overlay.DIRTY_STYLE);
+            }
+            return this;
+        }
+
+        private static int[][] coordsOf(MapPolygon outerArea, @Nullable List<MapPolygon> holes)
+        {
+            int[][] coords = new int[1 + (holes == null ? 0 : holes.size())][];
+            coords[0] = outerArea.getCoords();
+            for (int i = 1; i < coords.length; i++)
+            {
+                coords[i] = holes.get(i - 1).getCoords();
+            }
+            return coords;
+        }
+    }
+}
@@ -22,12 +22,16 @@ package journeymap.client.api.display;
 
 import journeymap.client.api.model.MapPolygon;
 import journeymap.client.api.model.ShapeProperties;
+import journeymap.client.api.util.ActivationMask;
+import journeymap.client.api.util.PolygonHelper;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -37,7 +41,8 @@ import java.util.List;
  * <p>
  * Note that like all Displayables, simply changing this object doesn't guarantee the player will get the changes.
  * You must call {@link journeymap.client.api.IClientAPI#show(Displayable)} in order for the changes to take effect
- * in JourneyMap.
+ * in JourneyMap.  Alternatively, make changes through the {@link OverlayHandle} returned by
+ * {@link journeymap.client.api.IClientAPI#showWithHandle(PolygonOverlay)}.
  */
 @ParametersAreNonnullByDefault
 public final class PolygonOverlay extends Overlay
@@ -46,6 +51,13 @@ public final class PolygonOverlay extends Overlay
     private List<MapPolygon> holes;
     private ShapeProperties shapeProperties;
 
+    /**
+     * Simplified outer area and holes, by zoom level.  Filled in as needed.
+     */
+    private transient MapPolygon[] outerAreaLevels;
+    private transient List<List<MapPolygon>> holeLevels;
+    private transient int cleanShapeRevision = -1;
+
     /**
      * Constructor.
      *
@@ -86,7 +98,31 @@ public final class PolygonOverlay extends Overlay
     }
 
     /**
-     * Sets the polygon of the outer area to be displayed.
+     * The outer area simplified for display at a zoom level, so that there is no more detail than can be seen.
+     * Points less than a pixel from the simplified outline are removed.
+     * The result is cached until {@link #setOuterArea(MapPolygon)} is called.
+     *
+     * @param zoom the zoom level
+     * @return the simplified outer area
+     * @see PolygonHelper#simplify(MapPolygon, double)
+     */
+    public MapPolygon getOuterArea(int zoom)
+    {
+        int level = levelOf(zoom);
+        if (outerAreaLevels == null)
+        {
+            outerAreaLevels = new MapPolygon[ActivationMask.MAX_ZOOM + 1];
+        }
+        if (outerAreaLevels[level] == null)
+        {
+            outerAreaLevels[level] = PolygonHelper.simplify(outerArea, toleranceAt(level));
+        }
+        return outerAreaLevels[level];
+    }
+
+    /**
+     * Sets the polygon of the outer area to be displayed.  If you change the points of the polygon
+     * afterward, call this again so that the simplified polygons are recreated.
      *
      * @param outerArea polygon
      * @return this
@@ -94,9 +130,22 @@ public final class PolygonOverlay extends Overlay
     public PolygonOverlay setOuterArea(MapPolygon outerArea)
     {
         this.outerArea = outerArea;
+        this.outerAreaLevels = null;
+        markDirty(DIRTY_GEOMETRY);
         return this;
     }
 
+    /**
+     * The bounds of the outer area.  Holes are always inside the outer area, so they don't affect it.
+     *
+     * @return the bounds
+     */
+    @Override
+    public AABB getBounds()
+    {
+        return outerArea.getBounds();
+    }
+
     /**
      * (optional) A list of polygons treated as holes inside the outerArea
      *
@@ -108,7 +157,48 @@ public final class PolygonOverlay extends Overlay
     }
 
     /**
-     * Sets a list of polygons treated as holes inside the outerArea
+     * The holes simplified for display at a zoom level, so that there is no more detail than can be seen.
+     * Holes smaller than a pixel are left out.
+     * The result is cached until {@link #setHoles(List)} is called.
+     *
+     * @param zoom the zoom level
+     * @return null if none specified
+     * @see #getOuterArea(int)
+     */
+    @Nullable
+    public List<MapPolygon> getHoles(int zoom)
+    {
+        if (holes == null)
+        {
+            return null;
+        }
+
+        int level = levelOf(zoom);
+        if (holeLevels == null)
+        {
+            holeLevels = new ArrayList<List<MapPolygon>>(Collections.nCopies(ActivationMask.MAX_ZOOM + 1, null));
+        }
+        List<MapPolygon> simplified = holeLevels.get(level);
+        if (simplified == null)
+        {
+            double tolerance = toleranceAt(level);
+            simplified = new ArrayList<MapPolygon>(holes.size());
+            for (MapPolygon hole : holes)
+            {
+                AABB bounds = hole.getBounds();
+                if (bounds.maxX - bounds.minX >= tolerance || bounds.maxZ - bounds.minZ >= tolerance)
+                {
+                    simplified.add(PolygonHelper.simplify(hole, tolerance));
+                }
+            }
+            holeLevels.set(level, simplified);
+        }
+        return simplified;
+    }
+
+    /**
+     * Sets a list of polygons treated as holes inside the outerArea.  If you change the points of the polygons
+     * afterward, call this again so that the simplified polygons are recreated.
      *
      * @param holes polygons
      * @return this
@@ -123,9 +213,26 @@ public final class PolygonOverlay extends Overlay
         {
             this.holes = new ArrayList<MapPolygon>(holes);
         }
+        this.holeLevels = null;
+        markDirty(DIRTY_GEOMETRY);
         return this;
     }
 
+    private static int levelOf(int zoom)
+    {
+        return Math.max(ActivationMask.MIN_ZOOM, Math.min(ActivationMask.MAX_ZOOM, zoom));
+    }
+
+    /**
+     * The width of a pixel in blocks at a zoom level.
+     *
+     * @see journeymap.client.api.util.UIState#blockSize
+     */
+    private static double toleranceAt(int zoom)
+    {
+        return 1.0 / (1 << zoom);
+    }
+
     /**
      * Gets the shape properties used to display the polygons.
      *
@@ -145,9 +252,36 @@ public final class PolygonOverlay extends Overlay
     public PolygonOverlay setShapeProperties(ShapeProperties shapeProperties)
     {
         this.shapeProperties = shapeProperties;
+        markDirty(DIRTY_STYLE);
         return this;
     }
 
+    /**
+     * Also includes {@link #DIRTY_STYLE} when the ShapeProperties have been changed through their setters.
+     *
+     * @return the dirty flags
+     */
+    @Override
+    public int getDirtyFlags()
+    {
+        int flags = super.getDirtyFlags();
+        if (shapeProperties.getRevision() != cleanShapeRevision)
+        {
+            flags |= DIRTY_STYLE;
+        }
+        return flags;
+    }
+
+    @Override
+    public void clearDirty(int flags)
+    {
+        super.clearDirty(flags);
+        if ((flags & DIRTY_STYLE) != 0)
+        {
+            cleanShapeRevision = shapeProperties.getRevision();
+        }
+    }
+
     @Override
     public String toString()
     {
@@ -26,12 +26,14 @@ import com.google.common.collect.Lists;
 import com.google.gson.annotations.Since;
 import com.mojang.math.Vector3d;
 import journeymap.client.api.model.WaypointBase;
+import journeymap.client.api.util.DimensionRegistry;
 import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.world.level.Level;
 
 import javax.annotation.Nullable;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Definition for a waypoint that is offered to a player.
@@ -46,6 +48,21 @@ public class Waypoint extends WaypointBase<Waypoint>
 {
     public static final double VERSION = 1.4;
 
+    /**
+     * Dirty field: dimension and position.
+     */
+    public static final int DIRTY_POSITION = 1 << 5;
+
+    /**
+     * Dirty field: group.
+     */
+    public static final int DIRTY_GROUP = 1 << 6;
+
+    /**
+     * Dirty field: persistent and editable.
+     */
+    public static final int DIRTY_FLAGS = 1 << 7;
+
     protected final transient CachedDimPosition cachedDimPosition = new CachedDimPosition();
     @Since(1.4)
     protected final double version = VERSION;
@@ -135,7 +152,7 @@ public class Waypoint extends WaypointBase<Waypoint>
     public Waypoint setGroup(@Nullable WaypointGroup group)
     {
         this.group = group;
-        return setDirty();
+        return setDirty(DIRTY_GROUP);
     }
 
     public final String getDimension()
@@ -162,26 +179,14 @@ public class Waypoint extends WaypointBase<Waypoint>
     }
 
     /**
-     * Gets block position within the specified dimension (not cached)
+     * Gets block position within the specified dimension (not cached), scaled by
+     * {@link DimensionRegistry#translate(BlockPos, String, String)}.
      *
      * @return the block pos
      */
     private BlockPos getInternalPosition(String targetDimension)
     {
-        if (!this.dim.equalsIgnoreCase(targetDimension))
-        {
-            if (this.dim.equalsIgnoreCase(Level.NETHER.location().toString()))
-            {
-                // Convert coords to 8x horizontal scale outside of the Nether
-                pos = new net.minecraft.core.BlockPos(pos.getX() * 8, pos.getY(), pos.getZ() * 8);
-            }
-            else if (targetDimension.equalsIgnoreCase(Level.NETHER.location().toString()))
-            {
-                // Convert coords to 1/8 horizontal scale for display in the Nether
-                pos = new net.minecraft.core.BlockPos(pos.getX() / 8.0, pos.getY(), pos.getZ() / 8.0);
-            }
-        }
-        return pos;
+        return DimensionRegistry.INSTANCE.translate(pos, dim, targetDimension);
     }
 
     /**
@@ -199,7 +204,7 @@ public class Waypoint extends WaypointBase<Waypoint>
         this.dim = dimension;
         this.pos = position;
         this.cachedDimPosition.reset();
-        return setDirty();
+        return setDirty(DIRTY_POSITION);
     }
 
     /**
@@ -244,11 +249,7 @@ public class Waypoint extends WaypointBase<Waypoint>
     public final Waypoint setPersistent(boolean persistent)
     {
         this.persistent = persistent;
-        if (!persistent)
-        {
-            dirty = false;
-        }
-        return setDirty();
+        return setDirty(DIRTY_FLAGS);
     }
 
     /**
@@ -270,7 +271,7 @@ public class Waypoint extends WaypointBase<Waypoint>
     public final Waypoint setEditable(boolean editable)
     {
         this.editable = editable;
-        return setDirty();
+        return setDirty(DIRTY_FLAGS);
     }
 
     /**
@@ -365,20 +366,23 @@ public class Waypoint extends WaypointBase<Waypoint>
                 .add("displayDims", displayDims == null ? null : Lists.newArrayList(displayDims))
                 .add("editable", editable)
                 .add("persistent", persistent)
-                .add("dirty", dirty)
+                .add("dirty", isDirty())
                 .toString();
     }
 
     /**
-     * Caches frequently-used positions/vectors within a dimension,
+     * Caches frequently-used positions/vectors for the few dimensions a waypoint is viewed from,
      * rather than calculating them on every use.
+     * <p>
+     * Entries are immutable and published as a single array, so the render thread and workers can read it without
+     * locking; a miss copies the array with the new entry and swaps it in.  {@link #reset()} publishes a new empty
+     * array, never a shared one, so an entry calculated from a position which has since changed can't be swapped in.
      */
     class CachedDimPosition
     {
-        String cachedDim;
-        BlockPos cachedPos;
-        Vector3d cachedVec;
-        Vector3d cachedCenteredVec;
+        static final int MAX_ENTRIES = 4;
+
+        final AtomicReference<DimPosition[]> entries = new AtomicReference<DimPosition[]>(new DimPosition[0]);
 
         CachedDimPosition()
         {
@@ -389,27 +393,36 @@ public class Waypoint extends WaypointBase<Waypoint>
          */
         CachedDimPosition reset()
         {
-            cachedDim = null;
-            cachedPos = null;
-            cachedVec = null;
-            cachedCenteredVec = null;
+            entries.set(new DimPosition[0]);
             return this;
         }
 
         /**
          * Ensure cached values are relative to the requested dimension.
          */
-        private CachedDimPosition ensure(String dimension)
+        private DimPosition ensure(String dimension)
         {
-            if (this.cachedDim != dimension)
+            while (true)
             {
-                this.cachedDim = dimension;
-                this.cachedPos = Waypoint.this.getInternalPosition(dimension);
-                this.cachedVec = new Vector3d(this.cachedPos.getX(), this.cachedPos.getY(), this.cachedPos.getZ());
-                this.cachedCenteredVec = new Vector3d(.5, .5, .5);
-                this.cachedCenteredVec.add(this.cachedVec);
+                DimPosition[] current = entries.get();
+                for (DimPosition entry : current)
+                {
+                    if (entry.dimension == dimension || entry.dimension.equals(dimension))
+                    {
+                        return entry;
+                    }
+                }
+
+                DimPosition entry = new DimPosition(dimension, Waypoint.this.getInternalPosition(dimension));
+                // Newest first, dropping the oldest when full
+                DimPosition[] updated = new DimPosition[Math.min(current.length + 1, MAX_ENTRIES)];
+                updated[0] = entry;
+                System.arraycopy(current, 0, updated, 1, updated.length - 1);
+                if (entries.compareAndSet(current, updated))
+                {
+                    return entry;
+                }
             }
-            return this;
         }
 
         /**
@@ -420,7 +433,7 @@ public class Waypoint extends WaypointBase<Waypoint>
          */
         public BlockPos getPosition(String dimension)
         {
-            return ensure(dimension).cachedPos;
+            return ensure(dimension).pos;
         }
 
         /**
@@ -431,7 +444,7 @@ public class Waypoint extends WaypointBase<Waypoint>
          */
         public Vector3d getVec(String dimension)
         {
-            return ensure(dimension).cachedVec;
+            return ensure(dimension).vec;
         }
 
         /**
@@ -441,7 +454,27 @@ public class Waypoint extends WaypointBase<Waypoint>
          */
         public Vector3d getCenteredVec(String dimension)
         {
-            return ensure(dimension).cachedCenteredVec;
+            return ensure(dimension).centeredVec;
+        }
+    }
+
+    /**
+     * Positions within one dimension.
+     */
+    private static final class DimPosition
+    {
+        final String dimension;
+        final BlockPos pos;
+        final Vector3d vec;
+        final Vector3d centeredVec;
+
+        DimPosition(String dimension, BlockPos pos)
+        {
+            this.dimension = dimension;
+            this.pos = pos;
+            this.vec = new Vector3d(pos.getX(), pos.getY(), pos.getZ());
+            this.centeredVec = new Vector3d(.5, .5, .5);
+            this.centeredVec.add(this.vec);
         }
     }
 }
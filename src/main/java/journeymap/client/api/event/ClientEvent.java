@@ -52,10 +52,18 @@ public class ClientEvent
      * Constructor.
      */
     public ClientEvent(Type type, ResourceKey<Level> level)
+    {
+        this(type, level, System.currentTimeMillis());
+    }
+
+    /**
+     * Constructor with the time of the event, for when many events share the same time, such as during one frame.
+     */
+    public ClientEvent(Type type, ResourceKey<Level> level, long timestamp)
     {
         this.type = type;
         this.level = level;
-        this.timestamp = System.currentTimeMillis();
+        this.timestamp = timestamp;
     }
 
     /**
@@ -134,6 +142,7 @@ public class ClientEvent
         /**
          * Indicates moving of the mouse, gets block info where the cursor is pointing.
          * {@link FullscreenMapEvent.MouseMoveEvent}, which can not be cancelled.
+         * Sent at most once per frame.  For hover effects, an {@link IMouseMoveListener} is cheaper.
          */
         MAP_MOUSE_MOVED(false);
 
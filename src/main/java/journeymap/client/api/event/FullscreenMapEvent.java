@@ -28,6 +28,12 @@ public class FullscreenMapEvent extends ClientEvent
         this.location = location;
     }
 
+    private FullscreenMapEvent(Type type, BlockPos location, ResourceKey<Level> level, long timestamp)
+    {
+        super(type, level, timestamp);
+        this.location = location;
+    }
+
     public BlockPos getLocation()
     {
         return location;
@@ -201,6 +207,21 @@ public class FullscreenMapEvent extends ClientEvent
             this.info = info;
         }
 
+        /**
+         * Mouse moved event with the time of the frame it was coalesced in.
+         *
+         * @param info      - The BlockInfo.
+         * @param level     - The dimension.
+         * @param timestamp - System millis of the frame.
+         * @see journeymap.client.api.util.MouseMoveCoalescer
+         */
+        public MouseMoveEvent(ResourceKey<Level> level, IBlockInfo info, Point2D.Double mousePosition, long timestamp)
+        {
+            super(Type.MAP_MOUSE_MOVED, info.getBlockPos(), level, timestamp);
+            this.mousePosition = mousePosition;
+            this.info = info;
+        }
+
         public Point2D.Double getMousePosition()
         {
             return mousePosition;
@@ -0,0 +1,47 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.event;
+
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+
+/**
+ * Receives mouse moves on the Fullscreen map, at most once per frame, without any objects being created for them.
+ * A lighter alternative to subscribing to {@link ClientEvent.Type#MAP_MOUSE_MOVED}, for plugins which only need
+ * the mouse and block positions, such as to show hover information.
+ *
+ * @see journeymap.client.api.IClientAPI#addMouseMoveListener(String, IMouseMoveListener)
+ */
+public interface IMouseMoveListener
+{
+    /**
+     * Called on the main Minecraft thread with the last position the mouse moved to during a frame.
+     * Not called for frames where the mouse didn't move.
+     *
+     * @param level  the dimension shown in the map
+     * @param mouseX scaled screen x of the mouse
+     * @param mouseY scaled screen y of the mouse
+     * @param blockX x of the block under the mouse
+     * @param blockY y of the block under the mouse
+     * @param blockZ z of the block under the mouse
+     */
+    void onMouseMove(ResourceKey<Level> level, double mouseX, double mouseY, int blockX, int blockY, int blockZ);
+}
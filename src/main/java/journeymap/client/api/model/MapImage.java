@@ -224,11 +224,11 @@ public final class MapImage
     /**
      * Gets anchor x.
      *
-     * @return the anchor x
+     * @return the anchor x, 0 if not set
      */
     public double getAnchorX()
     {
-        return anchorX;
+        return anchorX == null ? 0 : anchorX;
     }
 
     /**
@@ -246,11 +246,11 @@ public final class MapImage
     /**
      * Gets anchor y.
      *
-     * @return the anchor y
+     * @return the anchor y, 0 if not set
      */
     public double getAnchorY()
     {
-        return anchorY;
+        return anchorY == null ? 0 : anchorY;
     }
 
     /**
@@ -388,6 +388,26 @@ public final class MapImage
         return this;
     }
 
+    /**
+     * Creates a copy which draws the same texture from another image, such as a texture atlas page.
+     * The tint, opacity, rotation, display size and anchors are copied.
+     *
+     * @param image    Image containing the texture
+     * @param textureX Start x of texture within image.
+     * @param textureY Start y of texture within image.
+     * @return the copy
+     */
+    public MapImage copyWithTexture(BufferedImage image, int textureX, int textureY)
+    {
+        MapImage copy = new MapImage(image, textureX, textureY, textureWidth, textureHeight, color, opacity);
+        copy.rotation = rotation;
+        copy.displayWidth = displayWidth;
+        copy.displayHeight = displayHeight;
+        copy.anchorX = anchorX;
+        copy.anchorY = anchorY;
+        return copy;
+    }
+
     @Override
     public boolean equals(@Nullable Object o)
     {
@@ -21,12 +21,24 @@
 package journeymap.client.api.model;
 
 import com.google.common.base.MoreObjects;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import net.minecraft.core.BlockPos;
+import net.minecraft.world.phys.AABB;
 
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * A MapPolygon is a sequence of at least 3 BlockPos. The first point must be the
@@ -34,14 +46,25 @@ import java.util.List;
  * counterclockwise.  The last point will be connected to the first when rendered.
  * <p>
  * Note that the actual list passed into the constructor isn't retained; the points
- * are copied into an unmodifiable list. If you need to update the points, pass in a new
- * list entirely.
+ * are copied into a packed array of coordinates, and {@link #getPoints()} is an unmodifiable view of it.
+ * If you need to update the points, pass in a new list entirely.
+ * For large polygons, prefer {@link #MapPolygon(int[])} and {@link #getX(int)} etc., which don't create a BlockPos per point.
+ * <p>
+ * The JSON form is unchanged from when the points were kept as a list: a "points" array of BlockPos.
+ * A "coords" array of x, y, z triples is also read.
  * <p>
  * Setters use the Builder pattern so they can be chained.
  */
+@JsonAdapter(MapPolygon.JsonAdapterFactory.class)
 public final class MapPolygon
 {
-    private List<net.minecraft.core.BlockPos> points;
+    /**
+     * x, y, z of each point in turn.
+     */
+    private transient int[] coords;
+    private transient List<BlockPos> points;
+    private transient AABB bounds;
+    private transient double signedArea = Double.NaN;
 
     /**
      * Constructor.
@@ -66,12 +89,28 @@ public final class MapPolygon
     }
 
     /**
-     * Gets an unmodifiable list of the points.
+     * Constructor.
+     *
+     * @param coords The x, y and z of each point in turn. See class description for details on ordering.
+     * @throws IllegalArgumentException if conditions for a proper polygon aren't met.
+     */
+    public MapPolygon(int[] coords)
+    {
+        setPoints(coords);
+    }
+
+    /**
+     * Gets an unmodifiable list of the points.  Each BlockPos is created when it is read, so prefer
+     * {@link #getX(int)} etc. when iterating large polygons often.
      *
      * @return points
      */
     public List<BlockPos> getPoints()
     {
+        if (points == null)
+        {
+            points = new PointList();
+        }
         return points;
     }
 
@@ -82,10 +121,147 @@ public final class MapPolygon
             throw new IllegalArgumentException("MapPolygon must have at least 3 points.");
         }
 
-        this.points = Collections.unmodifiableList(points);
+        int[] coords = new int[points.size() * 3];
+        int i = 0;
+        for (BlockPos point : points)
+        {
+            coords[i++] = point.getX();
+            coords[i++] = point.getY();
+            coords[i++] = point.getZ();
+        }
+        return setCoords(coords);
+    }
+
+    /**
+     * Sets the points.
+     *
+     * @param coords The x, y and z of each point in turn. The array is copied.
+     * @return this
+     * @throws IllegalArgumentException if conditions for a proper polygon aren't met.
+     */
+    public MapPolygon setPoints(int[] coords)
+    {
+        if (coords.length % 3 != 0)
+        {
+            throw new IllegalArgumentException("MapPolygon coordinates must be x, y, z triples.");
+        }
+        if (coords.length < 9)
+        {
+            throw new IllegalArgumentException("MapPolygon must have at least 3 points.");
+        }
+        return setCoords(coords.clone());
+    }
+
+    private MapPolygon setCoords(int[] coords)
+    {
+        this.coords = coords;
+        this.bounds = null;
+        this.signedArea = Double.NaN;
         return this;
     }
 
+    /**
+     * Number of points.
+     *
+     * @return the size
+     */
+    public int size()
+    {
+        return coords.length / 3;
+    }
+
+    /**
+     * Gets the x of a point.
+     *
+     * @param index point index
+     * @return block x
+     */
+    public int getX(int index)
+    {
+        return coords[index * 3];
+    }
+
+    /**
+     * Gets the y of a point.
+     *
+     * @param index point index
+     * @return block y
+     */
+    public int getY(int index)
+    {
+        return coords[index * 3 + 1];
+    }
+
+    /**
+     * Gets the z of a point.
+     *
+     * @param index point index
+     * @return block z
+     */
+    public int getZ(int index)
+    {
+        return coords[index * 3 + 2];
+    }
+
+    /**
+     * Gets a copy of the coordinates.
+     *
+     * @return the x, y and z of each point in turn
+     */
+    public int[] getCoords()
+    {
+        return coords.clone();
+    }
+
+    /**
+     * Gets the smallest box containing all of the points.  The result is cached until the points are changed.
+     *
+     * @return the bounds
+     */
+    public AABB getBounds()
+    {
+        if (bounds == null)
+        {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+            for (int i = 0; i < coords.length; i += 3)
+            {
+                minX = Math.min(minX, coords[i]);
+                minY = Math.min(minY, coords[i + 1]);
+                minZ = Math.min(minZ, coords[i + 2]);
+                maxX = Math.max(maxX, coords[i]);
+                maxY = Math.max(maxY, coords[i + 1]);
+                maxZ = Math.max(maxZ, coords[i + 2]);
+            }
+            bounds = new AABB(minX, minY, minZ, maxX, maxY, maxZ);
+        }
+        return bounds;
+    }
+
+    /**
+     * Gets the area enclosed by the points on the x/z plane, in square blocks.  The result is positive when the points
+     * are counterclockwise as seen on the map (north up), as they should be, and negative when they are clockwise.
+     * The result is cached until the points are changed.
+     *
+     * @return the signed area
+     */
+    public double getSignedArea()
+    {
+        if (Double.isNaN(signedArea))
+        {
+            // Shoelace formula.  Z increases southward, so this is the reverse of the usual sign convention.
+            long twiceArea = 0;
+            int length = coords.length;
+            for (int i = 0; i < length; i += 3)
+            {
+                int next = (i + 3) % length;
+                twiceArea += (long) coords[next] * coords[i + 2] - (long) coords[i] * coords[next + 2];
+            }
+            signedArea = twiceArea / 2.0;
+        }
+        return signedArea;
+    }
+
     /**
      * Iterates the points.
      *
@@ -93,14 +269,110 @@ public final class MapPolygon
      */
     public Iterator<net.minecraft.core.BlockPos> iterator()
     {
-        return points.iterator();
+        return getPoints().iterator();
     }
 
     @Override
     public String toString()
     {
         return MoreObjects.toStringHelper(this)
-                .add("points", points)
+                .add("points", getPoints())
                 .toString();
     }
+
+    /**
+     * Writes the points as a list of BlockPos, as they were serialized before being packed, and reads
+     * either that or the coordinates.
+     */
+    static final class JsonAdapterFactory implements TypeAdapterFactory
+    {
+        private static final String POINTS = "points";
+        private static final String COORDS = "coords";
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type)
+        {
+            if (type.getRawType() != MapPolygon.class)
+            {
+                return null;
+            }
+            TypeAdapter<List<BlockPos>> pointsAdapter = gson.getAdapter(new TypeToken<List<BlockPos>>()
+            {
+            });
+            TypeAdapter<int[]> coordsAdapter = gson.getAdapter(int[].class);
+            return (TypeAdapter<T>) new TypeAdapter<MapPolygon>()
+            {
+                @Override
+                public void write(JsonWriter out, MapPolygon polygon) throws IOException
+                {
+                    if (polygon == null)
+                    {
+                        out.nullValue();
+                        return;
+                    }
+                    out.beginObject();
+                    out.name(POINTS);
+                    pointsAdapter.write(out, polygon.getPoints());
+                    out.endObject();
+                }
+
+                @Override
+                public MapPolygon read(JsonReader in) throws IOException
+                {
+                    if (in.peek() == JsonToken.NULL)
+                    {
+                        in.nextNull();
+                        return null;
+                    }
+                    MapPolygon polygon = null;
+                    in.beginObject();
+                    while (in.hasNext())
+                    {
+                        String name = in.nextName();
+                        if (POINTS.equals(name) && in.peek() != JsonToken.NULL)
+                        {
+                            polygon = new MapPolygon(pointsAdapter.read(in));
+                        }
+                        else if (COORDS.equals(name) && in.peek() != JsonToken.NULL)
+                        {
+                            polygon = new MapPolygon(coordsAdapter.read(in));
+                        }
+                        else
+                        {
+                            in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    if (polygon == null)
+                    {
+                        throw new JsonParseException("MapPolygon has no points");
+                    }
+                    return polygon;
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only view of the coordinates as BlockPos.
+     */
+    private class PointList extends AbstractList<BlockPos> implements RandomAccess
+    {
+        @Override
+        public BlockPos get(int index)
+        {
+            if (index < 0 || index >= size())
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return new BlockPos(getX(index), getY(index), getZ(index));
+        }
+
+        @Override
+        public int size()
+        {
+            return MapPolygon.this.size();
+        }
+    }
 }
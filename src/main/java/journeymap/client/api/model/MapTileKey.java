@@ -0,0 +1,169 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.model;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import journeymap.client.api.display.Context;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+
+import javax.annotation.Nullable;
+
+/**
+ * Identifies a map tile by everything that affects how it is rendered.
+ * Two requests with equal keys will always produce the same image.
+ */
+public final class MapTileKey
+{
+    private final ResourceKey<Level> dimension;
+    private final Context.MapType mapType;
+    private final int startChunkX;
+    private final int startChunkZ;
+    private final int endChunkX;
+    private final int endChunkZ;
+    private final Integer chunkY;
+    private final int zoom;
+    private final boolean showGrid;
+    private final int hashCode;
+
+    /**
+     * Constructor.
+     *
+     * @param dimension  The dimension
+     * @param mapType    The map type
+     * @param startChunk The NW chunk of the tile.
+     * @param endChunk   The SE chunk of the tile.
+     * @param chunkY     The vertical chunk (slice) if the maptype isn't day/night/topo
+     * @param zoom       The zoom level (0-8)
+     * @param showGrid   Whether to include to include the chunk grid overlay
+     */
+    public MapTileKey(ResourceKey<Level> dimension, Context.MapType mapType, ChunkPos startChunk, ChunkPos endChunk,
+                      @Nullable Integer chunkY, int zoom, boolean showGrid)
+    {
+        this.dimension = dimension;
+        this.mapType = mapType;
+        this.startChunkX = startChunk.x;
+        this.startChunkZ = startChunk.z;
+        this.endChunkX = endChunk.x;
+        this.endChunkZ = endChunk.z;
+        this.chunkY = chunkY;
+        this.zoom = zoom;
+        this.showGrid = showGrid;
+        this.hashCode = Objects.hashCode(dimension, mapType, startChunkX, startChunkZ, endChunkX, endChunkZ, chunkY, zoom, showGrid);
+    }
+
+    public ResourceKey<Level> getDimension()
+    {
+        return dimension;
+    }
+
+    public Context.MapType getMapType()
+    {
+        return mapType;
+    }
+
+    public ChunkPos getStartChunk()
+    {
+        return new ChunkPos(startChunkX, startChunkZ);
+    }
+
+    public ChunkPos getEndChunk()
+    {
+        return new ChunkPos(endChunkX, endChunkZ);
+    }
+
+    @Nullable
+    public Integer getChunkY()
+    {
+        return chunkY;
+    }
+
+    public int getZoom()
+    {
+        return zoom;
+    }
+
+    public boolean isShowGrid()
+    {
+        return showGrid;
+    }
+
+    /**
+     * Whether the tile covers a chunk.
+     *
+     * @param dimension the chunk's dimension
+     * @param chunkX    the chunk x
+     * @param chunkZ    the chunk z
+     * @return true if the chunk is within the tile
+     */
+    public boolean contains(ResourceKey<Level> dimension, int chunkX, int chunkZ)
+    {
+        return chunkX >= Math.min(startChunkX, endChunkX) && chunkX <= Math.max(startChunkX, endChunkX)
+                && chunkZ >= Math.min(startChunkZ, endChunkZ) && chunkZ <= Math.max(startChunkZ, endChunkZ)
+                && Objects.equal(this.dimension, dimension);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof MapTileKey))
+        {
+            return false;
+        }
+        MapTileKey that = (MapTileKey) o;
+        return hashCode == that.hashCode &&
+                startChunkX == that.startChunkX &&
+                startChunkZ == that.startChunkZ &&
+                endChunkX == that.endChunkX &&
+                endChunkZ == that.endChunkZ &&
+                zoom == that.zoom &&
+                showGrid == that.showGrid &&
+                mapType == that.mapType &&
+                Objects.equal(dimension, that.dimension) &&
+                Objects.equal(chunkY, that.chunkY);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+                .add("dimension", dimension)
+                .add("mapType", mapType)
+                .add("startChunk", startChunkX + "," + startChunkZ)
+                .add("endChunk", endChunkX + "," + endChunkZ)
+                .add("chunkY", chunkY)
+                .add("zoom", zoom)
+                .add("showGrid", showGrid)
+                .toString();
+    }
+}
@@ -36,6 +36,7 @@ public class ShapeProperties
     private float strokeOpacity = 1f;
     private float fillOpacity = .5f;
     private float strokeWidth = 2;
+    private transient int revision;
 
     /**
      * Gets the stroke color.
@@ -56,6 +57,7 @@ public class ShapeProperties
     public ShapeProperties setStrokeColor(int strokeColor)
     {
         this.strokeColor = Displayable.clampRGB(strokeColor);
+        revision++;
         return this;
     }
 
@@ -78,6 +80,7 @@ public class ShapeProperties
     public ShapeProperties setFillColor(int fillColor)
     {
         this.fillColor = Displayable.clampRGB(fillColor);
+        revision++;
         return this;
     }
 
@@ -100,6 +103,7 @@ public class ShapeProperties
     public ShapeProperties setStrokeOpacity(float strokeOpacity)
     {
         this.strokeOpacity = Displayable.clampOpacity(strokeOpacity);
+        revision++;
         return this;
     }
 
@@ -122,6 +126,7 @@ public class ShapeProperties
     public ShapeProperties setFillOpacity(float fillOpacity)
     {
         this.fillOpacity = Displayable.clampOpacity(fillOpacity);
+        revision++;
         return this;
     }
 
@@ -144,9 +149,20 @@ public class ShapeProperties
     public ShapeProperties setStrokeWidth(float strokeWidth)
     {
         this.strokeWidth = strokeWidth;
+        revision++;
         return this;
     }
 
+    /**
+     * Counts changes made through the setters, so an overlay using these properties can tell when they have changed.
+     *
+     * @return the revision
+     */
+    public int getRevision()
+    {
+        return revision;
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -21,11 +21,14 @@
 package journeymap.client.api.model;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
 import journeymap.client.api.display.Context;
 import journeymap.client.api.display.Displayable;
+import journeymap.client.api.util.ActivationMask;
 import journeymap.client.api.util.UIState;
 
 import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Properties defining the display of text.
@@ -34,6 +37,8 @@ import java.util.EnumSet;
  */
 public class TextProperties
 {
+    private static final AtomicLongFieldUpdater<TextProperties> ACTIVATION_MASK = AtomicLongFieldUpdater.newUpdater(TextProperties.class, "activationMask");
+
     protected EnumSet<Context.UI> activeUIs = EnumSet.of(Context.UI.Any);
     protected EnumSet<Context.MapType> activeMapTypes = EnumSet.of(Context.MapType.Any);
     protected float scale = 1;
@@ -46,6 +51,8 @@ public class TextProperties
     protected int maxZoom = 8;
     protected int offsetX = 0;
     protected int offsetY = 0;
+    protected transient volatile long activationMask;
+    protected transient int revision;
 
     /**
      * Font scale.
@@ -67,6 +74,7 @@ public class TextProperties
     public TextProperties setScale(float scale)
     {
         this.scale = Math.max(1f, Math.min(scale, 8f));
+        revision++;
         return this;
     }
 
@@ -89,6 +97,7 @@ public class TextProperties
     public TextProperties setColor(int color)
     {
         this.color = Displayable.clampRGB(color);
+        revision++;
         return this;
     }
 
@@ -111,6 +120,7 @@ public class TextProperties
     public TextProperties setBackgroundColor(int backgroundColor)
     {
         this.backgroundColor = Displayable.clampRGB(backgroundColor);
+        revision++;
         return this;
     }
 
@@ -133,6 +143,7 @@ public class TextProperties
     public TextProperties setOpacity(float opacity)
     {
         this.opacity = Displayable.clampOpacity(opacity);
+        revision++;
         return this;
     }
 
@@ -155,6 +166,7 @@ public class TextProperties
     public TextProperties setBackgroundOpacity(float backgroundOpacity)
     {
         this.backgroundOpacity = Displayable.clampOpacity(backgroundOpacity);
+        revision++;
         return this;
     }
 
@@ -177,6 +189,7 @@ public class TextProperties
     public TextProperties setFontShadow(boolean fontShadow)
     {
         this.fontShadow = fontShadow;
+        revision++;
         return this;
     }
 
@@ -186,6 +199,8 @@ public class TextProperties
      * text properties is already active.
      * <p>
      * For example, this can be specified to have labels only displayed in the fullscreen map, but not the minimap.
+     * Use {@link #setActiveUIs(EnumSet)} to change them; changing the returned set directly won't
+     * update the {@link #getActivationMask() activation mask}.
      * @return enumset
      */
     public EnumSet<Context.UI> getActiveUIs()
@@ -207,12 +222,16 @@ public class TextProperties
         {
             activeUIs = EnumSet.of(Context.UI.Any);
         }
-        this.activeUIs = activeUIs;
+        this.activeUIs = EnumSet.copyOf(activeUIs);
+        this.activationMask = ActivationMask.of(activeUIs, activeMapTypes, minZoom, maxZoom);
+        revision++;
         return this;
     }
 
     /**
      * Returns a set of enums indicating which map types (Day, Night) the text should be active in.
+     * Use {@link #setActiveMapTypes(EnumSet)} to change them; changing the returned set directly won't
+     * update the {@link #getActivationMask() activation mask}.
      *
      * @return enumset
      */
@@ -233,7 +252,9 @@ public class TextProperties
         {
             activeMapTypes = EnumSet.of(Context.MapType.Any);
         }
-        this.activeMapTypes = activeMapTypes;
+        this.activeMapTypes = EnumSet.copyOf(activeMapTypes);
+        this.activationMask = ActivationMask.of(activeUIs, activeMapTypes, minZoom, maxZoom);
+        revision++;
         return this;
     }
 
@@ -245,10 +266,26 @@ public class TextProperties
      */
     public boolean isActiveIn(UIState uiState)
     {
-        return uiState.active
-                && (activeUIs.contains(Context.UI.Any) || activeUIs.contains(uiState.ui))
-                && (activeMapTypes.contains(Context.MapType.Any) || activeMapTypes.contains(uiState.mapType))
-                && (this.minZoom <= uiState.zoom && this.maxZoom >= uiState.zoom);
+        return uiState.active && ActivationMask.matches(getActivationMask(), uiState.activationMask);
+    }
+
+    /**
+     * The {@link ActivationMask} of the UIs, map types and zoom levels where the text is active.
+     * Set along with those properties, and computed when first needed on one that was constructed or deserialized
+     * without them, so it is never saved with them.
+     *
+     * @return the mask
+     */
+    public long getActivationMask()
+    {
+        long mask = activationMask;
+        if (mask == 0)
+        {
+            mask = ActivationMask.of(activeUIs, activeMapTypes, minZoom, maxZoom);
+            // Only if no setter has stored a newer mask meanwhile; an empty mask is just recomputed each time
+            ACTIVATION_MASK.compareAndSet(this, 0, mask);
+        }
+        return mask;
     }
 
     /**
@@ -270,6 +307,8 @@ public class TextProperties
     public TextProperties setMinZoom(int minZoom)
     {
         this.minZoom = Math.max(0, minZoom);
+        this.activationMask = ActivationMask.of(activeUIs, activeMapTypes, minZoom, maxZoom);
+        revision++;
         return this;
     }
 
@@ -292,6 +331,8 @@ public class TextProperties
     public TextProperties setMaxZoom(int maxZoom)
     {
         this.maxZoom = Math.min(8, maxZoom);
+        this.activationMask = ActivationMask.of(activeUIs, activeMapTypes, minZoom, maxZoom);
+        revision++;
         return this;
     }
 
@@ -318,6 +359,7 @@ public class TextProperties
     public TextProperties setOffsetX(int offsetX)
     {
         this.offsetX = offsetX;
+        revision++;
         return this;
     }
 
@@ -344,9 +386,53 @@ public class TextProperties
     public TextProperties setOffsetY(int offsetY)
     {
         this.offsetY = offsetY;
+        revision++;
         return this;
     }
 
+    /**
+     * Counts changes made through the setters, so an overlay using these properties can tell when they have changed.
+     *
+     * @return the revision
+     */
+    public int getRevision()
+    {
+        return revision;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof TextProperties))
+        {
+            return false;
+        }
+        TextProperties that = (TextProperties) o;
+        return Objects.equal(activeUIs, that.activeUIs) &&
+                Objects.equal(activeMapTypes, that.activeMapTypes) &&
+                Objects.equal(scale, that.scale) &&
+                Objects.equal(color, that.color) &&
+                Objects.equal(backgroundColor, that.backgroundColor) &&
+                Objects.equal(opacity, that.opacity) &&
+                Objects.equal(backgroundOpacity, that.backgroundOpacity) &&
+                Objects.equal(fontShadow, that.fontShadow) &&
+                Objects.equal(minZoom, that.minZoom) &&
+                Objects.equal(maxZoom, that.maxZoom) &&
+                Objects.equal(offsetX, that.offsetX) &&
+                Objects.equal(offsetY, that.offsetY);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(activeUIs, activeMapTypes, scale, color, backgroundColor, opacity, backgroundOpacity,
+                fontShadow, minZoom, maxZoom, offsetX, offsetY);
+    }
+
     @Override
     public String toString()
     {
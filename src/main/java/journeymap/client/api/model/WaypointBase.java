@@ -35,6 +35,36 @@ import java.util.Arrays;
  */
 public abstract class WaypointBase<T extends WaypointBase> extends Displayable implements IWaypointDisplay
 {
+    /**
+     * Dirty field: name.
+     */
+    public static final int DIRTY_NAME = 1;
+
+    /**
+     * Dirty field: color.
+     */
+    public static final int DIRTY_COLOR = 1 << 1;
+
+    /**
+     * Dirty field: background color.
+     */
+    public static final int DIRTY_BACKGROUND_COLOR = 1 << 2;
+
+    /**
+     * Dirty field: icon.
+     */
+    public static final int DIRTY_ICON = 1 << 3;
+
+    /**
+     * Dirty field: display dimensions.
+     */
+    public static final int DIRTY_DISPLAY_DIMENSIONS = 1 << 4;
+
+    /**
+     * Every field, including those of subclasses.
+     */
+    public static final int DIRTY_ALL = -1;
+
     @Since(1.4)
     protected String name;
 
@@ -51,7 +81,7 @@ public abstract class WaypointBase<T extends WaypointBase> extends Displayable i
     protected String[] displayDims;
 
     @Since(1.4)
-    protected transient boolean dirty;
+    protected transient int dirtyFields;
 
     /**
      * Constructor.
@@ -113,7 +143,7 @@ public abstract class WaypointBase<T extends WaypointBase> extends Displayable i
             throw new IllegalArgumentException("name may not be blank");
         }
         this.name = name;
-        return setDirty();
+        return setDirty(DIRTY_NAME);
     }
 
     /**
@@ -139,7 +169,7 @@ public abstract class WaypointBase<T extends WaypointBase> extends Displayable i
     public final T setColor(int color)
     {
         this.color = clampRGB(color);
-        return setDirty();
+        return setDirty(DIRTY_COLOR);
     }
 
     /**
@@ -151,7 +181,7 @@ public abstract class WaypointBase<T extends WaypointBase> extends Displayable i
     public final T clearColor()
     {
         this.color = null;
-        return setDirty();
+        return setDirty(DIRTY_COLOR);
     }
 
     /**
@@ -178,7 +208,7 @@ public abstract class WaypointBase<T extends WaypointBase> extends Displayable i
     public final T setBackgroundColor(int bgColor)
     {
         this.bgColor = clampRGB(bgColor);
-        return setDirty();
+        return setDirty(DIRTY_BACKGROUND_COLOR);
     }
 
     /**
@@ -190,7 +220,7 @@ public abstract class WaypointBase<T extends WaypointBase> extends Displayable i
     public final T clearBackgroundColor()
     {
         this.bgColor = null;
-        return setDirty();
+        return setDirty(DIRTY_BACKGROUND_COLOR);
     }
 
     /**
@@ -214,7 +244,7 @@ public abstract class WaypointBase<T extends WaypointBase> extends Displayable i
     public final T setDisplayDimensions(String... dimensions)
     {
         this.displayDims = dimensions;
-        return setDirty();
+        return setDirty(DIRTY_DISPLAY_DIMENSIONS);
     }
 
     /**
@@ -226,7 +256,7 @@ public abstract class WaypointBase<T extends WaypointBase> extends Displayable i
     public final T clearDisplayDimensions()
     {
         this.displayDims = null;
-        return setDirty();
+        return setDirty(DIRTY_DISPLAY_DIMENSIONS);
     }
 
     /**
@@ -281,7 +311,7 @@ public abstract class WaypointBase<T extends WaypointBase> extends Displayable i
     public final T setIcon(@Nullable MapImage icon)
     {
         this.icon = icon;
-        return setDirty();
+        return setDirty(DIRTY_ICON);
     }
 
     /**
@@ -293,41 +323,75 @@ public abstract class WaypointBase<T extends WaypointBase> extends Displayable i
     public final T clearIcon()
     {
         this.icon = null;
-        return setDirty();
+        return setDirty(DIRTY_ICON);
     }
 
     /**
      * Whether needs to be saved.
      *
-     * @return
+     * @return true if any field is dirty
      */
     public boolean isDirty()
     {
-        return dirty;
+        return dirtyFields != 0;
+    }
+
+    /**
+     * Which fields have changed since the last save.
+     *
+     * @return bits of the DIRTY_ constants
+     */
+    public int getDirtyFields()
+    {
+        return dirtyFields;
     }
 
     /**
      * Sets dirty.
      *
-     * @param dirty the dirty
-     * @return the dirty
+     * @param dirty true to mark every field as needing to be saved, false to mark none
+     * @return this
      */
     public T setDirty(boolean dirty)
     {
-        this.dirty = dirty;
+        this.dirtyFields = dirty ? DIRTY_ALL : 0;
         return (T) this;
     }
 
     /**
      * Set state as needing to be saved.
      *
-     * @return the dirty
+     * @return this
      */
     public T setDirty()
     {
         return setDirty(true);
     }
 
+    /**
+     * Marks fields as needing to be saved.
+     *
+     * @param fields bits of the DIRTY_ constants
+     * @return this
+     */
+    public T setDirty(int fields)
+    {
+        this.dirtyFields |= fields;
+        return (T) this;
+    }
+
+    /**
+     * Marks fields as saved.
+     *
+     * @param fields bits of the DIRTY_ constants
+     * @return this
+     */
+    public T clearDirty(int fields)
+    {
+        this.dirtyFields &= ~fields;
+        return (T) this;
+    }
+
     /**
      * Whether this has an icon set.  Returns
      * false if not, even if delegate exists
@@ -0,0 +1,196 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import journeymap.client.api.display.Overlay;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/**
+ * Groups overlays by dimension and {@link ActivationMask}, so that the overlays active in a UIState can be found
+ * with one mask check per group instead of one {@link Overlay#isActiveIn(UIState)} per overlay.
+ * With many overlays there are usually only a handful of distinct masks.
+ * <p>
+ * If an overlay's dimension, UIs, map types or zoom range change, call {@link #put(Overlay)} again
+ * to move it to the right group.
+ * <p>
+ * Not thread-safe.
+ *
+ * @param <T> overlay type
+ */
+@ParametersAreNonnullByDefault
+public class ActivationBuckets<T extends Overlay>
+{
+    private final HashMap<ResourceKey<Level>, HashMap<Long, Bucket<T>>> buckets = new HashMap<ResourceKey<Level>, HashMap<Long, Bucket<T>>>();
+    private final HashMap<T, Bucket<T>> bucketOf = new HashMap<T, Bucket<T>>();
+
+    /**
+     * Adds an overlay, or moves it to the right group if its activation has changed.
+     *
+     * @param overlay the overlay
+     */
+    public void put(T overlay)
+    {
+        Bucket<T> current = bucketOf.get(overlay);
+        if (current != null)
+        {
+            if (current.dimension == overlay.getDimension() && current.mask == overlay.getActivationMask())
+            {
+                current.replace(overlay);
+                bucketOf.remove(overlay);
+                bucketOf.put(overlay, current);
+                return;
+            }
+            remove(overlay);
+        }
+
+        HashMap<Long, Bucket<T>> byMask = buckets.computeIfAbsent(overlay.getDimension(), dim -> new HashMap<Long, Bucket<T>>());
+        Bucket<T> bucket = byMask.computeIfAbsent(overlay.getActivationMask(), mask -> new Bucket<T>(overlay.getDimension(), mask));
+        bucket.add(overlay);
+        bucketOf.put(overlay, bucket);
+    }
+
+    /**
+     * Removes an overlay.
+     *
+     * @param overlay the overlay
+     * @return true if it was present
+     */
+    public boolean remove(T overlay)
+    {
+        Bucket<T> bucket = bucketOf.remove(overlay);
+        if (bucket == null)
+        {
+            return false;
+        }
+        bucket.remove(overlay);
+        if (bucket.overlays.isEmpty())
+        {
+            HashMap<Long, Bucket<T>> byMask = buckets.get(bucket.dimension);
+            byMask.remove(bucket.mask);
+            if (byMask.isEmpty())
+            {
+                buckets.remove(bucket.dimension);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes all overlays.
+     */
+    public void clear()
+    {
+        buckets.clear();
+        bucketOf.clear();
+    }
+
+    /**
+     * Number of overlays.
+     *
+     * @return the size
+     */
+    public int size()
+    {
+        return bucketOf.size();
+    }
+
+    /**
+     * Visits every overlay which is active in the UIState.
+     *
+     * @param uiState the UI state
+     * @param visitor called with each active overlay
+     */
+    public void forEachActive(UIState uiState, Consumer<? super T> visitor)
+    {
+        if (!uiState.active)
+        {
+            return;
+        }
+
+        HashMap<Long, Bucket<T>> byMask = buckets.get(uiState.dimension);
+        if (byMask == null)
+        {
+            return;
+        }
+
+        for (Bucket<T> bucket : byMask.values())
+        {
+            if (ActivationMask.matches(bucket.mask, uiState.activationMask))
+            {
+                ArrayList<T> overlays = bucket.overlays;
+                for (int i = 0; i < overlays.size(); i++)
+                {
+                    visitor.accept(overlays.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Overlays in one dimension with the same activation mask.
+     */
+    private static class Bucket<T extends Overlay>
+    {
+        final ResourceKey<Level> dimension;
+        final long mask;
+        final ArrayList<T> overlays = new ArrayList<T>();
+        final HashMap<T, Integer> indices = new HashMap<T, Integer>();
+
+        Bucket(ResourceKey<Level> dimension, long mask)
+        {
+            this.dimension = dimension;
+            this.mask = mask;
+        }
+
+        void add(T overlay)
+        {
+            indices.put(overlay, overlays.size());
+            overlays.add(overlay);
+        }
+
+        void replace(T overlay)
+        {
+            // Equal overlays may still be different instances
+            int index = indices.get(overlay);
+            overlays.set(index, overlay);
+            indices.remove(overlay);
+            indices.put(overlay, index);
+        }
+
+        void remove(T overlay)
+        {
+            // Swap with the last overlay so removal doesn't shift the list
+            int index = indices.remove(overlay);
+            T last = overlays.remove(overlays.size() - 1);
+            if (index < overlays.size())
+            {
+                overlays.set(index, last);
+                indices.put(last, index);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import journeymap.client.api.display.Context;
+
+import javax.annotation.Nullable;
+import java.util.EnumSet;
+
+/**
+ * Packs the UIs, map types and zoom levels where something is active into a single long,
+ * so that checking it against a {@link UIState} is one bitwise AND instead of several EnumSet lookups.
+ * <p>
+ * Each UI, map type and zoom level has its own bit. The mask of a UIState has exactly one bit set for each of those,
+ * and the mask of an Overlay or TextProperties has every bit set where it is active.
+ * Context.UI.Any and Context.MapType.Any set every bit in their group.
+ */
+public final class ActivationMask
+{
+    /**
+     * Lowest supported zoom level.
+     */
+    public static final int MIN_ZOOM = 0;
+
+    /**
+     * Highest supported zoom level.
+     */
+    public static final int MAX_ZOOM = 8;
+
+    private static final int MAP_TYPE_SHIFT = Context.UI.values().length;
+    private static final int ZOOM_SHIFT = MAP_TYPE_SHIFT + Context.MapType.values().length;
+
+    private static final long ALL_UIS = (1L << MAP_TYPE_SHIFT) - 1;
+    private static final long ALL_MAP_TYPES = ((1L << ZOOM_SHIFT) - 1) & ~ALL_UIS;
+
+    /**
+     * Set on a UIState zoomed outside of MIN_ZOOM - MAX_ZOOM, which nothing is active in.
+     */
+    private static final long ZOOM_OUT_OF_RANGE = 1L << (ZOOM_SHIFT + MAX_ZOOM + 1);
+
+    private ActivationMask()
+    {
+    }
+
+    /**
+     * Creates the mask for something active in the given UIs, map types and zoom range.
+     *
+     * @param activeUIs      active UIs
+     * @param activeMapTypes active map types
+     * @param minZoom        min zoom
+     * @param maxZoom        max zoom
+     * @return the mask
+     */
+    public static long of(EnumSet<Context.UI> activeUIs, EnumSet<Context.MapType> activeMapTypes, int minZoom, int maxZoom)
+    {
+        long mask = 0;
+
+        if (activeUIs.contains(Context.UI.Any))
+        {
+            mask |= ALL_UIS;
+        }
+        else
+        {
+            for (Context.UI ui : activeUIs)
+            {
+                mask |= uiBit(ui);
+            }
+        }
+
+        if (activeMapTypes.contains(Context.MapType.Any))
+        {
+            mask |= ALL_MAP_TYPES;
+        }
+        else
+        {
+            for (Context.MapType mapType : activeMapTypes)
+            {
+                mask |= mapTypeBit(mapType);
+            }
+        }
+
+        for (int zoom = Math.max(MIN_ZOOM, minZoom); zoom <= Math.min(MAX_ZOOM, maxZoom); zoom++)
+        {
+            mask |= zoomBit(zoom);
+        }
+
+        return mask;
+    }
+
+    /**
+     * Creates the mask for the UI, map type and zoom level of a UIState.
+     * A null UI or map type is treated as Any, which only matches things active in Any.
+     *
+     * @param ui      the ui
+     * @param mapType the map type
+     * @param zoom    the zoom level
+     * @return the mask
+     */
+    public static long of(@Nullable Context.UI ui, @Nullable Context.MapType mapType, int zoom)
+    {
+        return uiBit(ui == null ? Context.UI.Any : ui)
+                | mapTypeBit(mapType == null ? Context.MapType.Any : mapType)
+                | zoomBit(zoom);
+    }
+
+    /**
+     * Whether something with the active mask should be active in a UIState with the state mask.
+     *
+     * @param activeMask mask from {@link #of(EnumSet, EnumSet, int, int)}
+     * @param stateMask  mask from {@link #of(Context.UI, Context.MapType, int)}
+     * @return true if active
+     */
+    public static boolean matches(long activeMask, long stateMask)
+    {
+        return (activeMask & stateMask) == stateMask;
+    }
+
+    private static long uiBit(Context.UI ui)
+    {
+        return 1L << ui.ordinal();
+    }
+
+    private static long mapTypeBit(Context.MapType mapType)
+    {
+        return 1L << (MAP_TYPE_SHIFT + mapType.ordinal());
+    }
+
+    private static long zoomBit(int zoom)
+    {
+        if (zoom < MIN_ZOOM || zoom > MAX_ZOOM)
+        {
+            return ZOOM_OUT_OF_RANGE;
+        }
+        return 1L << (ZOOM_SHIFT + zoom);
+    }
+}
@@ -0,0 +1,584 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import com.google.common.base.MoreObjects;
+import journeymap.client.api.model.MapPolygon;
+import net.minecraft.world.level.ChunkPos;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Merges a set of chunks into areas outlined by as few polygons as possible, for use with PolygonOverlays.
+ * Each area is a group of chunks connected by their edges, with one outer polygon and a polygon for each hole.
+ * Chunks which only touch at a corner are in separate areas.
+ * <p>
+ * Chunks can be added and removed at any time.  Only the areas touching the changed chunks are outlined again,
+ * and the {@link Changes} returned say which areas were replaced, so only their overlays need to be updated.
+ * <p>
+ * Polygons follow the {@link MapPolygon} conventions: outer areas start at their southwest corner and are
+ * counterclockwise, holes are clockwise.  Points along straight edges are left out.  A hole whose chunks touch
+ * diagonally is split there into separate holes, so no polygon crosses itself.
+ * <p>
+ * Not thread-safe.
+ *
+ * @see PolygonHelper#createChunkPolygon(int, int, int)
+ */
+@ParametersAreNonnullByDefault
+public class ChunkAreas
+{
+    // Directions of boundary edges, in counterclockwise order
+    private static final int EAST = 0;
+    private static final int NORTH = 1;
+    private static final int WEST = 2;
+    private static final int SOUTH = 3;
+    private static final int[] DX = {1, 0, -1, 0};
+    private static final int[] DZ = {0, -1, 0, 1};
+
+    private final int y;
+    private final HashMap<Long, Area> areaOf = new HashMap<Long, Area>();
+    private final LinkedHashSet<Area> areas = new LinkedHashSet<Area>();
+
+    /**
+     * Constructor.
+     *
+     * @param y block y used for the points of the polygons
+     */
+    public ChunkAreas(int y)
+    {
+        this.y = y;
+    }
+
+    /**
+     * Adds a chunk.
+     *
+     * @param chunk the chunk
+     * @return the areas replaced as a result
+     */
+    public Changes add(ChunkPos chunk)
+    {
+        return update(Collections.singletonList(chunk), Collections.<ChunkPos>emptyList());
+    }
+
+    /**
+     * Removes a chunk.
+     *
+     * @param chunk the chunk
+     * @return the areas replaced as a result
+     */
+    public Changes remove(ChunkPos chunk)
+    {
+        return update(Collections.<ChunkPos>emptyList(), Collections.singletonList(chunk));
+    }
+
+    /**
+     * Adds and removes chunks in one step.  This is faster than adding or removing them one at a time,
+     * since each affected area is only outlined once.
+     *
+     * @param added   chunks to add
+     * @param removed chunks to remove
+     * @return the areas replaced as a result
+     */
+    public Changes update(Collection<ChunkPos> added, Collection<ChunkPos> removed)
+    {
+        LinkedHashSet<Area> affected = new LinkedHashSet<Area>();
+        for (ChunkPos chunk : removed)
+        {
+            Area area = areaOf.remove(chunk.toLong());
+            if (area != null)
+            {
+                affected.add(area);
+            }
+        }
+
+        HashSet<Long> pool = new HashSet<Long>();
+        for (ChunkPos chunk : added)
+        {
+            long key = chunk.toLong();
+            if (areaOf.containsKey(key) || !pool.add(key))
+            {
+                continue;
+            }
+            for (int dir = 0; dir < 4; dir++)
+            {
+                Area neighbor = areaOf.get(ChunkPos.asLong(chunk.x + DX[dir], chunk.z + DZ[dir]));
+                if (neighbor != null)
+                {
+                    affected.add(neighbor);
+                }
+            }
+        }
+
+        if (affected.isEmpty() && pool.isEmpty())
+        {
+            return new Changes(Collections.<Area>emptyList(), Collections.<Area>emptyList());
+        }
+
+        // Everything connected to a changed chunk is in the pool, since its neighbors' areas are affected
+        for (Area area : affected)
+        {
+            areas.remove(area);
+            for (long key : area.chunks)
+            {
+                if (areaOf.remove(key) != null)
+                {
+                    pool.add(key);
+                }
+            }
+        }
+
+        List<Area> created = new ArrayList<Area>();
+        while (!pool.isEmpty())
+        {
+            long[] chunks = takeConnected(pool);
+            Area area = outline(chunks);
+            for (long key : chunks)
+            {
+                areaOf.put(key, area);
+            }
+            areas.add(area);
+            created.add(area);
+        }
+
+        return new Changes(new ArrayList<Area>(affected), created);
+    }
+
+    /**
+     * Removes every chunk.
+     *
+     * @return the areas removed
+     */
+    public Changes clear()
+    {
+        Changes changes = new Changes(new ArrayList<Area>(areas), Collections.<Area>emptyList());
+        areas.clear();
+        areaOf.clear();
+        return changes;
+    }
+
+    /**
+     * Whether a chunk has been added.
+     *
+     * @param chunk the chunk
+     * @return true if present
+     */
+    public boolean contains(ChunkPos chunk)
+    {
+        return areaOf.containsKey(chunk.toLong());
+    }
+
+    /**
+     * Gets the area containing a chunk.
+     *
+     * @param chunk the chunk
+     * @return the area, or null if the chunk hasn't been added
+     */
+    @Nullable
+    public Area getArea(ChunkPos chunk)
+    {
+        return areaOf.get(chunk.toLong());
+    }
+
+    /**
+     * Gets the current areas.
+     *
+     * @return an unmodifiable view of the areas
+     */
+    public Collection<Area> getAreas()
+    {
+        return Collections.unmodifiableCollection(areas);
+    }
+
+    /**
+     * Number of chunks.
+     *
+     * @return the size
+     */
+    public int size()
+    {
+        return areaOf.size();
+    }
+
+    /**
+     * Removes one group of edge-connected chunks from the pool.
+     */
+    private static long[] takeConnected(HashSet<Long> pool)
+    {
+        Long start = pool.iterator().next();
+        pool.remove(start);
+
+        ArrayList<Long> found = new ArrayList<Long>();
+        ArrayDeque<Long> queue = new ArrayDeque<Long>();
+        queue.add(start);
+        while (!queue.isEmpty())
+        {
+            long key = queue.poll();
+            found.add(key);
+            int x = ChunkPos.getX(key);
+            int z = ChunkPos.getZ(key);
+            for (int dir = 0; dir < 4; dir++)
+            {
+                Long neighbor = ChunkPos.asLong(x + DX[dir], z + DZ[dir]);
+                if (pool.remove(neighbor))
+                {
+                    queue.add(neighbor);
+                }
+            }
+        }
+
+        long[] chunks = new long[found.size()];
+        for (int i = 0; i < chunks.length; i++)
+        {
+            chunks[i] = found.get(i);
+        }
+        return chunks;
+    }
+
+    /**
+     * Traces the boundary of a group of edge-connected chunks.
+     */
+    private Area outline(long[] chunks)
+    {
+        HashSet<Long> members = new HashSet<Long>(chunks.length * 2);
+        for (long key : chunks)
+        {
+            members.add(key);
+        }
+
+        // Every chunk side without a neighbor is a boundary edge, directed counterclockwise around its chunk.
+        // Edges are keyed by their starting corner, in chunk units, with a bit for each direction leaving it.
+        HashMap<Long, Integer> edges = new HashMap<Long, Integer>();
+        for (long key : chunks)
+        {
+            int x = ChunkPos.getX(key);
+            int z = ChunkPos.getZ(key);
+            if (!members.contains(ChunkPos.asLong(x, z + 1)))
+            {
+                addEdge(edges, x, z + 1, EAST);
+            }
+            if (!members.contains(ChunkPos.asLong(x + 1, z)))
+            {
+                addEdge(edges, x + 1, z + 1, NORTH);
+            }
+            if (!members.contains(ChunkPos.asLong(x, z - 1)))
+            {
+                addEdge(edges, x + 1, z, WEST);
+            }
+            if (!members.contains(ChunkPos.asLong(x - 1, z)))
+            {
+                addEdge(edges, x, z, SOUTH);
+            }
+        }
+
+        MapPolygon outer = null;
+        List<MapPolygon> holes = new ArrayList<MapPolygon>();
+        HashMap<Long, Integer> unvisited = new HashMap<Long, Integer>(edges);
+        while (!unvisited.isEmpty())
+        {
+            long corner = unvisited.keySet().iterator().next();
+            int dir = Integer.numberOfTrailingZeros(unvisited.get(corner));
+            for (List<int[]> corners : splitAtPinches(trace(edges, unvisited, corner, dir)))
+            {
+                MapPolygon loop = toPolygon(corners);
+                if (loop.getSignedArea() > 0)
+                {
+                    outer = loop;
+                }
+                else
+                {
+                    holes.add(loop);
+                }
+            }
+        }
+
+        return new Area(outer, holes, chunks);
+    }
+
+    private static void addEdge(HashMap<Long, Integer> edges, int x, int z, int dir)
+    {
+        edges.merge(ChunkPos.asLong(x, z), 1 << dir, (a, b) -> a | b);
+    }
+
+    /**
+     * Follows boundary edges from a corner until returning to it, keeping only the corners where the direction changes.
+     */
+    private static List<int[]> trace(HashMap<Long, Integer> edges, HashMap<Long, Integer> unvisited, long startCorner, int startDir)
+    {
+        List<int[]> corners = new ArrayList<int[]>();
+        long corner = startCorner;
+        int dir = startDir;
+        int previousDir = -1;
+        do
+        {
+            int x = ChunkPos.getX(corner);
+            int z = ChunkPos.getZ(corner);
+            if (dir != previousDir)
+            {
+                corners.add(new int[]{x, z});
+            }
+
+            int remaining = unvisited.get(corner) & ~(1 << dir);
+            if (remaining == 0)
+            {
+                unvisited.remove(corner);
+            }
+            else
+            {
+                unvisited.put(corner, remaining);
+            }
+
+            previousDir = dir;
+            corner = ChunkPos.asLong(x + DX[dir], z + DZ[dir]);
+            int leaving = edges.get(corner);
+            if (Integer.bitCount(leaving) == 1)
+            {
+                dir = Integer.numberOfTrailingZeros(leaving);
+            }
+            else
+            {
+                // Two chunks touch diagonally here.  Turning left keeps to the chunk we came along,
+                // so chunks which only share a corner stay apart.
+                dir = (previousDir + 1) % 4;
+            }
+        }
+        while (corner != startCorner || dir != startDir);
+
+        if (dir == previousDir && corners.size() > 1)
+        {
+            // The start was along a straight edge
+            corners.remove(0);
+        }
+        return corners;
+    }
+
+    /**
+     * Splits a loop which passes through the same corner twice, which happens to a hole where two of its chunks
+     * touch diagonally, into loops which don't.
+     */
+    private static List<List<int[]>> splitAtPinches(List<int[]> corners)
+    {
+        List<List<int[]>> loops = new ArrayList<List<int[]>>(1);
+        ArrayList<int[]> stack = new ArrayList<int[]>(corners.size());
+        HashMap<Long, Integer> positions = new HashMap<Long, Integer>();
+        for (int[] corner : corners)
+        {
+            Integer position = positions.get(ChunkPos.asLong(corner[0], corner[1]));
+            if (position == null)
+            {
+                positions.put(ChunkPos.asLong(corner[0], corner[1]), stack.size());
+                stack.add(corner);
+                continue;
+            }
+
+            // Everything since the first visit is a loop of its own
+            List<int[]> tail = stack.subList(position, stack.size());
+            loops.add(new ArrayList<int[]>(tail));
+            for (int[] removed : tail.subList(1, tail.size()))
+            {
+                positions.remove(ChunkPos.asLong(removed[0], removed[1]));
+            }
+            tail.subList(1, tail.size()).clear();
+        }
+        loops.add(stack);
+        return loops;
+    }
+
+    /**
+     * Converts the corners of a loop from chunk units to a polygon.
+     */
+    private MapPolygon toPolygon(List<int[]> corners)
+    {
+        // Start at the southwest-most corner
+        int first = 0;
+        for (int i = 1; i < corners.size(); i++)
+        {
+            int[] c = corners.get(i);
+            int[] best = corners.get(first);
+            if (c[1] > best[1] || (c[1] == best[1] && c[0] < best[0]))
+            {
+                first = i;
+            }
+        }
+
+        int[] coords = new int[corners.size() * 3];
+        for (int i = 0; i < corners.size(); i++)
+        {
+            int[] c = corners.get((first + i) % corners.size());
+            coords[i * 3] = c[0] << 4;
+            coords[i * 3 + 1] = y;
+            coords[i * 3 + 2] = c[1] << 4;
+        }
+        return new MapPolygon(coords);
+    }
+
+    /**
+     * A group of edge-connected chunks and its outline.  Areas are never modified; adding or removing a chunk
+     * replaces the area it belongs to.
+     */
+    public static final class Area
+    {
+        private final MapPolygon outerArea;
+        private final List<MapPolygon> holes;
+        private final long[] chunks;
+        private final ChunkPos anchor;
+
+        Area(MapPolygon outerArea, List<MapPolygon> holes, long[] chunks)
+        {
+            this.outerArea = outerArea;
+            this.holes = Collections.unmodifiableList(holes);
+            this.chunks = chunks;
+
+            // The chunk inside the first corner of the outline
+            this.anchor = new ChunkPos(outerArea.getX(0) >> 4, (outerArea.getZ(0) >> 4) - 1);
+        }
+
+        /**
+         * The outer boundary.
+         *
+         * @return the polygon
+         */
+        public MapPolygon getOuterArea()
+        {
+            return outerArea;
+        }
+
+        /**
+         * The holes inside the outer boundary.
+         *
+         * @return an unmodifiable list, empty if there are none
+         */
+        public List<MapPolygon> getHoles()
+        {
+            return holes;
+        }
+
+        /**
+         * The southwest-most chunk of the area, which is convenient for naming an overlay.
+         * No other current area has the same anchor.
+         *
+         * @return the chunk
+         */
+        public ChunkPos getAnchor()
+        {
+            return anchor;
+        }
+
+        /**
+         * The chunks in the area.
+         *
+         * @return an unmodifiable list
+         */
+        public List<ChunkPos> getChunks()
+        {
+            return new AbstractList<ChunkPos>()
+            {
+                @Override
+                public ChunkPos get(int index)
+                {
+                    return new ChunkPos(chunks[index]);
+                }
+
+                @Override
+                public int size()
+                {
+                    return chunks.length;
+                }
+            };
+        }
+
+        /**
+         * Number of chunks in the area.
+         *
+         * @return the size
+         */
+        public int size()
+        {
+            return chunks.length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this)
+                    .add("anchor", anchor)
+                    .add("chunks", chunks.length)
+                    .add("outerArea", outerArea.size())
+                    .add("holes", holes.size())
+                    .toString();
+        }
+    }
+
+    /**
+     * The areas replaced by adding or removing chunks.  Remove the overlays of the removed areas before
+     * showing overlays for the added ones, since an added area may have the same anchor as a removed one.
+     */
+    public static final class Changes
+    {
+        private final List<Area> removed;
+        private final List<Area> added;
+
+        Changes(List<Area> removed, List<Area> added)
+        {
+            this.removed = Collections.unmodifiableList(removed);
+            this.added = Collections.unmodifiableList(added);
+        }
+
+        /**
+         * Areas which no longer exist.
+         *
+         * @return the areas
+         */
+        public List<Area> getRemoved()
+        {
+            return removed;
+        }
+
+        /**
+         * Areas which are new.
+         *
+         * @return the areas
+         */
+        public List<Area> getAdded()
+        {
+            return added;
+        }
+
+        /**
+         * Whether nothing changed.
+         *
+         * @return true if no areas were added or removed
+         */
+        public boolean isEmpty()
+        {
+            return removed.isEmpty() && added.isEmpty();
+        }
+    }
+}
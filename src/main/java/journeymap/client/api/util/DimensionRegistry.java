@@ -0,0 +1,168 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Enum singleton which knows the horizontal coordinate scale of each dimension, so positions can be translated from
+ * one dimension to another the way portals do: one block in a dimension with a scale of 8, like the Nether,
+ * is 8 blocks in a dimension with a scale of 1.
+ * <p>
+ * The vanilla dimensions are known from the start.  JourneyMap registers every other dimension with
+ * {@link #register(Level)} as it is loaded, so modded dimensions get their own
+ * {@link net.minecraft.world.level.dimension.DimensionType#coordinateScale()}.  Unknown dimensions have a scale of 1.
+ * <p>
+ * Dimensions are looked up by ResourceKey, which Minecraft interns, or by the String form of its location
+ * (e.g. "minecraft:the_nether") as stored in waypoints.  Neither lookup allocates.
+ * <p>
+ * Thread-safe.
+ */
+@ParametersAreNonnullByDefault
+public enum DimensionRegistry
+{
+    INSTANCE;
+
+    private final ConcurrentHashMap<ResourceKey<Level>, Double> scalesByKey = new ConcurrentHashMap<ResourceKey<Level>, Double>();
+    private final ConcurrentHashMap<String, Double> scalesById = new ConcurrentHashMap<String, Double>();
+
+    DimensionRegistry()
+    {
+        register(Level.OVERWORLD, 1.0);
+        register(Level.NETHER, 8.0);
+        register(Level.END, 1.0);
+    }
+
+    /**
+     * Registers a loaded dimension with its coordinate scale.
+     *
+     * @param level the dimension's level
+     */
+    public void register(Level level)
+    {
+        register(level.dimension(), level.dimensionType().coordinateScale());
+    }
+
+    /**
+     * Registers a dimension with its coordinate scale, replacing any earlier scale.
+     *
+     * @param dimension       the dimension
+     * @param coordinateScale blocks in a scale 1 dimension per block in this one
+     */
+    public void register(ResourceKey<Level> dimension, double coordinateScale)
+    {
+        if (!(coordinateScale > 0))
+        {
+            throw new IllegalArgumentException("coordinateScale must be positive: " + coordinateScale);
+        }
+        scalesByKey.put(dimension, coordinateScale);
+        scalesById.put(dimension.location().toString(), coordinateScale);
+    }
+
+    /**
+     * Gets the coordinate scale of a dimension.
+     *
+     * @param dimension the dimension
+     * @return the scale, 1 if unknown
+     */
+    public double getCoordinateScale(ResourceKey<Level> dimension)
+    {
+        Double scale = scalesByKey.get(dimension);
+        return scale == null ? 1.0 : scale;
+    }
+
+    /**
+     * Gets the coordinate scale of a dimension.
+     *
+     * @param dimension the dimension's location, compared ignoring case
+     * @return the scale, 1 if unknown
+     */
+    public double getCoordinateScale(String dimension)
+    {
+        Double scale = scalesById.get(dimension);
+        if (scale == null)
+        {
+            // toLowerCase returns the same instance when there's nothing to change
+            String lower = dimension.toLowerCase(Locale.ROOT);
+            scale = lower == dimension ? null : scalesById.get(lower);
+        }
+        return scale == null ? 1.0 : scale;
+    }
+
+    /**
+     * Translates a position from one dimension to another.
+     *
+     * @param pos  the position in the source dimension
+     * @param from the source dimension's location
+     * @param to   the target dimension's location
+     * @return the position in the target dimension; the same instance if the scales match
+     */
+    public BlockPos translate(BlockPos pos, String from, String to)
+    {
+        if (from.equals(to))
+        {
+            return pos;
+        }
+        return scale(pos, getCoordinateScale(from), getCoordinateScale(to));
+    }
+
+    /**
+     * Translates a position from one dimension to another.
+     *
+     * @param pos  the position in the source dimension
+     * @param from the source dimension
+     * @param to   the target dimension
+     * @return the position in the target dimension; the same instance if the scales match
+     */
+    public BlockPos translate(BlockPos pos, ResourceKey<Level> from, ResourceKey<Level> to)
+    {
+        if (from == to)
+        {
+            return pos;
+        }
+        return scale(pos, getCoordinateScale(from), getCoordinateScale(to));
+    }
+
+    /**
+     * Scales the horizontal coordinates of a position from one coordinate scale to another, rounding down.
+     * The y coordinate is unchanged.
+     *
+     * @param pos       the position
+     * @param fromScale coordinate scale of the source dimension
+     * @param toScale   coordinate scale of the target dimension
+     * @return the scaled position; the same instance if the scales match
+     */
+    public static BlockPos scale(BlockPos pos, double fromScale, double toScale)
+    {
+        if (fromScale == toScale)
+        {
+            return pos;
+        }
+        double factor = fromScale / toScale;
+        return new BlockPos(Math.floor(pos.getX() * factor), pos.getY(), Math.floor(pos.getZ() * factor));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import journeymap.client.api.IClientAPI;
+import journeymap.client.api.IClientPlugin;
+import journeymap.client.api.event.ClientEvent;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.EnumSet;
+
+/**
+ * Stands in for a plugin from a {@link PluginIndex} until one of the events it subscribes to is sent, so plugins which
+ * never see an event are never loaded.
+ * <p>
+ * {@link #initialize(IClientAPI)} only subscribes to the events named in the index.  The first event loads and
+ * instantiates the plugin class, calls its initialize, and then passes on the event.  If that fails, the plugin is
+ * unsubscribed from every event.
+ * <p>
+ * Whether it accepts async events comes from the index, since the plugin class isn't loaded when JourneyMap asks.
+ * Loading and initializing the plugin happens on whichever thread sends the first event.
+ */
+@ParametersAreNonnullByDefault
+public final class LazyClientPlugin implements IClientPlugin
+{
+    private final String className;
+    private final String modId;
+    private final EnumSet<ClientEvent.Type> events;
+    private final boolean asyncEvents;
+    private final ClassLoader classLoader;
+    private IClientAPI clientAPI;
+    private volatile IClientPlugin delegate;
+    private boolean failed;
+
+    /**
+     * Constructor.
+     *
+     * @param entry       the plugin, which must be {@link PluginIndex.Entry#isDeferrable() deferrable}
+     * @param classLoader loader for the plugin class
+     */
+    public LazyClientPlugin(PluginIndex.Entry entry, ClassLoader classLoader)
+    {
+        if (!entry.isDeferrable())
+        {
+            throw new IllegalArgumentException("Plugin index entry needs a modId and events: " + entry);
+        }
+        this.className = entry.getClassName();
+        this.modId = entry.getModId();
+        this.events = entry.getEvents();
+        this.asyncEvents = entry.acceptsAsyncEvents();
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public synchronized void initialize(IClientAPI jmClientApi)
+    {
+        this.clientAPI = jmClientApi;
+        jmClientApi.subscribe(modId, events);
+    }
+
+    @Override
+    public String getModId()
+    {
+        return modId;
+    }
+
+    @Override
+    public boolean acceptsAsyncEvents()
+    {
+        return asyncEvents;
+    }
+
+    @Override
+    public void onEvent(ClientEvent event)
+    {
+        IClientPlugin plugin = delegate != null ? delegate : load();
+        if (plugin != null)
+        {
+            plugin.onEvent(event);
+        }
+    }
+
+    /**
+     * Name of the plugin class.
+     *
+     * @return the class name
+     */
+    public String getClassName()
+    {
+        return className;
+    }
+
+    /**
+     * The plugin, if it has been loaded.
+     *
+     * @return the plugin, or null
+     */
+    @Nullable
+    public IClientPlugin getDelegate()
+    {
+        return delegate;
+    }
+
+    @Nullable
+    private synchronized IClientPlugin load()
+    {
+        if (delegate != null || failed || clientAPI == null)
+        {
+            return delegate;
+        }
+
+        IClientPlugin plugin = null;
+        try
+        {
+            plugin = PluginHelper.INSTANCE.instantiate(className, classLoader);
+            if (plugin != null && !modId.equals(plugin.getModId()))
+            {
+                PluginHelper.LOGGER.error(String.format("Plugin %s returns modId %s, but its @ClientPlugin says %s",
+                        className, plugin.getModId(), modId));
+                plugin = null;
+            }
+        }
+        catch (Exception e)
+        {
+            PluginHelper.LOGGER.error("Failed to load deferred IClientPlugin: " + className, e);
+        }
+
+        if (plugin != null && plugin.acceptsAsyncEvents() != asyncEvents)
+        {
+            PluginHelper.LOGGER.warn(String.format("Plugin %s returns acceptsAsyncEvents() %s, but its @ClientPlugin says %s; using %s",
+                    className, plugin.acceptsAsyncEvents(), asyncEvents, asyncEvents));
+        }
+        if (plugin == null || !PluginHelper.INSTANCE.initialize(plugin, clientAPI))
+        {
+            failed = true;
+            clientAPI.subscribe(modId, EnumSet.noneOf(ClientEvent.Type.class));
+            return null;
+        }
+        delegate = plugin;
+        return plugin;
+    }
+}
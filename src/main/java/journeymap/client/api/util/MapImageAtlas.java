@@ -0,0 +1,528 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import com.google.common.base.Objects;
+import journeymap.client.api.model.MapImage;
+import net.minecraft.resources.ResourceLocation;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Packs the textures of MapImages into a few large pages, so that many markers and waypoint icons
+ * can be drawn from the same texture.
+ * <p>
+ * {@link #pack(MapImage)} copies the texture of a MapImage into a page, whether it comes from a ResourceLocation
+ * or a BufferedImage, and returns a MapImage which draws it from the page.  The same texture is only packed once.
+ * Draw calls can then be grouped with {@link #groupByPage(Iterable, Function)} so each page is bound once per frame.
+ * <p>
+ * Each pack counts as a use of the texture, and {@link #release(MapImage)} gives one back; once a texture has no
+ * uses, its space in the page is freed for other textures and the atlas no longer holds on to its source image.
+ * <p>
+ * Pages are modified in place as textures are added and removed; when {@link #getPageRevision(int)} changes, the page
+ * needs to be uploaded again.
+ * <p>
+ * Not thread-safe.
+ */
+@ParametersAreNonnullByDefault
+public class MapImageAtlas
+{
+    /**
+     * Transparent pixels left between textures, so filtering doesn't bleed one into another.
+     */
+    private static final int PADDING = 1;
+    private static final Color TRANSPARENT = new Color(0, 0, 0, 0);
+
+    private final int pageSize;
+    private final Function<ResourceLocation, BufferedImage> loader;
+    private final List<Page> pages = new ArrayList<Page>();
+    private final IdentityHashMap<BufferedImage, Integer> pageIndices = new IdentityHashMap<BufferedImage, Integer>();
+    private final HashMap<Sprite, Region> regions = new HashMap<Sprite, Region>();
+    private final HashMap<ResourceLocation, BufferedImage> loaded = new HashMap<ResourceLocation, BufferedImage>();
+    private final HashMap<Object, Integer> sourceRegions = new HashMap<Object, Integer>();
+
+    /**
+     * Constructor.
+     *
+     * @param pageSize width and height of each page in pixels
+     * @param loader   loads the image of a ResourceLocation, or returns null if it can't be loaded
+     */
+    public MapImageAtlas(int pageSize, Function<ResourceLocation, BufferedImage> loader)
+    {
+        this.pageSize = pageSize;
+        this.loader = loader;
+    }
+
+    /**
+     * Packs the texture of a MapImage into a page.  Call {@link #release(MapImage)} with the same image once the
+     * result is no longer drawn.
+     *
+     * @param mapImage the image
+     * @return a copy of the image drawn from a page, or the image itself if its texture can't be loaded,
+     * doesn't fit in a page, or is already in a page
+     */
+    public MapImage pack(MapImage mapImage)
+    {
+        if (mapImage.getImage() != null && pageIndices.containsKey(mapImage.getImage()))
+        {
+            return mapImage;
+        }
+
+        Object source = mapImage.getImage() != null ? mapImage.getImage() : mapImage.getImageLocation();
+        if (source == null)
+        {
+            return mapImage;
+        }
+
+        Sprite sprite = spriteOf(mapImage, source);
+        Region region = regions.get(sprite);
+        if (region == null)
+        {
+            region = add(sprite);
+            if (region == null)
+            {
+                return mapImage;
+            }
+            regions.put(sprite, region);
+            sourceRegions.merge(source, 1, Integer::sum);
+        }
+        region.uses++;
+
+        return mapImage.copyWithTexture(region.page.image, region.x, region.y);
+    }
+
+    /**
+     * Gives back a use of a texture packed by {@link #pack(MapImage)}.  When it was the last use, the texture is
+     * removed from its page, and MapImages packed from it should no longer be drawn.
+     *
+     * @param mapImage the image which was passed to pack, not the packed copy
+     */
+    public void release(MapImage mapImage)
+    {
+        Object source = mapImage.getImage() != null ? mapImage.getImage() : mapImage.getImageLocation();
+        if (source == null)
+        {
+            return;
+        }
+
+        Sprite sprite = spriteOf(mapImage, source);
+        Region region = regions.get(sprite);
+        if (region == null || --region.uses > 0)
+        {
+            return;
+        }
+
+        regions.remove(sprite);
+        if (sourceRegions.merge(source, -1, Integer::sum) == 0)
+        {
+            sourceRegions.remove(source);
+            if (source instanceof ResourceLocation)
+            {
+                loaded.remove(source);
+            }
+        }
+
+        Page page = region.page;
+        Graphics2D g = page.image.createGraphics();
+        g.setBackground(TRANSPARENT);
+        g.clearRect(region.x, region.y, region.paddedWidth, region.shelf.height);
+        g.dispose();
+        page.free(region);
+        page.revision++;
+    }
+
+    /**
+     * Gets the page a packed MapImage is drawn from.
+     *
+     * @param mapImage the image
+     * @return the page index, or -1 if the image isn't drawn from a page
+     */
+    public int getPageIndex(MapImage mapImage)
+    {
+        if (mapImage.getImage() == null)
+        {
+            return -1;
+        }
+        Integer index = pageIndices.get(mapImage.getImage());
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Groups items by the page their image is drawn from, so each page only needs to be bound once.
+     *
+     * @param items   the items to draw, such as MarkerOverlays
+     * @param imageOf gets the image of an item
+     * @param <T>     item type
+     * @return the items by page index in ascending order, with -1 for items whose images aren't drawn from a page
+     */
+    public <T> Map<Integer, List<T>> groupByPage(Iterable<T> items, Function<? super T, MapImage> imageOf)
+    {
+        TreeMap<Integer, List<T>> groups = new TreeMap<Integer, List<T>>();
+        for (T item : items)
+        {
+            MapImage image = imageOf.apply(item);
+            int index = image == null ? -1 : getPageIndex(image);
+            groups.computeIfAbsent(index, k -> new ArrayList<T>()).add(item);
+        }
+        return groups;
+    }
+
+    /**
+     * Number of pages.
+     *
+     * @return the count
+     */
+    public int getPageCount()
+    {
+        return pages.size();
+    }
+
+    /**
+     * Gets the image of a page.
+     *
+     * @param index page index
+     * @return the image
+     */
+    public BufferedImage getPage(int index)
+    {
+        return pages.get(index).image;
+    }
+
+    /**
+     * Gets the revision of a page, which changes every time a texture is added to it.
+     *
+     * @param index page index
+     * @return the revision
+     */
+    public int getPageRevision(int index)
+    {
+        return pages.get(index).revision;
+    }
+
+    /**
+     * Removes every page and texture.  MapImages packed before this should no longer be drawn.
+     */
+    public void clear()
+    {
+        pages.clear();
+        pageIndices.clear();
+        regions.clear();
+        loaded.clear();
+        sourceRegions.clear();
+    }
+
+    private static Sprite spriteOf(MapImage mapImage, Object source)
+    {
+        return new Sprite(source, mapImage.getTextureX(), mapImage.getTextureY(),
+                mapImage.getTextureWidth(), mapImage.getTextureHeight());
+    }
+
+    @Nullable
+    private Region add(Sprite sprite)
+    {
+        if (sprite.width + PADDING > pageSize || sprite.height + PADDING > pageSize)
+        {
+            return null;
+        }
+
+        BufferedImage sourceImage;
+        if (sprite.source instanceof BufferedImage)
+        {
+            sourceImage = (BufferedImage) sprite.source;
+        }
+        else
+        {
+            ResourceLocation location = (ResourceLocation) sprite.source;
+            sourceImage = loaded.get(location);
+            if (sourceImage == null && !loaded.containsKey(location))
+            {
+                sourceImage = loader.apply(location);
+                loaded.put(location, sourceImage);
+            }
+        }
+
+        if (sourceImage == null
+                || sprite.x < 0 || sprite.y < 0
+                || sprite.x + sprite.width > sourceImage.getWidth()
+                || sprite.y + sprite.height > sourceImage.getHeight())
+        {
+            return null;
+        }
+
+        Region region = null;
+        for (Page page : pages)
+        {
+            region = page.allocate(sprite.width, sprite.height);
+            if (region != null)
+            {
+                break;
+            }
+        }
+        if (region == null)
+        {
+            Page page = new Page(pages.size(), pageSize);
+            pages.add(page);
+            pageIndices.put(page.image, page.index);
+            region = page.allocate(sprite.width, sprite.height);
+        }
+
+        Graphics2D g = region.page.image.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(sourceImage,
+                region.x, region.y, region.x + sprite.width, region.y + sprite.height,
+                sprite.x, sprite.y, sprite.x + sprite.width, sprite.y + sprite.height, null);
+        g.dispose();
+        region.page.revision++;
+        return region;
+    }
+
+    /**
+     * A rectangle of a source image.  BufferedImage sources are compared by identity, ResourceLocations by value.
+     */
+    private static class Sprite
+    {
+        final Object source;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+
+        Sprite(Object source, int x, int y, int width, int height)
+        {
+            this.source = source;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Sprite))
+            {
+                return false;
+            }
+            Sprite that = (Sprite) o;
+            return x == that.x && y == that.y && width == that.width && height == that.height
+                    && source.equals(that.source);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(source, x, y, width, height);
+        }
+    }
+
+    /**
+     * Where a sprite was placed.
+     */
+    private static class Region
+    {
+        final Page page;
+        final Shelf shelf;
+        final int x;
+        final int y;
+        final int paddedWidth;
+        int uses;
+
+        Region(Page page, Shelf shelf, int x, int paddedWidth)
+        {
+            this.page = page;
+            this.shelf = shelf;
+            this.x = x;
+            this.y = shelf.y;
+            this.paddedWidth = paddedWidth;
+        }
+    }
+
+    /**
+     * A row of textures left to right, as tall as the first texture placed in it.  Space freed in the middle is
+     * kept as gaps for later textures; once the shelf is empty, all of its width is free again.
+     */
+    private static class Shelf
+    {
+        final int y;
+        final int height;
+        final List<int[]> gaps = new ArrayList<int[]>(); // x, width
+        int nextX;
+        int regions;
+
+        Shelf(int y, int height)
+        {
+            this.y = y;
+            this.height = height;
+        }
+
+        /**
+         * Where a texture of the given padded width fits, or -1.
+         */
+        int fit(int paddedWidth, int size)
+        {
+            for (int[] gap : gaps)
+            {
+                if (gap[1] >= paddedWidth)
+                {
+                    return gap[0];
+                }
+            }
+            return nextX + paddedWidth <= size ? nextX : -1;
+        }
+
+        void take(int x, int paddedWidth)
+        {
+            regions++;
+            if (x == nextX)
+            {
+                nextX += paddedWidth;
+                return;
+            }
+            for (Iterator<int[]> iterator = gaps.iterator(); iterator.hasNext(); )
+            {
+                int[] gap = iterator.next();
+                if (gap[0] == x)
+                {
+                    gap[0] += paddedWidth;
+                    gap[1] -= paddedWidth;
+                    if (gap[1] == 0)
+                    {
+                        iterator.remove();
+                    }
+                    return;
+                }
+            }
+        }
+
+        void give(int x, int paddedWidth)
+        {
+            if (--regions == 0)
+            {
+                gaps.clear();
+                nextX = 0;
+                return;
+            }
+
+            // Merge with neighbouring gaps, so they can be reused for wider textures
+            int start = x;
+            int end = x + paddedWidth;
+            for (Iterator<int[]> iterator = gaps.iterator(); iterator.hasNext(); )
+            {
+                int[] gap = iterator.next();
+                if (gap[0] + gap[1] == start || gap[0] == end)
+                {
+                    start = Math.min(start, gap[0]);
+                    end = Math.max(end, gap[0] + gap[1]);
+                    iterator.remove();
+                }
+            }
+            if (end == nextX)
+            {
+                nextX = start;
+            }
+            else
+            {
+                gaps.add(new int[]{start, end - start});
+            }
+        }
+    }
+
+    /**
+     * A page filled with shelves.
+     */
+    private static class Page
+    {
+        final int index;
+        final int size;
+        final BufferedImage image;
+        final List<Shelf> shelves = new ArrayList<Shelf>();
+        int nextShelfY;
+        int revision;
+
+        Page(int index, int size)
+        {
+            this.index = index;
+            this.size = size;
+            this.image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        @Nullable
+        Region allocate(int width, int height)
+        {
+            int paddedWidth = width + PADDING;
+            int paddedHeight = height + PADDING;
+
+            // Use the shortest shelf the texture fits in, to waste less space
+            Shelf best = null;
+            int bestX = -1;
+            for (Shelf shelf : shelves)
+            {
+                if (shelf.height >= paddedHeight && (best == null || shelf.height < best.height))
+                {
+                    int x = shelf.fit(paddedWidth, size);
+                    if (x >= 0)
+                    {
+                        best = shelf;
+                        bestX = x;
+                    }
+                }
+            }
+
+            if (best == null)
+            {
+                if (nextShelfY + paddedHeight > size)
+                {
+                    return null;
+                }
+                best = new Shelf(nextShelfY, paddedHeight);
+                bestX = 0;
+                shelves.add(best);
+                nextShelfY += paddedHeight;
+            }
+
+            best.take(bestX, paddedWidth);
+            return new Region(this, best, bestX, paddedWidth);
+        }
+
+        void free(Region region)
+        {
+            region.shelf.give(region.x, region.paddedWidth);
+            // Empty shelves at the bottom can be replaced by ones of another height
+            while (!shelves.isEmpty() && shelves.get(shelves.size() - 1).regions == 0)
+            {
+                nextShelfY = shelves.remove(shelves.size() - 1).y;
+            }
+        }
+    }
+}
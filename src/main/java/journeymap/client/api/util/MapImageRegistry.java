@@ -0,0 +1,287 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import com.google.common.base.Objects;
+import journeymap.client.api.model.MapImage;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.WeakHashMap;
+
+/**
+ * Hands out shared instances of identical images, so that identical icons are only stored and uploaded once.
+ * <p>
+ * BufferedImages are identical when they have the same size and pixels.  MapImages are identical when their textures
+ * are identical (the same ResourceLocation, or identical BufferedImages, with the same sub-rectangle) and all of their
+ * display attributes are the same.
+ * <p>
+ * Each call to intern counts as a reference to the shared instance; call release with the shared instance when done
+ * with it, and it is forgotten once nothing refers to it.
+ * <p>
+ * Shared instances must not be modified, since the change would show up everywhere they are used.
+ * To change how one marker looks, create a new MapImage and intern that instead.
+ * <p>
+ * Thread-safe.
+ */
+@ParametersAreNonnullByDefault
+public class MapImageRegistry
+{
+    private final HashMap<Integer, List<Pixels>> pixelsByHash = new HashMap<Integer, List<Pixels>>();
+    private final IdentityHashMap<BufferedImage, Pixels> canonicalImages = new IdentityHashMap<BufferedImage, Pixels>();
+    private final WeakHashMap<BufferedImage, Pixels> seenImages = new WeakHashMap<BufferedImage, Pixels>();
+    private final HashMap<ImageKey, Shared> mapImages = new HashMap<ImageKey, Shared>();
+    private final IdentityHashMap<MapImage, Shared> canonicalMapImages = new IdentityHashMap<MapImage, Shared>();
+
+    /**
+     * Gets the shared instance of a BufferedImage with the same pixels.
+     *
+     * @param image the image
+     * @return the shared image, which may be the same instance
+     */
+    public synchronized BufferedImage intern(BufferedImage image)
+    {
+        Pixels pixels = find(image);
+        if (pixels == null)
+        {
+            pixels = new Pixels(image);
+            pixelsByHash.computeIfAbsent(pixels.hash, k -> new ArrayList<Pixels>(1)).add(pixels);
+            canonicalImages.put(image, pixels);
+        }
+        seenImages.put(image, pixels);
+        pixels.references++;
+        return pixels.image;
+    }
+
+    /**
+     * Releases a reference to a shared BufferedImage.
+     *
+     * @param image the shared image returned by {@link #intern(BufferedImage)}
+     */
+    public synchronized void release(BufferedImage image)
+    {
+        Pixels pixels = canonicalImages.get(image);
+        if (pixels != null && --pixels.references <= 0)
+        {
+            canonicalImages.remove(image);
+            List<Pixels> sameHash = pixelsByHash.get(pixels.hash);
+            sameHash.remove(pixels);
+            if (sameHash.isEmpty())
+            {
+                pixelsByHash.remove(pixels.hash);
+            }
+            seenImages.values().removeIf(p -> p == pixels);
+        }
+    }
+
+    /**
+     * Gets the shared instance of an identical MapImage.  Its BufferedImage, if any, is interned as well.
+     *
+     * @param mapImage the image
+     * @return the shared image, which may be the same instance
+     */
+    public synchronized MapImage intern(MapImage mapImage)
+    {
+        MapImage candidate = mapImage;
+        if (mapImage.getImage() != null)
+        {
+            BufferedImage image = intern(mapImage.getImage());
+            if (image != mapImage.getImage())
+            {
+                candidate = mapImage.copyWithTexture(image, mapImage.getTextureX(), mapImage.getTextureY());
+            }
+        }
+
+        ImageKey key = new ImageKey(candidate);
+        Shared shared = mapImages.get(key);
+        if (shared == null)
+        {
+            shared = new Shared(key);
+            mapImages.put(key, shared);
+            canonicalMapImages.put(candidate, shared);
+        }
+        else if (candidate.getImage() != null)
+        {
+            // The shared instance already holds a reference to the pixels
+            release(candidate.getImage());
+        }
+        shared.references++;
+        return shared.key.mapImage;
+    }
+
+    /**
+     * Releases a reference to a shared MapImage.
+     *
+     * @param mapImage the shared image returned by {@link #intern(MapImage)}
+     */
+    public synchronized void release(MapImage mapImage)
+    {
+        Shared shared = canonicalMapImages.get(mapImage);
+        if (shared != null && --shared.references <= 0)
+        {
+            canonicalMapImages.remove(mapImage);
+            mapImages.remove(shared.key);
+            if (mapImage.getImage() != null)
+            {
+                release(mapImage.getImage());
+            }
+        }
+    }
+
+    /**
+     * Number of distinct BufferedImages held.
+     *
+     * @return the count
+     */
+    public synchronized int getImageCount()
+    {
+        return canonicalImages.size();
+    }
+
+    /**
+     * Number of distinct MapImages held.
+     *
+     * @return the count
+     */
+    public synchronized int getMapImageCount()
+    {
+        return mapImages.size();
+    }
+
+    @Nullable
+    private Pixels find(BufferedImage image)
+    {
+        Pixels pixels = canonicalImages.get(image);
+        if (pixels == null)
+        {
+            pixels = seenImages.get(image);
+        }
+        if (pixels != null)
+        {
+            return pixels;
+        }
+
+        int[] argb = argbOf(image);
+        List<Pixels> sameHash = pixelsByHash.get(hashOf(image, argb));
+        if (sameHash != null)
+        {
+            for (Pixels candidate : sameHash)
+            {
+                if (candidate.matches(image, argb))
+                {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int[] argbOf(BufferedImage image)
+    {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static int hashOf(BufferedImage image, int[] argb)
+    {
+        return 31 * (31 * image.getWidth() + image.getHeight()) + Arrays.hashCode(argb);
+    }
+
+    /**
+     * A shared BufferedImage.  Pixels aren't kept, they are read again from the image when hashes collide.
+     */
+    private static class Pixels
+    {
+        final BufferedImage image;
+        final int hash;
+        int references;
+
+        Pixels(BufferedImage image)
+        {
+            this.image = image;
+            this.hash = hashOf(image, argbOf(image));
+        }
+
+        boolean matches(BufferedImage other, int[] otherArgb)
+        {
+            return image.getWidth() == other.getWidth()
+                    && image.getHeight() == other.getHeight()
+                    && Arrays.equals(argbOf(image), otherArgb);
+        }
+    }
+
+    /**
+     * A shared MapImage.
+     */
+    private static class Shared
+    {
+        final ImageKey key;
+        int references;
+
+        Shared(ImageKey key)
+        {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Compares MapImages by texture and every display attribute.
+     * {@link MapImage#equals(Object)} doesn't compare BufferedImages, rotation or display size, so those are added here.
+     */
+    private static class ImageKey
+    {
+        final MapImage mapImage;
+        final int hash;
+
+        ImageKey(MapImage mapImage)
+        {
+            this.mapImage = mapImage;
+            this.hash = Objects.hashCode(mapImage, System.identityHashCode(mapImage.getImage()), mapImage.getRotation(),
+                    mapImage.getDisplayWidth(), mapImage.getDisplayHeight());
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof ImageKey))
+            {
+                return false;
+            }
+            MapImage other = ((ImageKey) o).mapImage;
+            return mapImage.getImage() == other.getImage()
+                    && mapImage.getRotation() == other.getRotation()
+                    && mapImage.getDisplayWidth() == other.getDisplayWidth()
+                    && mapImage.getDisplayHeight() == other.getDisplayHeight()
+                    && mapImage.equals(other);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import journeymap.client.api.model.MapTileKey;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Cache of rendered map tiles, keyed by {@link MapTileKey}.
+ * <p>
+ * The memory tier holds up to a fixed number of bytes of image data, evicting the least recently used tiles first.
+ * The optional disk tier keeps every tile as a PNG under a directory, so tiles survive a restart; tiles evicted from
+ * memory are reloaded from disk when requested again.
+ * <p>
+ * When chunks are re-mapped, call {@link #invalidate(ResourceKey, ChunkPos)} to drop every tile which covers them
+ * from both tiers.  Tiles are indexed by the regions of 32x32 chunks they cover, so invalidating a chunk only looks at
+ * the tiles of its region.
+ * <p>
+ * Thread-safe.  Disk reads and writes happen on the calling thread, so use it from tile workers
+ * (see {@link #loadingFrom(Function)}) rather than the render thread.
+ */
+@ParametersAreNonnullByDefault
+public class MapTileCache
+{
+    private static final Logger LOGGER = LogManager.getLogger("journeymap");
+    private static final String SURFACE = "surface";
+    private static final String GRID_SUFFIX = "_grid";
+    private static final String EXTENSION = ".png";
+    private static final int REGION_SHIFT = 5;
+
+    private final Cache<MapTileKey, BufferedImage> memory;
+    private final Path diskRoot;
+    private final ConcurrentHashMap<Path, DiskTile> diskTiles = new ConcurrentHashMap<Path, DiskTile>();
+    private final ConcurrentHashMap<Region, Set<MapTileKey>> memoryRegions = new ConcurrentHashMap<Region, Set<MapTileKey>>();
+    private final ConcurrentHashMap<Region, Set<DiskTile>> diskRegions = new ConcurrentHashMap<Region, Set<DiskTile>>();
+
+    /**
+     * Bumped by invalidations of a region, so renders of its tiles which started before one aren't cached afterward.
+     */
+    private final ConcurrentHashMap<Region, AtomicLong> generations = new ConcurrentHashMap<Region, AtomicLong>();
+
+    /**
+     * Bumped by {@link #invalidateAll()}.
+     */
+    private final AtomicLong allGeneration = new AtomicLong();
+
+    /**
+     * Memory-only cache.
+     *
+     * @param maxBytes bytes of image data to keep in memory
+     */
+    public MapTileCache(long maxBytes)
+    {
+        this(maxBytes, null);
+    }
+
+    /**
+     * Memory and disk cache.  Tiles already in the directory are available straight away.
+     *
+     * @param maxBytes bytes of image data to keep in memory
+     * @param diskRoot directory for the disk tier, or null for none
+     */
+    public MapTileCache(long maxBytes, @Nullable File diskRoot)
+    {
+        // One segment, so eviction is least recently used across the whole cache rather than per segment
+        this.memory = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxBytes)
+                .weigher((MapTileKey key, BufferedImage image) -> sizeOf(image))
+                .removalListener(this::removedFromMemory)
+                .recordStats()
+                .build();
+        this.diskRoot = diskRoot == null ? null : diskRoot.toPath();
+        if (this.diskRoot != null)
+        {
+            scanDisk();
+        }
+    }
+
+    /**
+     * Wraps a tile renderer so it only renders tiles which aren't cached, and caches what it renders.
+     * <p>
+     * A tile whose render was in progress when one of its chunks was invalidated may show the chunk as it was,
+     * so it is returned but not cached.
+     *
+     * @param renderer the renderer, such as the one used by a {@link MapTileScheduler}
+     * @return the caching renderer
+     */
+    public Function<MapTileKey, BufferedImage> loadingFrom(Function<MapTileKey, BufferedImage> renderer)
+    {
+        return key -> {
+            BufferedImage image = get(key);
+            if (image == null)
+            {
+                long started = generationOf(key);
+                image = renderer.apply(key);
+                if (image != null && generationOf(key) == started)
+                {
+                    put(key, image);
+                    if (generationOf(key) != started)
+                    {
+                        // Invalidated while it was being stored, possibly before it was visible to invalidate
+                        drop(key);
+                    }
+                }
+            }
+            return image;
+        };
+    }
+
+    /**
+     * Gets a cached tile from memory, or from disk if it has been evicted from memory.
+     *
+     * @param key the tile
+     * @return the image, or null if not cached
+     */
+    @Nullable
+    public BufferedImage get(MapTileKey key)
+    {
+        BufferedImage image = memory.getIfPresent(key);
+        if (image == null && diskRoot != null)
+        {
+            image = readDisk(key);
+            if (image != null)
+            {
+                putMemory(key, image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Caches a tile.  Callers must not modify the image afterward.
+     *
+     * @param key   the tile
+     * @param image the image
+     */
+    public void put(MapTileKey key, BufferedImage image)
+    {
+        putMemory(key, image);
+        if (diskRoot != null)
+        {
+            writeDisk(key, image);
+        }
+    }
+
+    /**
+     * Drops every tile which covers a chunk, such as after the chunk has been re-mapped.
+     *
+     * @param dimension the dimension
+     * @param chunk     the chunk
+     */
+    public void invalidate(ResourceKey<Level> dimension, ChunkPos chunk)
+    {
+        Region region = new Region(dimension.location().toString(), chunk.x >> REGION_SHIFT, chunk.z >> REGION_SHIFT);
+        generations.computeIfAbsent(region, r -> new AtomicLong()).incrementAndGet();
+
+        Set<MapTileKey> keys = memoryRegions.get(region);
+        if (keys != null)
+        {
+            for (MapTileKey key : keys)
+            {
+                if (key.contains(dimension, chunk.x, chunk.z))
+                {
+                    memory.invalidate(key);
+                }
+            }
+        }
+
+        Set<DiskTile> tiles = diskRegions.get(region);
+        if (tiles != null)
+        {
+            for (DiskTile tile : tiles)
+            {
+                if (tile.contains(region.dimensionId, chunk.x, chunk.z))
+                {
+                    removeDisk(tile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every tile from both tiers.
+     */
+    public void invalidateAll()
+    {
+        allGeneration.incrementAndGet();
+        memory.invalidateAll();
+        for (DiskTile tile : diskTiles.values())
+        {
+            removeDisk(tile);
+        }
+    }
+
+    /**
+     * Bytes of image data in memory.
+     *
+     * @return the size
+     */
+    public long getMemoryBytes()
+    {
+        long total = 0;
+        for (BufferedImage image : memory.asMap().values())
+        {
+            total += sizeOf(image);
+        }
+        return total;
+    }
+
+    /**
+     * Number of tiles in memory.
+     *
+     * @return the count
+     */
+    public long getMemoryCount()
+    {
+        return memory.size();
+    }
+
+    /**
+     * Number of tiles on disk.
+     *
+     * @return the count
+     */
+    public int getDiskCount()
+    {
+        return diskTiles.size();
+    }
+
+    /**
+     * Fraction of memory lookups which were hits.
+     *
+     * @return the hit rate, 1 if there haven't been any lookups
+     */
+    public double getMemoryHitRate()
+    {
+        return memory.stats().hitRate();
+    }
+
+    private void drop(MapTileKey key)
+    {
+        memory.invalidate(key);
+        if (diskRoot != null)
+        {
+            DiskTile tile = diskTiles.get(pathOf(key));
+            if (tile != null)
+            {
+                removeDisk(tile);
+            }
+        }
+    }
+
+    /**
+     * Sum of the generations of the regions a tile covers, which changes whenever any of them is invalidated.
+     */
+    private long generationOf(MapTileKey key)
+    {
+        long[] generation = {allGeneration.get()};
+        forEachRegion(key, region -> {
+            AtomicLong regionGeneration = generations.get(region);
+            if (regionGeneration != null)
+            {
+                generation[0] += regionGeneration.get();
+            }
+        });
+        return generation[0];
+    }
+
+    private void putMemory(MapTileKey key, BufferedImage image)
+    {
+        memory.put(key, image);
+        forEachRegion(key, region -> memoryRegions.computeIfAbsent(region, r -> ConcurrentHashMap.newKeySet()).add(key));
+    }
+
+    private void removedFromMemory(RemovalNotification<MapTileKey, BufferedImage> notification)
+    {
+        MapTileKey key = notification.getKey();
+        // Unless it was put again meanwhile, which indexed it again
+        if (key != null && notification.getCause() != RemovalCause.REPLACED && !memory.asMap().containsKey(key))
+        {
+            forEachRegion(key, region -> removeFromIndex(memoryRegions, region, key));
+        }
+    }
+
+    private void putDisk(DiskTile tile)
+    {
+        if (diskTiles.putIfAbsent(tile.path, tile) == null)
+        {
+            forEachRegion(tile.dimensionId, tile.minChunkX, tile.minChunkZ, tile.maxChunkX, tile.maxChunkZ,
+                    region -> diskRegions.computeIfAbsent(region, r -> ConcurrentHashMap.newKeySet()).add(tile));
+        }
+    }
+
+    private void removeDisk(DiskTile tile)
+    {
+        if (diskTiles.remove(tile.path, tile))
+        {
+            forEachRegion(tile.dimensionId, tile.minChunkX, tile.minChunkZ, tile.maxChunkX, tile.maxChunkZ,
+                    region -> removeFromIndex(diskRegions, region, tile));
+            deleteQuietly(tile.path);
+        }
+    }
+
+    private static <T> void removeFromIndex(ConcurrentHashMap<Region, Set<T>> index, Region region, T value)
+    {
+        index.computeIfPresent(region, (r, values) -> {
+            values.remove(value);
+            return values.isEmpty() ? null : values;
+        });
+    }
+
+    private static void forEachRegion(MapTileKey key, Consumer<Region> action)
+    {
+        ChunkPos start = key.getStartChunk();
+        ChunkPos end = key.getEndChunk();
+        forEachRegion(key.getDimension().location().toString(), Math.min(start.x, end.x), Math.min(start.z, end.z),
+                Math.max(start.x, end.x), Math.max(start.z, end.z), action);
+    }
+
+    private static void forEachRegion(String dimensionId, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ, Consumer<Region> action)
+    {
+        for (int x = minChunkX >> REGION_SHIFT; x <= maxChunkX >> REGION_SHIFT; x++)
+        {
+            for (int z = minChunkZ >> REGION_SHIFT; z <= maxChunkZ >> REGION_SHIFT; z++)
+            {
+                action.accept(new Region(dimensionId, x, z));
+            }
+        }
+    }
+
+    private static int sizeOf(BufferedImage image)
+    {
+        return image.getWidth() * image.getHeight() * 4;
+    }
+
+    @Nullable
+    private BufferedImage readDisk(MapTileKey key)
+    {
+        Path path = pathOf(key);
+        DiskTile tile = diskTiles.get(path);
+        if (tile == null)
+        {
+            return null;
+        }
+        try
+        {
+            return ImageIO.read(path.toFile());
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Can't read cached map tile " + path + ": " + e);
+            removeDisk(tile);
+            return null;
+        }
+    }
+
+    private void writeDisk(MapTileKey key, BufferedImage image)
+    {
+        Path path = pathOf(key);
+        Path temp = null;
+        try
+        {
+            // Write to a temp file first so a crash never leaves a partial tile behind
+            Files.createDirectories(path.getParent());
+            temp = Files.createTempFile(path.getParent(), "tile", ".tmp");
+            ImageIO.write(image, "png", temp.toFile());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            putDisk(new DiskTile(path, key.getDimension().location().toString(), key.getStartChunk(), key.getEndChunk()));
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Can't write cached map tile " + path + ": " + e);
+            if (temp != null)
+            {
+                deleteQuietly(temp);
+            }
+        }
+    }
+
+    /**
+     * Path of a tile: namespace/path/mapType/chunkY/zoom/startX,startZ,endX,endZ[_grid].png
+     */
+    private Path pathOf(MapTileKey key)
+    {
+        ResourceLocation dimension = key.getDimension().location();
+        ChunkPos start = key.getStartChunk();
+        ChunkPos end = key.getEndChunk();
+        return diskRoot.resolve(dimension.getNamespace())
+                .resolve(dimension.getPath())
+                .resolve(key.getMapType().name())
+                .resolve(key.getChunkY() == null ? SURFACE : key.getChunkY().toString())
+                .resolve(Integer.toString(key.getZoom()))
+                .resolve(start.x + "," + start.z + "," + end.x + "," + end.z
+                        + (key.isShowGrid() ? GRID_SUFFIX : "") + EXTENSION);
+    }
+
+    private void scanDisk()
+    {
+        if (!Files.isDirectory(diskRoot))
+        {
+            return;
+        }
+
+        try (Stream<Path> files = Files.walk(diskRoot))
+        {
+            files.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).forEach(path -> {
+                DiskTile tile = DiskTile.parse(diskRoot.relativize(path), path);
+                if (tile != null)
+                {
+                    putDisk(tile);
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Can't read map tile cache in " + diskRoot + ": " + e);
+        }
+    }
+
+    private static void deleteQuietly(Path path)
+    {
+        try
+        {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Can't delete cached map tile " + path + ": " + e);
+        }
+    }
+
+    /**
+     * A region of 32x32 chunks in a dimension.
+     */
+    private static class Region
+    {
+        final String dimensionId;
+        final int x;
+        final int z;
+
+        Region(String dimensionId, int x, int z)
+        {
+            this.dimensionId = dimensionId;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Region))
+            {
+                return false;
+            }
+            Region region = (Region) o;
+            return x == region.x && z == region.z && dimensionId.equals(region.dimensionId);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * (31 * dimensionId.hashCode() + x) + z;
+        }
+    }
+
+    /**
+     * What invalidation needs to know about a tile on disk.
+     */
+    private static class DiskTile
+    {
+        final Path path;
+        final String dimensionId;
+        final int minChunkX;
+        final int minChunkZ;
+        final int maxChunkX;
+        final int maxChunkZ;
+
+        DiskTile(Path path, String dimensionId, ChunkPos start, ChunkPos end)
+        {
+            this(path, dimensionId, start.x, start.z, end.x, end.z);
+        }
+
+        DiskTile(Path path, String dimensionId, int startX, int startZ, int endX, int endZ)
+        {
+            this.path = path;
+            this.dimensionId = dimensionId;
+            this.minChunkX = Math.min(startX, endX);
+            this.minChunkZ = Math.min(startZ, endZ);
+            this.maxChunkX = Math.max(startX, endX);
+            this.maxChunkZ = Math.max(startZ, endZ);
+        }
+
+        boolean contains(String dimensionId, int chunkX, int chunkZ)
+        {
+            return chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ
+                    && this.dimensionId.equals(dimensionId);
+        }
+
+        /**
+         * Reads a tile from its path relative to the cache root, or null if it isn't a tile.
+         */
+        @Nullable
+        static DiskTile parse(Path relative, Path path)
+        {
+            // The dimension path may itself contain directories, so parse from the end
+            int count = relative.getNameCount();
+            if (count < 6)
+            {
+                return null;
+            }
+
+            String name = relative.getFileName().toString();
+            name = name.substring(0, name.length() - EXTENSION.length());
+            if (name.endsWith(GRID_SUFFIX))
+            {
+                name = name.substring(0, name.length() - GRID_SUFFIX.length());
+            }
+
+            String[] chunks = name.split(",");
+            if (chunks.length != 4)
+            {
+                return null;
+            }
+
+            try
+            {
+                String dimensionId = relative.getName(0) + ":" + relative.subpath(1, count - 4).toString().replace(File.separatorChar, '/');
+                return new DiskTile(path, dimensionId, Integer.parseInt(chunks[0]), Integer.parseInt(chunks[1]),
+                        Integer.parseInt(chunks[2]), Integer.parseInt(chunks[3]));
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import journeymap.client.api.model.MapTileKey;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Renders map tiles on a fixed pool of worker threads, most urgent first.
+ * <p>
+ * Requests are ordered by priority (lower values first, see {@link #PRIORITY_VISIBLE}) and then by age.
+ * Requests for a {@link MapTileKey} which is already queued or rendering share the same render, even across mods;
+ * the shared render takes the most urgent priority of its requests.
+ * <p>
+ * Cancelling the future returned by {@link #submit(MapTileKey, int)} withdraws that request only.
+ * Once every request for a tile has been cancelled, the tile is taken off the queue without being rendered.
+ * A tile which is already rendering is allowed to finish.
+ */
+@ParametersAreNonnullByDefault
+public class MapTileScheduler
+{
+    /**
+     * Priority for tiles currently on screen.
+     */
+    public static final int PRIORITY_VISIBLE = 0;
+
+    /**
+     * Priority for tiles next to the screen, likely to be needed soon.
+     */
+    public static final int PRIORITY_NEARBY = 10;
+
+    /**
+     * Priority for everything else.
+     */
+    public static final int PRIORITY_BACKGROUND = 100;
+
+    private final Function<MapTileKey, BufferedImage> renderer;
+    private final ThreadPoolExecutor executor;
+    private final PriorityBlockingQueue<Runnable> queue;
+    private final HashMap<MapTileKey, Task> tasks = new HashMap<MapTileKey, Task>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param threads  number of worker threads
+     * @param renderer renders the image for a tile, may return null if no image is available
+     */
+    public MapTileScheduler(int threads, Function<MapTileKey, BufferedImage> renderer)
+    {
+        this.renderer = renderer;
+        this.queue = new PriorityBlockingQueue<Runnable>();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, queue,
+                new ThreadFactoryBuilder().setNameFormat("JourneyMap-API-Tile-%d").setDaemon(true).build());
+        this.executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Requests a tile.
+     *
+     * @param key      the tile
+     * @param priority lower values are rendered first
+     * @return a future for the image, completed with null if no image is available, or failed with a
+     * RejectedExecutionException if the scheduler has been shut down
+     */
+    public CompletableFuture<BufferedImage> submit(MapTileKey key, int priority)
+    {
+        CompletableFuture<BufferedImage> future = new CompletableFuture<BufferedImage>();
+        Task task;
+        synchronized (tasks)
+        {
+            task = tasks.get(key);
+            if (task == null)
+            {
+                if (executor.isShutdown())
+                {
+                    future.completeExceptionally(new RejectedExecutionException("Tile scheduler has been shut down"));
+                    return future;
+                }
+                task = new Task(key, priority);
+                tasks.put(key, task);
+                executor.execute(task);
+            }
+            else if (priority < task.priority && !task.started)
+            {
+                // Re-queue so the shared render moves up to the new priority
+                if (queue.remove(task))
+                {
+                    task.priority = priority;
+                    queue.offer(task);
+                }
+            }
+            task.subscribers.add(future);
+        }
+
+        final Task subscribed = task;
+        future.whenComplete((image, throwable) -> {
+            if (future.isCancelled())
+            {
+                unsubscribe(subscribed, future);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Number of tiles waiting to be rendered, not including those already rendering.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Cancels every queued request and stops the worker threads.
+     * Tiles already rendering are allowed to finish.
+     */
+    public void shutdown()
+    {
+        List<Task> cancelled = new ArrayList<Task>();
+        synchronized (tasks)
+        {
+            for (Task task : tasks.values())
+            {
+                if (!task.started)
+                {
+                    task.started = true;
+                    cancelled.add(task);
+                }
+            }
+            tasks.values().removeAll(cancelled);
+            queue.removeAll(cancelled);
+            // Not shutdownNow, which would interrupt the renders in progress.  Under the lock, so submit either
+            // sees the executor shut down or has its task cancelled above
+            executor.shutdown();
+        }
+
+        for (Task task : cancelled)
+        {
+            for (CompletableFuture<BufferedImage> future : new ArrayList<CompletableFuture<BufferedImage>>(task.subscribers))
+            {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private void unsubscribe(Task task, CompletableFuture<BufferedImage> future)
+    {
+        synchronized (tasks)
+        {
+            task.subscribers.remove(future);
+            if (task.subscribers.isEmpty() && !task.started)
+            {
+                task.started = true;
+                queue.remove(task);
+                tasks.remove(task.key, task);
+            }
+        }
+    }
+
+    /**
+     * A queued render shared by every request for the same tile.  Guarded by the tasks lock.
+     */
+    private class Task implements Runnable, Comparable<Task>
+    {
+        final MapTileKey key;
+        final long order = sequence.getAndIncrement();
+        final List<CompletableFuture<BufferedImage>> subscribers = new ArrayList<CompletableFuture<BufferedImage>>(1);
+        int priority;
+        boolean started;
+
+        Task(MapTileKey key, int priority)
+        {
+            this.key = key;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run()
+        {
+            synchronized (tasks)
+            {
+                if (started)
+                {
+                    // Cancelled while it was queued
+                    return;
+                }
+                started = true;
+            }
+
+            BufferedImage image = null;
+            Throwable error = null;
+            try
+            {
+                image = renderer.apply(key);
+            }
+            catch (Throwable t)
+            {
+                error = t;
+            }
+
+            List<CompletableFuture<BufferedImage>> waiting;
+            synchronized (tasks)
+            {
+                tasks.remove(key, this);
+                waiting = new ArrayList<CompletableFuture<BufferedImage>>(subscribers);
+                subscribers.clear();
+            }
+
+            for (CompletableFuture<BufferedImage> future : waiting)
+            {
+                if (error == null)
+                {
+                    future.complete(image);
+                }
+                else
+                {
+                    future.completeExceptionally(error);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Task other)
+        {
+            int result = Integer.compare(priority, other.priority);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
+    }
+}
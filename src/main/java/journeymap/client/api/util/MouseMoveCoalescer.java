@@ -0,0 +1,230 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import journeymap.client.api.event.IMouseMoveListener;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
+
+/**
+ * Combines the mouse moves made during a frame into one, and delivers it to {@link IMouseMoveListener}s.
+ * <p>
+ * Call {@link #move} for every mouse move, which only records the position, then {@link #flush()} once per frame.
+ * Neither allocates.  The pending position can also be read with the getters before flushing, so that a
+ * {@link journeymap.client.api.event.FullscreenMapEvent.MouseMoveEvent} is only created once per frame for plugins
+ * subscribed to it.
+ * <p>
+ * Not thread-safe; use it on the client thread.
+ */
+@ParametersAreNonnullByDefault
+public class MouseMoveCoalescer
+{
+    private static final Logger LOGGER = LogManager.getLogger("journeymap");
+    private static final IMouseMoveListener[] NONE = new IMouseMoveListener[0];
+
+    private IMouseMoveListener[] listeners = NONE;
+    private boolean pending;
+    private ResourceKey<Level> level;
+    private double mouseX;
+    private double mouseY;
+    private int blockX;
+    private int blockY;
+    private int blockZ;
+
+    /**
+     * Adds a listener.  Adding the same listener again has no effect.
+     *
+     * @param listener the listener
+     */
+    public void addListener(IMouseMoveListener listener)
+    {
+        for (IMouseMoveListener existing : listeners)
+        {
+            if (existing == listener)
+            {
+                return;
+            }
+        }
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(IMouseMoveListener listener)
+    {
+        for (int i = 0; i < listeners.length; i++)
+        {
+            if (listeners[i] == listener)
+            {
+                IMouseMoveListener[] remaining = new IMouseMoveListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, remaining, 0, i);
+                System.arraycopy(listeners, i + 1, remaining, i, remaining.length - i);
+                listeners = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Number of listeners.
+     *
+     * @return the count
+     */
+    public int getListenerCount()
+    {
+        return listeners.length;
+    }
+
+    /**
+     * Records a mouse move, replacing any earlier move in the same frame.  Moves to the same position are ignored.
+     *
+     * @param level  the dimension shown in the map
+     * @param mouseX scaled screen x of the mouse
+     * @param mouseY scaled screen y of the mouse
+     * @param blockX x of the block under the mouse
+     * @param blockY y of the block under the mouse
+     * @param blockZ z of the block under the mouse
+     */
+    public void move(ResourceKey<Level> level, double mouseX, double mouseY, int blockX, int blockY, int blockZ)
+    {
+        if (level == this.level && mouseX == this.mouseX && mouseY == this.mouseY
+                && blockX == this.blockX && blockY == this.blockY && blockZ == this.blockZ)
+        {
+            return;
+        }
+        this.pending = true;
+        this.level = level;
+        this.mouseX = mouseX;
+        this.mouseY = mouseY;
+        this.blockX = blockX;
+        this.blockY = blockY;
+        this.blockZ = blockZ;
+    }
+
+    /**
+     * Whether the mouse has moved since the last flush.
+     *
+     * @return true if a move is pending
+     */
+    public boolean hasPendingMove()
+    {
+        return pending;
+    }
+
+    /**
+     * Delivers the pending move, if any, to every listener.  Exceptions thrown by listeners are logged.
+     *
+     * @return true if there was a move to deliver
+     */
+    public boolean flush()
+    {
+        if (!pending)
+        {
+            return false;
+        }
+        pending = false;
+
+        IMouseMoveListener[] current = listeners;
+        for (IMouseMoveListener listener : current)
+        {
+            try
+            {
+                listener.onMouseMove(level, mouseX, mouseY, blockX, blockY, blockZ);
+            }
+            catch (Throwable t)
+            {
+                LOGGER.error("Mouse move listener failed: " + t, t);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Dimension of the last move.
+     *
+     * @return the dimension, or null if the mouse hasn't moved yet
+     */
+    @Nullable
+    public ResourceKey<Level> getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * Scaled screen x of the last move.
+     *
+     * @return mouse x
+     */
+    public double getMouseX()
+    {
+        return mouseX;
+    }
+
+    /**
+     * Scaled screen y of the last move.
+     *
+     * @return mouse y
+     */
+    public double getMouseY()
+    {
+        return mouseY;
+    }
+
+    /**
+     * Block x of the last move.
+     *
+     * @return block x
+     */
+    public int getBlockX()
+    {
+        return blockX;
+    }
+
+    /**
+     * Block y of the last move.
+     *
+     * @return block y
+     */
+    public int getBlockY()
+    {
+        return blockY;
+    }
+
+    /**
+     * Block z of the last move.
+     *
+     * @return block z
+     */
+    public int getBlockZ()
+    {
+        return blockZ;
+    }
+}
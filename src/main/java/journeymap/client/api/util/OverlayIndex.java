@@ -0,0 +1,370 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import journeymap.client.api.display.Overlay;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Spatial index of Overlays, keyed by dimension and by the {@link Overlay#getBounds()} of each overlay.
+ * Used to find the overlays within the visible area of a UI without checking every overlay that has been shown,
+ * so the cost of a query depends on what is on screen rather than how many overlays exist.
+ * <p>
+ * Each dimension has its own loose quadtree.  Overlays are placed in the smallest node which can hold them,
+ * based on their center and size, so large polygons don't pile up at the root of the tree.
+ * <p>
+ * Overlays are keyed the same way as {@link journeymap.client.api.IClientAPI#show}, so putting an overlay with the
+ * same modId, DisplayType and displayId replaces the previous one. If an overlay's bounds or dimension change,
+ * call {@link #put(Overlay)} again to update the index.
+ * <p>
+ * Not thread-safe.
+ */
+@ParametersAreNonnullByDefault
+public class OverlayIndex
+{
+    /**
+     * Half the width of the root node, large enough to hold the entire world inside the world border.
+     */
+    private static final double ROOT_HALF_SIZE = 1 << 25;
+
+    /**
+     * How many overlays a node holds before it is split.
+     */
+    private static final int NODE_CAPACITY = 16;
+
+    /**
+     * Nodes smaller than this are never split.
+     */
+    private static final double MIN_HALF_SIZE = 8;
+
+    private final HashMap<ResourceKey<Level>, Node> roots = new HashMap<ResourceKey<Level>, Node>();
+    private final HashMap<Overlay, Entry> entries = new HashMap<Overlay, Entry>();
+
+    /**
+     * Adds an overlay to the index, or updates its position in the index if it was already added.
+     *
+     * @param overlay the overlay
+     */
+    public void put(Overlay overlay)
+    {
+        remove(overlay);
+
+        Entry entry = new Entry(overlay, overlay.getDimension(), overlay.getBounds());
+        Node root = roots.get(entry.dimension);
+        if (root == null)
+        {
+            root = new Node(0, 0, ROOT_HALF_SIZE);
+            roots.put(entry.dimension, root);
+        }
+        root.insert(entry);
+        entries.put(overlay, entry);
+    }
+
+    /**
+     * Removes an overlay from the index.
+     *
+     * @param overlay the overlay
+     * @return true if it was in the index
+     */
+    public boolean remove(Overlay overlay)
+    {
+        Entry entry = entries.remove(overlay);
+        if (entry == null)
+        {
+            return false;
+        }
+        entry.node.remove(entry);
+        return true;
+    }
+
+    /**
+     * Whether the overlay is in the index.
+     *
+     * @param overlay the overlay
+     * @return true if indexed
+     */
+    public boolean contains(Overlay overlay)
+    {
+        return entries.containsKey(overlay);
+    }
+
+    /**
+     * Removes all overlays.
+     */
+    public void clear()
+    {
+        roots.clear();
+        entries.clear();
+    }
+
+    /**
+     * Number of overlays in the index.
+     *
+     * @return the size
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Finds the overlays which are active in a UI and intersect its block bounds.
+     *
+     * @param uiState the UI state
+     * @return the overlays, empty if the UI isn't active
+     * @see Overlay#isActiveIn(UIState)
+     */
+    public List<Overlay> query(UIState uiState)
+    {
+        if (!uiState.active || uiState.blockBounds == null)
+        {
+            return Collections.emptyList();
+        }
+
+        ArrayList<Overlay> result = new ArrayList<Overlay>();
+        AABB bounds = uiState.blockBounds;
+        query(uiState.dimension, bounds.minX, bounds.minZ, bounds.maxX, bounds.maxZ, uiState.zoom, overlay -> {
+            if (overlay.isActiveIn(uiState))
+            {
+                result.add(overlay);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Finds the overlays in a dimension which intersect the bounds and are visible at the zoom level.
+     *
+     * @param dimension the dimension
+     * @param bounds    the area of blocks, only the X and Z axes are used
+     * @param zoom      the zoom level
+     * @return the overlays
+     */
+    public List<Overlay> query(@Nullable ResourceKey<Level> dimension, AABB bounds, int zoom)
+    {
+        ArrayList<Overlay> result = new ArrayList<Overlay>();
+        query(dimension, bounds.minX, bounds.minZ, bounds.maxX, bounds.maxZ, zoom, result::add);
+        return result;
+    }
+
+    /**
+     * Visits the overlays in a dimension which intersect the area and are visible at the zoom level,
+     * without creating a list of the results.
+     *
+     * @param dimension the dimension
+     * @param minX      min block x
+     * @param minZ      min block z
+     * @param maxX      max block x
+     * @param maxZ      max block z
+     * @param zoom      the zoom level
+     * @param visitor   called with each matching overlay
+     */
+    public void query(@Nullable ResourceKey<Level> dimension, double minX, double minZ, double maxX, double maxZ,
+                      int zoom, Consumer<Overlay> visitor)
+    {
+        Node root = roots.get(dimension);
+        if (root != null)
+        {
+            root.query(minX, minZ, maxX, maxZ, zoom, visitor);
+        }
+    }
+
+    /**
+     * An overlay and the bounds it was indexed with.
+     */
+    private static class Entry
+    {
+        final Overlay overlay;
+        final ResourceKey<Level> dimension;
+        final double minX;
+        final double minZ;
+        final double maxX;
+        final double maxZ;
+        Node node;
+        int index;
+
+        Entry(Overlay overlay, @Nullable ResourceKey<Level> dimension, AABB bounds)
+        {
+            this.overlay = overlay;
+            this.dimension = dimension;
+            this.minX = bounds.minX;
+            this.minZ = bounds.minZ;
+            this.maxX = bounds.maxX;
+            this.maxZ = bounds.maxZ;
+        }
+
+        double centerX()
+        {
+            return (minX + maxX) / 2;
+        }
+
+        double centerZ()
+        {
+            return (minZ + maxZ) / 2;
+        }
+
+        double halfSize()
+        {
+            return Math.max(maxX - minX, maxZ - minZ) / 2;
+        }
+
+        boolean intersects(double minX, double minZ, double maxX, double maxZ)
+        {
+            return this.minX <= maxX && this.maxX >= minX && this.minZ <= maxZ && this.maxZ >= minZ;
+        }
+    }
+
+    /**
+     * A square node of the loose quadtree.  Its loose bounds extend halfSize past its cell on each side,
+     * so any entry whose center is in the cell and which is no bigger than the cell fits within them.
+     */
+    private static class Node
+    {
+        final double centerX;
+        final double centerZ;
+        final double halfSize;
+        final ArrayList<Entry> items = new ArrayList<Entry>();
+        Node[] children;
+
+        Node(double centerX, double centerZ, double halfSize)
+        {
+            this.centerX = centerX;
+            this.centerZ = centerZ;
+            this.halfSize = halfSize;
+        }
+
+        void insert(Entry entry)
+        {
+            Node node = this;
+            while (node.children != null)
+            {
+                Node child = node.childFor(entry);
+                if (child == null)
+                {
+                    break;
+                }
+                node = child;
+            }
+            node.add(entry);
+
+            if (node.children == null && node.items.size() > NODE_CAPACITY && node.halfSize > MIN_HALF_SIZE)
+            {
+                node.split();
+            }
+        }
+
+        /**
+         * Gets the child which can hold the entry, or null if it must stay in this node.
+         */
+        @Nullable
+        Node childFor(Entry entry)
+        {
+            if (entry.halfSize() > halfSize / 2)
+            {
+                return null;
+            }
+            double x = entry.centerX();
+            double z = entry.centerZ();
+            if (Math.abs(x - centerX) > halfSize || Math.abs(z - centerZ) > halfSize)
+            {
+                // Outside the world border, keep it at the root
+                return null;
+            }
+            return children[(x < centerX ? 0 : 1) + (z < centerZ ? 0 : 2)];
+        }
+
+        void split()
+        {
+            double quarter = halfSize / 2;
+            children = new Node[]{
+                    new Node(centerX - quarter, centerZ - quarter, quarter),
+                    new Node(centerX + quarter, centerZ - quarter, quarter),
+                    new Node(centerX - quarter, centerZ + quarter, quarter),
+                    new Node(centerX + quarter, centerZ + quarter, quarter)
+            };
+
+            ArrayList<Entry> existing = new ArrayList<Entry>(items);
+            items.clear();
+            for (Entry entry : existing)
+            {
+                Node child = childFor(entry);
+                (child == null ? this : child).add(entry);
+            }
+        }
+
+        void add(Entry entry)
+        {
+            entry.node = this;
+            entry.index = items.size();
+            items.add(entry);
+        }
+
+        void remove(Entry entry)
+        {
+            // Swap with the last item so removal doesn't shift the list
+            int last = items.size() - 1;
+            Entry moved = items.remove(last);
+            if (moved != entry)
+            {
+                items.set(entry.index, moved);
+                moved.index = entry.index;
+            }
+            entry.node = null;
+        }
+
+        void query(double minX, double minZ, double maxX, double maxZ, int zoom, Consumer<Overlay> visitor)
+        {
+            double loose = halfSize * 2;
+            if (centerX - loose > maxX || centerX + loose < minX || centerZ - loose > maxZ || centerZ + loose < minZ)
+            {
+                return;
+            }
+
+            for (int i = 0; i < items.size(); i++)
+            {
+                Entry entry = items.get(i);
+                if (entry.intersects(minX, minZ, maxX, maxZ)
+                        && entry.overlay.getMinZoom() <= zoom && entry.overlay.getMaxZoom() >= zoom)
+                {
+                    visitor.accept(entry.overlay);
+                }
+            }
+
+            if (children != null)
+            {
+                for (Node child : children)
+                {
+                    child.query(minX, minZ, maxX, maxZ, zoom, visitor);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import journeymap.client.api.IClientPlugin;
+import journeymap.client.api.event.ClientEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers ClientEvents to plugins so that a slow plugin can't stall the map for everyone.
+ * <p>
+ * Each plugin has its own queue.
+ * <ul>
+ * <li>Cancellable events are delivered straight away on the calling thread, since the caller needs to know
+ * whether they were cancelled.  Each plugin has a time budget for them; going over it is counted and logged.
+ * A plugin which doesn't accept async events is first given the events already queued for it, so it gets all of
+ * its events in order.  A plugin which does isn't, so a cancellable event may overtake events still queued for it,
+ * and be handled while the async executor is delivering one of them.</li>
+ * <li>Other events are queued.  For plugins which {@link IClientPlugin#acceptsAsyncEvents() accept async events},
+ * the queue is drained on the async executor.  For the rest, JourneyMap drains the queues on the main thread with
+ * {@link #drainMainThreadEvents(long)} once per frame, for as long as the frame's budget allows.</li>
+ * </ul>
+ * A queued MAP_MOUSE_MOVED event is replaced by a newer one rather than queued behind it.  When a queue is full,
+ * its oldest event is dropped.
+ * <p>
+ * Thread-safe.
+ */
+@ParametersAreNonnullByDefault
+public class PluginEventDispatcher
+{
+    private static final Logger LOGGER = LogManager.getLogger("journeymap");
+
+    /**
+     * Most events queued for one plugin.
+     */
+    public static final int MAX_QUEUED_EVENTS = 256;
+
+    /**
+     * Budget overruns are logged the first time and then every this many times.
+     */
+    private static final int OVERRUN_LOG_INTERVAL = 100;
+
+    private final Executor asyncExecutor;
+    private final ExecutorService ownedExecutor;
+    private final long syncBudgetNanos;
+    private final CopyOnWriteArrayList<PluginQueue> queues = new CopyOnWriteArrayList<PluginQueue>();
+    private final ConcurrentHashMap<String, PluginQueue> queuesByModId = new ConcurrentHashMap<String, PluginQueue>();
+
+    /**
+     * Constructor which runs async events on a pool of daemon threads.
+     *
+     * @param syncBudgetMillis time each plugin may take handling a cancellable event
+     */
+    public PluginEventDispatcher(long syncBudgetMillis)
+    {
+        this(Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("JourneyMap-API-Events-%d").setDaemon(true).build()),
+                syncBudgetMillis, true);
+    }
+
+    /**
+     * Constructor.  On Java 21 or later, a virtual thread per task executor is a good fit for the async executor,
+     * since plugins spend most of their time waiting.
+     *
+     * @param asyncExecutor    runs the queues of plugins which accept async events
+     * @param syncBudgetMillis time each plugin may take handling a cancellable event
+     */
+    public PluginEventDispatcher(Executor asyncExecutor, long syncBudgetMillis)
+    {
+        this(asyncExecutor, syncBudgetMillis, false);
+    }
+
+    private PluginEventDispatcher(Executor asyncExecutor, long syncBudgetMillis, boolean owned)
+    {
+        this.asyncExecutor = asyncExecutor;
+        this.ownedExecutor = owned ? (ExecutorService) asyncExecutor : null;
+        this.syncBudgetNanos = TimeUnit.MILLISECONDS.toNanos(syncBudgetMillis);
+    }
+
+    /**
+     * Adds a plugin, replacing any other plugin with the same modId.  It has no subscriptions yet.
+     *
+     * @param plugin the plugin
+     */
+    public void register(IClientPlugin plugin)
+    {
+        PluginQueue queue = new PluginQueue(plugin);
+        PluginQueue previous = queuesByModId.put(plugin.getModId(), queue);
+        if (previous != null)
+        {
+            queues.remove(previous);
+        }
+        queues.add(queue);
+    }
+
+    /**
+     * Removes a plugin.  Events already queued for it are dropped.
+     *
+     * @param modId the mod id
+     */
+    public void unregister(String modId)
+    {
+        PluginQueue queue = queuesByModId.remove(modId);
+        if (queue != null)
+        {
+            queues.remove(queue);
+            queue.clear();
+        }
+    }
+
+    /**
+     * Sets the event types a plugin is sent, as with {@link journeymap.client.api.IClientAPI#subscribe}.
+     *
+     * @param modId      the mod id
+     * @param eventTypes the event types
+     */
+    public void subscribe(String modId, EnumSet<ClientEvent.Type> eventTypes)
+    {
+        PluginQueue queue = queuesByModId.get(modId);
+        if (queue == null)
+        {
+            LOGGER.warn("Can't subscribe unregistered plugin " + modId + " to events");
+            return;
+        }
+        queue.subscriptions = eventTypes.isEmpty() ? EnumSet.noneOf(ClientEvent.Type.class) : EnumSet.copyOf(eventTypes);
+    }
+
+    /**
+     * Whether any plugin is subscribed to an event type, so events nobody wants don't need to be created.
+     *
+     * @param type the event type
+     * @return true if subscribed
+     */
+    public boolean isSubscribed(ClientEvent.Type type)
+    {
+        for (PluginQueue queue : queues)
+        {
+            if (queue.subscriptions.contains(type))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends an event to every plugin subscribed to its type.  Cancellable events are delivered before this returns,
+     * after the events queued for plugins which don't accept async events; others are queued.
+     *
+     * @param event the event
+     * @return false if the event was cancelled
+     */
+    public boolean dispatch(ClientEvent event)
+    {
+        for (PluginQueue queue : queues)
+        {
+            if (!queue.subscriptions.contains(event.type))
+            {
+                continue;
+            }
+            if (event.type.cancellable)
+            {
+                if (!queue.async)
+                {
+                    queue.drain();
+                }
+                queue.deliverWithinBudget(event);
+            }
+            else
+            {
+                queue.offer(event);
+            }
+        }
+        return !event.isCancelled();
+    }
+
+    /**
+     * Delivers queued events to plugins which don't accept async events, taking one event from each queue in turn
+     * so every plugin gets a share of the time.  Called by JourneyMap on the main thread once per frame.
+     *
+     * @param budgetMillis time to spend; at least one event is delivered if any are queued
+     * @return the number of events delivered
+     */
+    public int drainMainThreadEvents(long budgetMillis)
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        int delivered = 0;
+        boolean more = true;
+        while (more)
+        {
+            more = false;
+            for (PluginQueue queue : queues)
+            {
+                if (queue.async)
+                {
+                    continue;
+                }
+                ClientEvent event = queue.poll();
+                if (event != null)
+                {
+                    queue.deliver(event);
+                    delivered++;
+                    more = true;
+                    if (System.nanoTime() - deadline >= 0)
+                    {
+                        return delivered;
+                    }
+                }
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Number of events queued for a plugin.
+     *
+     * @param modId the mod id
+     * @return the count, 0 if the plugin isn't registered
+     */
+    public int getQueueDepth(String modId)
+    {
+        PluginQueue queue = queuesByModId.get(modId);
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Number of times a plugin went over its budget handling a cancellable event.
+     *
+     * @param modId the mod id
+     * @return the count, 0 if the plugin isn't registered
+     */
+    public long getOverrunCount(String modId)
+    {
+        PluginQueue queue = queuesByModId.get(modId);
+        return queue == null ? 0 : queue.overruns.get();
+    }
+
+    /**
+     * Number of events dropped because a plugin's queue was full.
+     *
+     * @param modId the mod id
+     * @return the count, 0 if the plugin isn't registered
+     */
+    public long getDroppedCount(String modId)
+    {
+        PluginQueue queue = queuesByModId.get(modId);
+        return queue == null ? 0 : queue.dropped.get();
+    }
+
+    /**
+     * Stops the async threads if this dispatcher created them.  Queued events are dropped.
+     */
+    public void shutdown()
+    {
+        for (PluginQueue queue : queues)
+        {
+            queue.clear();
+        }
+        if (ownedExecutor != null)
+        {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * The events waiting for one plugin.
+     */
+    private class PluginQueue
+    {
+        final IClientPlugin plugin;
+        final boolean async;
+        final ArrayDeque<ClientEvent> events = new ArrayDeque<ClientEvent>();
+        final AtomicLong overruns = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        volatile EnumSet<ClientEvent.Type> subscriptions = EnumSet.noneOf(ClientEvent.Type.class);
+        boolean scheduled;
+
+        PluginQueue(IClientPlugin plugin)
+        {
+            this.plugin = plugin;
+            this.async = plugin.acceptsAsyncEvents();
+        }
+
+        void offer(ClientEvent event)
+        {
+            boolean schedule = false;
+            synchronized (events)
+            {
+                ClientEvent last = events.peekLast();
+                if (event.type == ClientEvent.Type.MAP_MOUSE_MOVED && last != null && last.type == event.type)
+                {
+                    // Only the latest mouse position matters
+                    events.pollLast();
+                }
+                else if (events.size() >= MAX_QUEUED_EVENTS)
+                {
+                    events.pollFirst();
+                    if (dropped.getAndIncrement() % OVERRUN_LOG_INTERVAL == 0)
+                    {
+                        LOGGER.warn(String.format("Plugin %s isn't keeping up with events, %s dropped so far",
+                                plugin.getModId(), dropped.get()));
+                    }
+                }
+                events.addLast(event);
+
+                if (async && !scheduled)
+                {
+                    scheduled = true;
+                    schedule = true;
+                }
+            }
+            if (schedule)
+            {
+                asyncExecutor.execute(this::drainAsync);
+            }
+        }
+
+        @Nullable
+        ClientEvent poll()
+        {
+            synchronized (events)
+            {
+                return events.pollFirst();
+            }
+        }
+
+        int size()
+        {
+            synchronized (events)
+            {
+                return events.size();
+            }
+        }
+
+        void clear()
+        {
+            synchronized (events)
+            {
+                events.clear();
+            }
+        }
+
+        /**
+         * Delivers the queued events on the calling thread.
+         */
+        void drain()
+        {
+            ClientEvent event;
+            while ((event = poll()) != null)
+            {
+                deliver(event);
+            }
+        }
+
+        void drainAsync()
+        {
+            while (true)
+            {
+                ClientEvent event;
+                synchronized (events)
+                {
+                    event = events.pollFirst();
+                    if (event == null)
+                    {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                deliver(event);
+            }
+        }
+
+        void deliverWithinBudget(ClientEvent event)
+        {
+            long start = System.nanoTime();
+            deliver(event);
+            long elapsed = System.nanoTime() - start;
+            if (elapsed > syncBudgetNanos && overruns.getAndIncrement() % OVERRUN_LOG_INTERVAL == 0)
+            {
+                LOGGER.warn(String.format("Plugin %s took %.1fms handling %s, over its budget of %.1fms (%s times so far)",
+                        plugin.getModId(), elapsed / 1e6, event.type, syncBudgetNanos / 1e6, overruns.get()));
+            }
+        }
+
+        void deliver(ClientEvent event)
+        {
+            long start = System.nanoTime();
+            long allocated = PluginMetrics.INSTANCE.allocatedBytes();
+            try
+            {
+                plugin.onEvent(event);
+            }
+            catch (Throwable t)
+            {
+                LOGGER.error(String.format("Plugin %s failed handling %s", plugin.getModId(), event.type), t);
+            }
+            finally
+            {
+                PluginMetrics.INSTANCE.record(plugin.getModId(), PluginMetrics.eventOperation(event.type), start, allocated);
+            }
+        }
+    }
+}
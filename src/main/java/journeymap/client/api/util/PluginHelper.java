@@ -21,19 +21,37 @@
 package journeymap.client.api.util;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import journeymap.client.api.ClientPlugin;
 import journeymap.client.api.IClientAPI;
 import journeymap.client.api.IClientPlugin;
+import journeymap.client.api.event.ClientEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.Type;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Enum singleton used by JourneyMap to load and initialize plugins.  A plugin class must be annotated with
@@ -48,12 +66,42 @@ public enum PluginHelper
     public final static Type PLUGIN_ANNOTATION_NAME = Type.getType(ClientPlugin.class);
     public final static String PLUGIN_INTERFACE_NAME = IClientPlugin.class.getSimpleName();
 
+    /**
+     * Default time a plugin may take to load or initialize before the watchdog gives up on it.
+     */
+    public final static long DEFAULT_TIMEOUT_MILLIS = 30000;
+
     protected Map<String, IClientPlugin> plugins = null;
     protected boolean initialized;
+    protected int parallelism = Runtime.getRuntime().availableProcessors();
+    protected long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    /**
+     * Sets how many plugins may be loaded or initialized at once.  Use 1 to do everything on the calling thread.
+     * Defaults to the number of processors.
+     *
+     * @param parallelism number of threads
+     */
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Sets how long a plugin may take to load or initialize.  A plugin loading or initializing in parallel which
+     * takes longer is removed, its thread interrupted, and any further calls it makes to the IClientAPI rejected; a plugin initializing on the calling thread can't be
+     * abandoned, so a warning with its stack trace is logged instead.
+     *
+     * @param timeoutMillis milliseconds
+     */
+    public void setTimeoutMillis(long timeoutMillis)
+    {
+        this.timeoutMillis = timeoutMillis;
+    }
 
     /**
      * Called by JourneyMap during it's preInitialization phase to find plugin classes
-     * included in other mods and then instantiate them.
+     * included in other mods and then instantiate them.  Classes are loaded and instantiated in parallel.
      * <p>
      * Mods which are testing integration can also call this in a dev environment
      * and pass in a stub implementation, but must never do so in production code.
@@ -61,20 +109,78 @@ public enum PluginHelper
      * @return map of instantiated plugins, keyed by modId
      */
     public Map<String, IClientPlugin> preInitPlugins(List<String> pluginList)
+    {
+        return preInitPlugins(pluginList, PluginHelper.class.getClassLoader(), Collections.<LazyClientPlugin>emptyList());
+    }
+
+    /**
+     * Alternative to {@link #preInitPlugins(List)} which finds plugin classes from the {@link PluginIndex} resources
+     * written at compile time, rather than by scanning for annotations.
+     * <p>
+     * Plugins whose index entries name their modId and events are not loaded yet: a {@link LazyClientPlugin}
+     * stands in for each until its first event.  The rest are instantiated as usual.
+     *
+     * @param classLoader loader which can see the mods' jars
+     * @return map of instantiated or deferred plugins, keyed by modId
+     */
+    public Map<String, IClientPlugin> preInitPluginsFromIndex(ClassLoader classLoader)
+    {
+        List<String> classNames = new ArrayList<String>();
+        List<LazyClientPlugin> deferred = new ArrayList<LazyClientPlugin>();
+        for (PluginIndex.Entry entry : PluginIndex.read(classLoader))
+        {
+            if (entry.isDeferrable())
+            {
+                deferred.add(new LazyClientPlugin(entry, classLoader));
+            }
+            else
+            {
+                classNames.add(entry.getClassName());
+            }
+        }
+        return preInitPlugins(classNames, classLoader, deferred);
+    }
+
+    private Map<String, IClientPlugin> preInitPlugins(List<String> pluginList, ClassLoader classLoader, List<LazyClientPlugin> deferred)
     {
         if (plugins == null)
         {
             HashMap<String, IClientPlugin> discovered = new HashMap<String, IClientPlugin>();
+            for (LazyClientPlugin plugin : deferred)
+            {
+                IClientPlugin other = discovered.putIfAbsent(plugin.getModId(), plugin);
+                if (other != null)
+                {
+                    LOGGER.error(String.format("Multiple plugins trying to use the same modId: %s and %s",
+                            plugin.getClassName(), ((LazyClientPlugin) other).getClassName()));
+                    continue;
+                }
+                LOGGER.info(String.format("Found @%s: %s, deferred until its first event",
+                        PLUGIN_ANNOTATION_NAME, plugin.getClassName()));
+            }
 
-            for (String className : pluginList)
+            ExecutorService executor = parallelism > 1 && pluginList.size() > 1
+                    ? newExecutor(Math.min(parallelism, pluginList.size())) : MoreExecutors.newDirectExecutorService();
+            try
             {
-                try
+                List<Future<IClientPlugin>> instances = new ArrayList<Future<IClientPlugin>>(pluginList.size());
+                for (String className : pluginList)
+                {
+                    instances.add(executor.submit(() -> instantiate(className, classLoader)));
+                }
+
+                // Checked in list order so duplicate modIds are reported the same way every time
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                for (int i = 0; i < pluginList.size(); i++)
                 {
-                    Class<?> pluginClass = Class.forName(className);
-                    if (IClientPlugin.class.isAssignableFrom(pluginClass))
+                    String className = pluginList.get(i);
+                    try
                     {
-                        Class<? extends IClientPlugin> interfaceImplClass = pluginClass.asSubclass(IClientPlugin.class);
-                        IClientPlugin instance = interfaceImplClass.getDeclaredConstructor().newInstance();
+                        IClientPlugin instance = instances.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                        if (instance == null)
+                        {
+                            continue;
+                        }
                         String modId = instance.getModId();
                         if (Strings.isNullOrEmpty(modId))
                         {
@@ -82,24 +188,31 @@ public enum PluginHelper
                         }
                         if (discovered.containsKey(modId))
                         {
-                            Class otherPluginClass = discovered.get(modId).getClass();
-                            throw new Exception(String.format("Multiple plugins trying to use the same modId: %s and %s", interfaceImplClass, otherPluginClass));
+                            IClientPlugin other = discovered.get(modId);
+                            Object otherPluginClass = other instanceof LazyClientPlugin ? ((LazyClientPlugin) other).getClassName() : other.getClass();
+                            throw new Exception(String.format("Multiple plugins trying to use the same modId: %s and %s", instance.getClass(), otherPluginClass));
                         }
                         discovered.put(modId, instance);
                         LOGGER.info(String.format("Found @%s: %s", PLUGIN_ANNOTATION_NAME, className));
                     }
-                    else
+                    catch (TimeoutException e)
                     {
-                        LOGGER.error(String.format("Found @%s: %s, but it doesn't implement %s",
-                                PLUGIN_ANNOTATION_NAME, className, PLUGIN_INTERFACE_NAME));
+                        instances.get(i).cancel(true);
+                        LOGGER.error(String.format("Found @%s: %s, but it took over %sms to instantiate",
+                                PLUGIN_ANNOTATION_NAME, className, timeoutMillis));
+                    }
+                    catch (Exception e)
+                    {
+                        Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                        LOGGER.error(String.format("Found @%s: %s, but failed to instantiate it: %s",
+                                PLUGIN_ANNOTATION_NAME, className, cause.getMessage()), cause);
                     }
-                }
-                catch (Exception e)
-                {
-                    LOGGER.error(String.format("Found @%s: %s, but failed to instantiate it: %s",
-                            PLUGIN_ANNOTATION_NAME, className, e.getMessage()), e);
                 }
             }
+            finally
+            {
+                executor.shutdownNow();
+            }
 
             if (discovered.isEmpty())
             {
@@ -115,6 +228,11 @@ public enum PluginHelper
     /**
      * Called by JourneyMap during its initialization phase.  Can only be called once per runtime.
      * <p>
+     * Plugins which {@link IClientPlugin#supportsParallelInitialization()} are initialized on background threads
+     * while the others are initialized in turn on the calling thread.  Background plugins share one deadline, long
+     * enough for each to take the full timeout in turn; any which haven't finished by then, including ones still
+     * waiting behind a plugin which ignored its interrupt, are removed.
+     * <p>
      * Mods which are testing integration can also call this in a dev environment
      * and pass in a stub implementation, but must never do so in production code.
      *
@@ -133,19 +251,66 @@ public enum PluginHelper
             LOGGER.info(String.format("Initializing plugins with Client API: %s", clientAPI.getClass().getName()));
 
             HashMap<String, IClientPlugin> discovered = new HashMap<String, IClientPlugin>(plugins);
-            Iterator<IClientPlugin> iter = discovered.values().iterator();
-            while (iter.hasNext())
+            List<IClientPlugin> serial = new ArrayList<IClientPlugin>();
+            List<IClientPlugin> parallel = new ArrayList<IClientPlugin>();
+            for (IClientPlugin plugin : discovered.values())
+            {
+                (parallelism > 1 && plugin.supportsParallelInitialization() ? parallel : serial).add(plugin);
+            }
+
+            ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("JourneyMap-API-Plugin-Watchdog").setDaemon(true).build());
+            ExecutorService executor = parallel.isEmpty() ? null : newExecutor(Math.min(parallelism, parallel.size()));
+            try
             {
-                IClientPlugin plugin = iter.next();
-                try
+                // Start the parallel ones first so they overlap with the serial ones
+                Map<IClientPlugin, BackgroundInitialization> results = new HashMap<IClientPlugin, BackgroundInitialization>();
+                for (IClientPlugin plugin : parallel)
+                {
+                    BackgroundInitialization initialization = new BackgroundInitialization(plugin, clientAPI, watchdog);
+                    results.put(plugin, initialization);
+                    executor.execute(initialization);
+                }
+                int threads = Math.max(1, Math.min(parallelism, parallel.size()));
+                long deadline = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) * ((parallel.size() + threads - 1) / threads);
+
+                for (IClientPlugin plugin : serial)
+                {
+                    Thread thread = Thread.currentThread();
+                    ScheduledFuture<?> warning = watchdog.schedule(() -> {
+                        Exception trace = new Exception("Stack trace of " + thread.getName());
+                        trace.setStackTrace(thread.getStackTrace());
+                        LOGGER.warn(String.format("Plugin %s has taken over %sms to initialize",
+                                plugin.getModId(), timeoutMillis), trace);
+                    }, timeoutMillis, TimeUnit.MILLISECONDS);
+                    try
+                    {
+                        if (!initialize(plugin, clientAPI))
+                        {
+                            discovered.remove(plugin.getModId());
+                        }
+                    }
+                    finally
+                    {
+                        warning.cancel(false);
+                    }
+                }
+
+                for (Map.Entry<IClientPlugin, BackgroundInitialization> entry : results.entrySet())
                 {
-                    plugin.initialize(clientAPI);
-                    LOGGER.info(String.format("Initialized %s: %s", PLUGIN_INTERFACE_NAME, plugin.getClass().getName()));
+                    if (!entry.getValue().await(deadline))
+                    {
+                        discovered.remove(entry.getKey().getModId());
+                    }
                 }
-                catch (Exception e)
+            }
+            finally
+            {
+                watchdog.shutdownNow();
+                if (executor != null)
                 {
-                    LOGGER.error("Failed to initialize IClientPlugin: " + plugin.getClass().getName(), e);
-                    iter.remove();
+                    executor.shutdownNow();
                 }
             }
 
@@ -171,4 +336,254 @@ public enum PluginHelper
     {
         return plugins;
     }
+
+    /**
+     * Loads and instantiates a plugin class.
+     *
+     * @return the plugin, or null if the class doesn't implement IClientPlugin
+     */
+    @Nullable
+    IClientPlugin instantiate(String className, ClassLoader classLoader) throws Exception
+    {
+        long start = System.nanoTime();
+        Class<?> pluginClass = Class.forName(className, true, classLoader);
+        if (!IClientPlugin.class.isAssignableFrom(pluginClass))
+        {
+            LOGGER.error(String.format("Found @%s: %s, but it doesn't implement %s",
+                    PLUGIN_ANNOTATION_NAME, className, PLUGIN_INTERFACE_NAME));
+            return null;
+        }
+        IClientPlugin instance = pluginClass.asSubclass(IClientPlugin.class).getDeclaredConstructor().newInstance();
+        LOGGER.debug(String.format("Instantiated %s in %.1fms", className, (System.nanoTime() - start) / 1e6));
+        return instance;
+    }
+
+    /**
+     * Initializes a plugin on the current thread.
+     *
+     * @return true if it succeeded
+     */
+    boolean initialize(IClientPlugin plugin, IClientAPI clientAPI)
+    {
+        long start = System.nanoTime();
+        long allocated = PluginMetrics.INSTANCE.allocatedBytes();
+        try
+        {
+            plugin.initialize(clientAPI);
+            LOGGER.info(String.format("Initialized %s: %s in %.1fms", PLUGIN_INTERFACE_NAME, nameOf(plugin),
+                    (System.nanoTime() - start) / 1e6));
+            return true;
+        }
+        catch (Exception e)
+        {
+            LOGGER.error("Failed to initialize IClientPlugin: " + nameOf(plugin), e);
+            return false;
+        }
+        finally
+        {
+            // A deferred plugin's stand-in only subscribes; the real initialize is recorded when it loads
+            if (!(plugin instanceof LazyClientPlugin))
+            {
+                PluginMetrics.INSTANCE.record(plugin.getModId(), PluginMetrics.OP_INITIALIZE, start, allocated);
+            }
+        }
+    }
+
+    /**
+     * Initializes a plugin on an executor thread.  The result is false if it failed, or if it was given up on:
+     * by the watchdog, because it took longer than the timeout from when it started, or by {@link #await(long)},
+     * because it hadn't finished by the deadline.
+     * <p>
+     * The plugin is given a {@link GuardedClientAPI}, so once it is given up on, anything it does through the API
+     * fails and what it had already shown or subscribed to is undone.
+     */
+    private class BackgroundInitialization implements Runnable
+    {
+        private final IClientPlugin plugin;
+        private final ScheduledExecutorService watchdog;
+        private final GuardedClientAPI guard;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+        private volatile Thread thread;
+        private boolean finished;
+
+        BackgroundInitialization(IClientPlugin plugin, IClientAPI clientAPI, ScheduledExecutorService watchdog)
+        {
+            this.plugin = plugin;
+            this.watchdog = watchdog;
+            this.guard = new GuardedClientAPI(clientAPI, plugin.getModId());
+        }
+
+        @Override
+        public void run()
+        {
+            synchronized (this)
+            {
+                if (result.isDone())
+                {
+                    // Given up on before it started
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            ScheduledFuture<?> timeout = watchdog.schedule(
+                    () -> giveUp(String.format("took over %sms to initialize", timeoutMillis)),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+            try
+            {
+                result.complete(initialize(plugin, guard.getProxy()));
+            }
+            catch (Throwable t)
+            {
+                LOGGER.error("Failed to initialize IClientPlugin: " + nameOf(plugin), t);
+                result.complete(false);
+            }
+            finally
+            {
+                timeout.cancel(false);
+                if (guard.isAbandoned())
+                {
+                    // Again, in case a call which was already in progress when it was abandoned added something
+                    guard.undo();
+                }
+                synchronized (this)
+                {
+                    finished = true;
+                    // Don't let an interrupt meant for this plugin leak into the next one on this thread
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        /**
+         * Waits for the result until the deadline, then gives up on the plugin.
+         *
+         * @param deadline System.nanoTime() deadline
+         * @return true if it initialized
+         */
+        boolean await(long deadline)
+        {
+            try
+            {
+                return result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                giveUp(thread == null ? "was still waiting to initialize at the deadline" : "hadn't finished initializing by the deadline");
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                giveUp("was still initializing when JourneyMap was interrupted");
+            }
+            catch (ExecutionException e)
+            {
+                return false;
+            }
+            // It may have finished meanwhile
+            return result.getNow(false);
+        }
+
+        /**
+         * Under the lock, so the interrupt can't land after the task has finished and cleared it.
+         */
+        private synchronized void giveUp(String reason)
+        {
+            if (!finished && result.complete(false))
+            {
+                LOGGER.error(String.format("Plugin %s %s and has been removed", plugin.getModId(), reason));
+                guard.abandon();
+                if (thread != null)
+                {
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * The IClientAPI handed to a plugin initializing in the background.  Calls are passed through until the
+     * watchdog abandons the plugin, and rejected with an IllegalStateException afterward.
+     */
+    private static class GuardedClientAPI implements InvocationHandler
+    {
+        private final IClientAPI delegate;
+        private final String modId;
+        private final IClientAPI proxy;
+        private volatile boolean abandoned;
+
+        GuardedClientAPI(IClientAPI delegate, String modId)
+        {
+            this.delegate = delegate;
+            this.modId = modId;
+            this.proxy = (IClientAPI) Proxy.newProxyInstance(IClientAPI.class.getClassLoader(),
+                    new Class<?>[]{IClientAPI.class}, this);
+        }
+
+        IClientAPI getProxy()
+        {
+            return proxy;
+        }
+
+        /**
+         * Rejects further calls, and removes what the plugin showed and subscribed to so far.
+         */
+        void abandon()
+        {
+            abandoned = true;
+            undo();
+        }
+
+        boolean isAbandoned()
+        {
+            return abandoned;
+        }
+
+        /**
+         * Removes what the plugin showed and subscribed to.
+         */
+        void undo()
+        {
+            try
+            {
+                delegate.subscribe(modId, EnumSet.noneOf(ClientEvent.Type.class));
+                delegate.removeAll(modId);
+            }
+            catch (Exception e)
+            {
+                LOGGER.error("Failed to clean up after abandoned plugin " + modId, e);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            if (method.getDeclaringClass() == Object.class)
+            {
+                return method.invoke(delegate, args);
+            }
+            if (abandoned)
+            {
+                throw new IllegalStateException(String.format("Plugin %s took too long to initialize and has been removed", modId));
+            }
+            try
+            {
+                return method.invoke(delegate, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static String nameOf(IClientPlugin plugin)
+    {
+        return plugin instanceof LazyClientPlugin ? ((LazyClientPlugin) plugin).getClassName() : plugin.getClass().getName();
+    }
+
+    private static ExecutorService newExecutor(int threads)
+    {
+        return Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("JourneyMap-API-Plugins-%d").setDaemon(true).build());
+    }
 }
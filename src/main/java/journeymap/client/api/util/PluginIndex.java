@@ -0,0 +1,281 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import journeymap.client.api.ClientPlugin;
+import journeymap.client.api.event.ClientEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Index of {@link ClientPlugin} classes, written into each mod's jar at compile time by {@link PluginIndexProcessor}
+ * so JourneyMap doesn't have to scan classes for the annotation.
+ * <p>
+ * The index is a UTF-8 text resource at {@link #RESOURCE}, with one plugin per line:
+ * <pre>
+ * className modId EVENT_TYPE,EVENT_TYPE FLAG,FLAG
+ * </pre>
+ * A modId or event list of {@code -} means it wasn't given, and trailing fields may be left off.  The only flag is
+ * {@code async}, for {@link ClientPlugin#asyncEvents()}; unknown flags are ignored.  Lines starting with {@code #}
+ * are comments.
+ */
+@ParametersAreNonnullByDefault
+public final class PluginIndex
+{
+    /**
+     * Location of the index in a jar.
+     */
+    public static final String RESOURCE = "META-INF/journeymap-plugins.idx";
+
+    private static final Logger LOGGER = LogManager.getLogger("journeymap");
+    private static final String NONE = "-";
+    private static final String ASYNC = "async";
+    private static final Splitter FIELDS = Splitter.on(' ').omitEmptyStrings().trimResults();
+    private static final Splitter TYPES = Splitter.on(',').omitEmptyStrings().trimResults();
+
+    private PluginIndex()
+    {
+    }
+
+    /**
+     * Reads every plugin index visible to a class loader.
+     *
+     * @param classLoader the class loader
+     * @return the plugins, in the order found
+     */
+    public static List<Entry> read(ClassLoader classLoader)
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        try
+        {
+            Enumeration<URL> resources = classLoader.getResources(RESOURCE);
+            while (resources.hasMoreElements())
+            {
+                URL url = resources.nextElement();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8)))
+                {
+                    entries.addAll(parse(reader, url.toString()));
+                }
+                catch (IOException e)
+                {
+                    LOGGER.error("Can't read plugin index " + url + ": " + e);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("Can't find plugin indexes: " + e);
+        }
+        return entries;
+    }
+
+    /**
+     * Reads one plugin index.  Malformed lines are logged and skipped.
+     *
+     * @param reader the index
+     * @param source where the index came from, for log messages
+     * @return the plugins
+     * @throws IOException if it can't be read
+     */
+    public static List<Entry> parse(BufferedReader reader, String source) throws IOException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+            {
+                continue;
+            }
+            List<String> fields = FIELDS.splitToList(line);
+            try
+            {
+                EnumSet<ClientEvent.Type> events = EnumSet.noneOf(ClientEvent.Type.class);
+                if (fields.size() > 2 && !NONE.equals(fields.get(2)))
+                {
+                    for (String type : TYPES.split(fields.get(2)))
+                    {
+                        events.add(ClientEvent.Type.valueOf(type));
+                    }
+                }
+                boolean asyncEvents = fields.size() > 3 && TYPES.splitToList(fields.get(3)).contains(ASYNC);
+                String modId = fields.size() > 1 && !NONE.equals(fields.get(1)) ? fields.get(1) : null;
+                entries.add(new Entry(fields.get(0), modId, events, asyncEvents));
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Most likely an event type from a newer version of the API
+                LOGGER.warn(String.format("Ignoring plugin index line in %s: %s (%s)", source, line, e.getMessage()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Writes a plugin index.
+     *
+     * @param entries the plugins
+     * @param writer  where to write it
+     * @throws IOException if it can't be written
+     */
+    public static void write(Collection<Entry> entries, Writer writer) throws IOException
+    {
+        writer.write("# Generated by " + PluginIndexProcessor.class.getName() + "\n");
+        for (Entry entry : entries)
+        {
+            writer.write(entry.className);
+            writer.write(' ');
+            writer.write(entry.modId == null ? NONE : entry.modId);
+            if (!entry.events.isEmpty() || entry.asyncEvents)
+            {
+                writer.write(' ');
+                writer.write(entry.events.isEmpty() ? NONE : Joiner.on(',').join(entry.events));
+            }
+            if (entry.asyncEvents)
+            {
+                writer.write(' ');
+                writer.write(ASYNC);
+            }
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * One plugin in an index.
+     */
+    public static final class Entry
+    {
+        private final String className;
+        private final String modId;
+        private final EnumSet<ClientEvent.Type> events;
+        private final boolean asyncEvents;
+
+        /**
+         * Constructor for a plugin which doesn't accept async events.
+         *
+         * @param className binary name of the plugin class
+         * @param modId     mod id from the annotation, or null if not given
+         * @param events    event types from the annotation
+         */
+        public Entry(String className, @Nullable String modId, EnumSet<ClientEvent.Type> events)
+        {
+            this(className, modId, events, false);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param className   binary name of the plugin class
+         * @param modId       mod id from the annotation, or null if not given
+         * @param events      event types from the annotation
+         * @param asyncEvents {@link ClientPlugin#asyncEvents()} from the annotation
+         */
+        public Entry(String className, @Nullable String modId, EnumSet<ClientEvent.Type> events, boolean asyncEvents)
+        {
+            this.className = className;
+            this.modId = Strings.emptyToNull(modId);
+            this.events = EnumSet.copyOf(events);
+            this.asyncEvents = asyncEvents;
+        }
+
+        /**
+         * Binary name of the plugin class.
+         *
+         * @return the class name
+         */
+        public String getClassName()
+        {
+            return className;
+        }
+
+        /**
+         * Mod id from the annotation.
+         *
+         * @return the mod id, or null if not given
+         */
+        @Nullable
+        public String getModId()
+        {
+            return modId;
+        }
+
+        /**
+         * Event types from the annotation.
+         *
+         * @return the event types
+         */
+        public EnumSet<ClientEvent.Type> getEvents()
+        {
+            return EnumSet.copyOf(events);
+        }
+
+        /**
+         * Whether the plugin accepts async events, from the annotation.
+         *
+         * @return true if it does
+         */
+        public boolean acceptsAsyncEvents()
+        {
+            return asyncEvents;
+        }
+
+        /**
+         * Whether enough is known about the plugin to put off loading its class until its first event.
+         *
+         * @return true if the mod id and event types were given
+         */
+        public boolean isDeferrable()
+        {
+            return modId != null && !events.isEmpty();
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this)
+                    .add("className", className)
+                    .add("modId", modId)
+                    .add("events", events)
+                    .add("asyncEvents", asyncEvents)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import journeymap.client.api.ClientPlugin;
+import journeymap.client.api.IClientPlugin;
+import journeymap.client.api.event.ClientEvent;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Annotation processor which writes the {@link PluginIndex} of the {@link ClientPlugin} classes being compiled.
+ * <p>
+ * It is registered as a service in the API jar, so it runs for any mod which has the jar on its annotation processor
+ * path, e.g. with Gradle: {@code annotationProcessor "info.journeymap:journeymap-api:<version>"}
+ */
+@SupportedAnnotationTypes("journeymap.client.api.ClientPlugin")
+public class PluginIndexProcessor extends AbstractProcessor
+{
+    // Sorted so the index is the same from one build to the next
+    private final TreeMap<String, PluginIndex.Entry> entries = new TreeMap<String, PluginIndex.Entry>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        TypeMirror pluginInterface = processingEnv.getElementUtils().getTypeElement(IClientPlugin.class.getName()).asType();
+        for (Element element : roundEnv.getElementsAnnotatedWith(ClientPlugin.class))
+        {
+            if (element.getKind() != ElementKind.CLASS
+                    || !processingEnv.getTypeUtils().isAssignable(element.asType(), pluginInterface))
+            {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "@ClientPlugin must be on a class which implements " + IClientPlugin.class.getName(), element);
+                continue;
+            }
+
+            ClientPlugin annotation = element.getAnnotation(ClientPlugin.class);
+            EnumSet<ClientEvent.Type> events = EnumSet.noneOf(ClientEvent.Type.class);
+            events.addAll(Arrays.asList(annotation.events()));
+            String className = processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString();
+            entries.put(className, new PluginIndex.Entry(className, annotation.modId(), events, annotation.asyncEvents()));
+        }
+
+        if (roundEnv.processingOver() && !entries.isEmpty())
+        {
+            write();
+        }
+        return false;
+    }
+
+    private void write()
+    {
+        try
+        {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", PluginIndex.RESOURCE);
+            try (Writer writer = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8))
+            {
+                PluginIndex.write(entries.values(), writer);
+            }
+        }
+        catch (IOException e)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Can't write " + PluginIndex.RESOURCE + ": " + e);
+        }
+    }
+}
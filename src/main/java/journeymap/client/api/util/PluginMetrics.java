@@ -0,0 +1,612 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import journeymap.client.api.event.ClientEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Enum singleton which measures the time and memory plugins take, per mod and per operation, to find which mod is
+ * slowing the map down.
+ * <p>
+ * Operations are plugin initialization, event handling (one operation per {@link ClientEvent.Type}), overlay listener
+ * callbacks, and show and remove calls.  For each, the number of calls, a latency histogram and the bytes allocated
+ * on the calling thread are kept.  Measure an operation like this:
+ * <pre>
+ * long start = System.nanoTime();
+ * long allocated = PluginMetrics.INSTANCE.allocatedBytes();
+ * plugin.onEvent(event);
+ * PluginMetrics.INSTANCE.record(modId, PluginMetrics.eventOperation(event.type), start, allocated);
+ * </pre>
+ * Neither call allocates once the operation has been seen.  Results are available from {@link #getStats} and,
+ * after {@link #registerMBeans()}, over JMX.
+ * <p>
+ * Thread-safe.
+ */
+@ParametersAreNonnullByDefault
+public enum PluginMetrics
+{
+    INSTANCE;
+
+    /**
+     * Operation: IClientPlugin.initialize
+     */
+    public static final String OP_INITIALIZE = "initialize";
+
+    /**
+     * Operation: IClientAPI.show
+     */
+    public static final String OP_SHOW = "show";
+
+    /**
+     * Operation: IClientAPI.remove
+     */
+    public static final String OP_REMOVE = "remove";
+
+    /**
+     * Operation: an IOverlayListener callback
+     */
+    public static final String OP_OVERLAY_LISTENER = "overlayListener";
+
+    private static final Logger LOGGER = LogManager.getLogger("journeymap");
+    private static final String MBEAN_DOMAIN = "journeymap.api";
+    private static final EnumMap<ClientEvent.Type, String> EVENT_OPERATIONS = new EnumMap<ClientEvent.Type, String>(ClientEvent.Type.class);
+
+    static
+    {
+        for (ClientEvent.Type type : ClientEvent.Type.values())
+        {
+            EVENT_OPERATIONS.put(type, "event:" + type.name());
+        }
+    }
+
+    private final ConcurrentHashMap<String, ModMetrics> mods = new ConcurrentHashMap<String, ModMetrics>();
+    private final com.sun.management.ThreadMXBean threads;
+    private volatile boolean enabled = true;
+    private volatile boolean trackAllocations;
+    private volatile MBeanServer mbeanServer;
+
+    PluginMetrics()
+    {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        this.threads = threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) threadBean : null;
+        this.trackAllocations = threads != null && threads.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * The operation name for handling an event type.
+     *
+     * @param type the event type
+     * @return the operation
+     */
+    public static String eventOperation(ClientEvent.Type type)
+    {
+        return EVENT_OPERATIONS.get(type);
+    }
+
+    /**
+     * Turns measuring on or off.  On by default.
+     *
+     * @param enabled whether to record
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Whether measuring is on.
+     *
+     * @return true if recording
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Turns measuring allocations on or off.  On by default where the JVM supports it.
+     *
+     * @param trackAllocations whether to measure allocations
+     */
+    public void setTrackAllocations(boolean trackAllocations)
+    {
+        this.trackAllocations = trackAllocations && threads != null;
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, to pass to {@link #record} when the operation ends.
+     *
+     * @return the bytes, or -1 if allocations aren't being measured
+     */
+    public long allocatedBytes()
+    {
+        return enabled && trackAllocations ? threads.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    /**
+     * Records an operation which has just ended.
+     *
+     * @param modId          the mod id of the plugin
+     * @param operation      the operation, such as {@link #OP_SHOW} or {@link #eventOperation(ClientEvent.Type)}
+     * @param startNanos     {@link System#nanoTime()} when the operation started
+     * @param startAllocated {@link #allocatedBytes()} when the operation started
+     */
+    public void record(String modId, String operation, long startNanos, long startAllocated)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        long allocated = startAllocated < 0 ? -1 : allocatedBytes();
+        metricsOf(modId).recorderOf(operation).record(elapsed, allocated < 0 ? -1 : allocated - startAllocated);
+    }
+
+    /**
+     * Statistics for one operation of one mod.
+     *
+     * @param modId     the mod id
+     * @param operation the operation
+     * @return the statistics, or null if it hasn't been recorded
+     */
+    @Nullable
+    public OperationStats getStats(String modId, String operation)
+    {
+        ModMetrics metrics = mods.get(modId);
+        Recorder recorder = metrics == null ? null : metrics.recorders.get(operation);
+        return recorder == null ? null : recorder.snapshot(operation);
+    }
+
+    /**
+     * Statistics for every operation of one mod.
+     *
+     * @param modId the mod id
+     * @return the statistics by operation name
+     */
+    public Map<String, OperationStats> getStats(String modId)
+    {
+        TreeMap<String, OperationStats> result = new TreeMap<String, OperationStats>();
+        ModMetrics metrics = mods.get(modId);
+        if (metrics != null)
+        {
+            for (Map.Entry<String, Recorder> entry : metrics.recorders.entrySet())
+            {
+                result.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The mods which have been measured.
+     *
+     * @return mod ids, sorted
+     */
+    public List<String> getModIds()
+    {
+        return new ArrayList<String>(new TreeSet<String>(mods.keySet()));
+    }
+
+    /**
+     * Clears every statistic.
+     */
+    public void reset()
+    {
+        for (ModMetrics metrics : mods.values())
+        {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * Registers a {@link PluginMetricsMXBean} for each mod with the platform MBean server, now and as mods are first
+     * measured, so the statistics can be read with tools such as JConsole or VisualVM.
+     */
+    public synchronized void registerMBeans()
+    {
+        if (mbeanServer == null)
+        {
+            mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            for (ModMetrics metrics : mods.values())
+            {
+                register(metrics);
+            }
+        }
+    }
+
+    /**
+     * Unregisters the MBeans registered by {@link #registerMBeans()}.
+     */
+    public synchronized void unregisterMBeans()
+    {
+        if (mbeanServer != null)
+        {
+            for (ModMetrics metrics : mods.values())
+            {
+                try
+                {
+                    mbeanServer.unregisterMBean(objectName(metrics.modId));
+                }
+                catch (JMException e)
+                {
+                    LOGGER.warn("Can't unregister plugin metrics for " + metrics.modId + ": " + e);
+                }
+            }
+            mbeanServer = null;
+        }
+    }
+
+    private ModMetrics metricsOf(String modId)
+    {
+        ModMetrics metrics = mods.get(modId);
+        if (metrics == null)
+        {
+            metrics = new ModMetrics(modId);
+            ModMetrics existing = mods.putIfAbsent(modId, metrics);
+            if (existing != null)
+            {
+                return existing;
+            }
+            if (mbeanServer != null)
+            {
+                synchronized (this)
+                {
+                    if (mbeanServer != null)
+                    {
+                        register(metrics);
+                    }
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private void register(ModMetrics metrics)
+    {
+        try
+        {
+            mbeanServer.registerMBean(metrics, objectName(metrics.modId));
+        }
+        catch (JMException e)
+        {
+            LOGGER.warn("Can't register plugin metrics for " + metrics.modId + ": " + e);
+        }
+    }
+
+    private static ObjectName objectName(String modId) throws JMException
+    {
+        return new ObjectName(MBEAN_DOMAIN + ":type=PluginMetrics,modId=" + ObjectName.quote(modId));
+    }
+
+    /**
+     * Statistics for one operation, at the time they were read.
+     */
+    public static final class OperationStats
+    {
+        private final String operation;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long p999Nanos;
+        private final long allocatedBytes;
+
+        /**
+         * Constructor.
+         */
+        @ConstructorProperties({"operation", "count", "totalNanos", "maxNanos", "p50Nanos", "p90Nanos", "p99Nanos",
+                "p999Nanos", "allocatedBytes"})
+        public OperationStats(String operation, long count, long totalNanos, long maxNanos, long p50Nanos,
+                              long p90Nanos, long p99Nanos, long p999Nanos, long allocatedBytes)
+        {
+            this.operation = operation;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.p999Nanos = p999Nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * The operation.
+         *
+         * @return the operation
+         */
+        public String getOperation()
+        {
+            return operation;
+        }
+
+        /**
+         * Number of times the operation was recorded.
+         *
+         * @return the count
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Total time spent in the operation.
+         *
+         * @return nanoseconds
+         */
+        public long getTotalNanos()
+        {
+            return totalNanos;
+        }
+
+        /**
+         * Longest time spent in the operation.
+         *
+         * @return nanoseconds
+         */
+        public long getMaxNanos()
+        {
+            return maxNanos;
+        }
+
+        /**
+         * Median time, to within an eighth.
+         *
+         * @return nanoseconds
+         */
+        public long getP50Nanos()
+        {
+            return p50Nanos;
+        }
+
+        /**
+         * 90th percentile time, to within an eighth.
+         *
+         * @return nanoseconds
+         */
+        public long getP90Nanos()
+        {
+            return p90Nanos;
+        }
+
+        /**
+         * 99th percentile time, to within an eighth.
+         *
+         * @return nanoseconds
+         */
+        public long getP99Nanos()
+        {
+            return p99Nanos;
+        }
+
+        /**
+         * 99.9th percentile time, to within an eighth.
+         *
+         * @return nanoseconds
+         */
+        public long getP999Nanos()
+        {
+            return p999Nanos;
+        }
+
+        /**
+         * Total bytes allocated during the operation on the thread which ran it.
+         *
+         * @return bytes, or -1 if allocations weren't measured
+         */
+        public long getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return com.google.common.base.MoreObjects.toStringHelper(this)
+                    .add("operation", operation)
+                    .add("count", count)
+                    .add("totalNanos", totalNanos)
+                    .add("maxNanos", maxNanos)
+                    .add("p50Nanos", p50Nanos)
+                    .add("p99Nanos", p99Nanos)
+                    .add("allocatedBytes", allocatedBytes)
+                    .toString();
+        }
+    }
+
+    /**
+     * The recorders of one mod, which is also its MBean.
+     */
+    private static class ModMetrics implements PluginMetricsMXBean
+    {
+        final String modId;
+        final ConcurrentHashMap<String, Recorder> recorders = new ConcurrentHashMap<String, Recorder>();
+
+        ModMetrics(String modId)
+        {
+            this.modId = modId;
+        }
+
+        Recorder recorderOf(String operation)
+        {
+            Recorder recorder = recorders.get(operation);
+            return recorder != null ? recorder : recorders.computeIfAbsent(operation, k -> new Recorder());
+        }
+
+        @Override
+        public String getModId()
+        {
+            return modId;
+        }
+
+        @Override
+        public List<OperationStats> getOperations()
+        {
+            List<OperationStats> result = new ArrayList<OperationStats>();
+            for (Map.Entry<String, Recorder> entry : new TreeMap<String, Recorder>(recorders).entrySet())
+            {
+                result.add(entry.getValue().snapshot(entry.getKey()));
+            }
+            return result;
+        }
+
+        @Override
+        public void reset()
+        {
+            for (Recorder recorder : recorders.values())
+            {
+                recorder.reset();
+            }
+        }
+    }
+
+    /**
+     * Counts and a log-linear latency histogram, in the style of HdrHistogram: values below 8ns have their own
+     * buckets, and every power of two above that is split into 8 buckets, so each is within an eighth of its values.
+     */
+    private static class Recorder
+    {
+        static final int SUB_BUCKETS = 8;
+        static final int SUB_BUCKET_BITS = 3;
+        static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong allocatedBytes = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        volatile boolean allocationsMeasured = true;
+
+        void record(long nanos, long allocated)
+        {
+            nanos = Math.max(0, nanos);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            buckets.incrementAndGet(bucketOf(nanos));
+            if (allocated >= 0)
+            {
+                allocatedBytes.addAndGet(allocated);
+            }
+            else
+            {
+                allocationsMeasured = false;
+            }
+        }
+
+        void reset()
+        {
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            allocatedBytes.set(0);
+            allocationsMeasured = true;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                buckets.set(i, 0);
+            }
+        }
+
+        OperationStats snapshot(String operation)
+        {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            return new OperationStats(operation, count.get(), totalNanos.get(), maxNanos.get(),
+                    percentile(counts, total, 0.5), percentile(counts, total, 0.9),
+                    percentile(counts, total, 0.99), percentile(counts, total, 0.999),
+                    allocationsMeasured ? allocatedBytes.get() : -1);
+        }
+
+        static int bucketOf(long value)
+        {
+            if (value < SUB_BUCKETS)
+            {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * The highest value which falls in a bucket.
+         */
+        static long highestOf(int bucket)
+        {
+            if (bucket < SUB_BUCKETS)
+            {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+            return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        static long percentile(long[] counts, long total, double fraction)
+        {
+            if (total == 0)
+            {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                seen += counts[i];
+                if (seen >= target)
+                {
+                    return highestOf(i);
+                }
+            }
+            return highestOf(counts.length - 1);
+        }
+    }
+}
@@ -21,7 +21,6 @@
 package journeymap.client.api.util;
 
 import journeymap.client.api.model.MapPolygon;
-import net.minecraft.core.BlockPos;
 
 /**
  * Utility class related to Polygons.
@@ -45,7 +44,7 @@ public class PolygonHelper
 
     /**
      * Creates a polygon for the chunk coords, starting with the lower-left (southwest) corner
-     * and going counter-clockwise.
+     * and going counter-clockwise.  To outline many adjoining chunks, use {@link ChunkAreas} instead.
      *
      * @param chunkX chunk x
      * @param y      block y
@@ -56,11 +55,130 @@ public class PolygonHelper
     {
         int x = chunkX << 4;
         int z = chunkZ << 4;
-        net.minecraft.core.BlockPos sw = new net.minecraft.core.BlockPos(x, y, z + 16);
-        net.minecraft.core.BlockPos se = new BlockPos(x + 16, y, z + 16);
-        net.minecraft.core.BlockPos ne = new net.minecraft.core.BlockPos(x + 16, y, z);
-        net.minecraft.core.BlockPos nw = new net.minecraft.core.BlockPos(x, y, z);
 
-        return new MapPolygon(sw, se, ne, nw);
+        return new MapPolygon(new int[]{
+                x, y, z + 16,       // sw
+                x + 16, y, z + 16,  // se
+                x + 16, y, z,       // ne
+                x, y, z             // nw
+        });
+    }
+
+    /**
+     * Creates a simplified copy of a polygon using the Douglas-Peucker algorithm, removing points which are within
+     * tolerance blocks of the line between the points kept on either side of them.  The first point is always kept.
+     *
+     * @param polygon   the polygon
+     * @param tolerance max distance in blocks, on the x/z plane, between the polygon and the simplified polygon
+     * @return the simplified polygon, or the same polygon if no points could be removed or fewer than 3 would be left
+     */
+    public static MapPolygon simplify(MapPolygon polygon, double tolerance)
+    {
+        int size = polygon.size();
+        if (size <= 3)
+        {
+            return polygon;
+        }
+
+        // Split the ring at the point farthest from the first, then simplify both halves
+        int farthest = 0;
+        long farthestDistance = -1;
+        for (int i = 1; i < size; i++)
+        {
+            long dx = polygon.getX(i) - polygon.getX(0);
+            long dz = polygon.getZ(i) - polygon.getZ(0);
+            if (dx * dx + dz * dz > farthestDistance)
+            {
+                farthest = i;
+                farthestDistance = dx * dx + dz * dz;
+            }
+        }
+
+        boolean[] keep = new boolean[size];
+        keep[0] = true;
+        keep[farthest] = true;
+        double toleranceSq = tolerance * tolerance;
+
+        // Ranges of point indices still to simplify, end exclusive of the ring size so the last range wraps to 0
+        int[] stack = new int[size * 2 + 4];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = farthest;
+        stack[top++] = farthest;
+        stack[top++] = size;
+        while (top > 0)
+        {
+            int end = stack[--top];
+            int start = stack[--top];
+            if (end - start < 2)
+            {
+                continue;
+            }
+
+            int endIndex = end % size;
+            double ax = polygon.getX(start), az = polygon.getZ(start);
+            double bx = polygon.getX(endIndex), bz = polygon.getZ(endIndex);
+            int worst = -1;
+            double worstSq = toleranceSq;
+            for (int i = start + 1; i < end; i++)
+            {
+                double distanceSq = segmentDistanceSq(polygon.getX(i), polygon.getZ(i), ax, az, bx, bz);
+                if (distanceSq > worstSq)
+                {
+                    worst = i;
+                    worstSq = distanceSq;
+                }
+            }
+
+            if (worst >= 0)
+            {
+                keep[worst] = true;
+                stack[top++] = start;
+                stack[top++] = worst;
+                stack[top++] = worst;
+                stack[top++] = end;
+            }
+        }
+
+        int kept = 0;
+        for (boolean k : keep)
+        {
+            if (k)
+            {
+                kept++;
+            }
+        }
+        if (kept == size || kept < 3)
+        {
+            return polygon;
+        }
+
+        int[] coords = new int[kept * 3];
+        int j = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (keep[i])
+            {
+                coords[j++] = polygon.getX(i);
+                coords[j++] = polygon.getY(i);
+                coords[j++] = polygon.getZ(i);
+            }
+        }
+        return new MapPolygon(coords);
+    }
+
+    /**
+     * Squared distance from a point to a line segment.
+     */
+    private static double segmentDistanceSq(double px, double pz, double ax, double az, double bx, double bz)
+    {
+        double dx = bx - ax;
+        double dz = bz - az;
+        double lengthSq = dx * dx + dz * dz;
+        double t = lengthSq == 0 ? 0 : ((px - ax) * dx + (pz - az) * dz) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        double x = ax + t * dx - px;
+        double z = az + t * dz - pz;
+        return x * x + z * z;
     }
 }
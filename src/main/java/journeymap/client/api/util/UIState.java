@@ -72,6 +72,10 @@ public final class UIState
      */
     public final double blockSize;
 
+    /**
+     * The {@link ActivationMask} of the UI, map type and zoom level, used to check whether overlays are active.
+     */
+    public final long activationMask;
 
     /**
      * Constructor.
@@ -101,6 +105,7 @@ public final class UIState
         this.blockBounds = blockBounds;
         this.displayBounds = displayBounds;
         this.blockSize = Math.pow(2, zoom);
+        this.activationMask = ActivationMask.of(ui, mapType, zoom);
     }
 
     /**
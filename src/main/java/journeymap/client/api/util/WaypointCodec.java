@@ -0,0 +1,634 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import journeymap.client.api.display.Waypoint;
+import journeymap.client.api.display.WaypointGroup;
+import journeymap.client.api.model.MapImage;
+import journeymap.client.api.model.WaypointBase;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes persistent waypoints in a compact binary format, so thousands of them can be loaded and saved
+ * without reflective JSON parsing.  {@link #readJson(Reader)} reads the JSON they used to be saved in, for migration.
+ * <p>
+ * The format is big-endian:
+ * <pre>
+ * int     magic "JMWP"
+ * short   format version
+ * strings count, then each as modified UTF-8: every modId, id, name, dimension and icon location, once
+ * icons   count, then each MapImage: location, tint, opacity, texture rectangle, rotation, display size, anchors
+ * groups  count, then each WaypointGroup: modId, id, name, display order, then its optional properties
+ * points  count, then each Waypoint: modId, id, name, dimension, packed position, flags, then its optional properties
+ * </pre>
+ * Positions are packed into a long when X and Z are within &plusmn;2^25 and Y within -2048..2047.  Otherwise the long
+ * is {@link Long#MIN_VALUE}, followed by X, Y and Z as ints (since version 2).
+ * Strings, icons and groups are referred to by their index in their table, so a modId or dimension shared by many
+ * waypoints is stored once, and identical icons are stored once.  Optional properties are only written when
+ * a flag says they are present.
+ * <p>
+ * Icons are saved by their ResourceLocation; icons which only have a BufferedImage aren't saved, the same as with
+ * JSON.  Group default displays aren't saved either.
+ */
+@ParametersAreNonnullByDefault
+public final class WaypointCodec
+{
+    /**
+     * Magic number at the start of the format: "JMWP"
+     */
+    public static final int MAGIC = 0x4A4D5750;
+
+    /**
+     * Current format version.
+     */
+    public static final short FORMAT_VERSION = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int NONE = -1;
+
+    private static final int HAS_COLOR = 1;
+    private static final int HAS_BACKGROUND_COLOR = 1 << 1;
+    private static final int HAS_ICON = 1 << 2;
+    private static final int HAS_DISPLAY_DIMENSIONS = 1 << 3;
+    private static final int HAS_GROUP = 1 << 4;
+    private static final int PERSISTENT = 1 << 5;
+    private static final int EDITABLE = 1 << 6;
+
+    // Position packing, the same layout Minecraft uses: 26 bits of X, 26 of Z, 12 of Y
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
+
+    /**
+     * Written instead of a packed position which doesn't fit, followed by the coordinates as ints.  It would unpack
+     * to X = -2^25, so that X is written unpacked as well.
+     */
+    private static final long UNPACKED_POSITION = Long.MIN_VALUE;
+
+    private WaypointCodec()
+    {
+    }
+
+    /**
+     * Writes waypoints, and the groups they belong to.  The channel is not closed.
+     *
+     * @param waypoints the waypoints
+     * @param channel   where to write them
+     * @throws IOException if they can't be written
+     */
+    public static void write(Collection<Waypoint> waypoints, WritableByteChannel channel) throws IOException
+    {
+        Tables tables = new Tables();
+        for (Waypoint waypoint : waypoints)
+        {
+            tables.add(waypoint);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+
+        out.writeInt(tables.strings.size());
+        for (String string : tables.strings)
+        {
+            out.writeUTF(string);
+        }
+
+        out.writeInt(tables.icons.size());
+        for (MapImage icon : tables.icons)
+        {
+            out.writeInt(tables.stringIndex(icon.getImageLocation().toString()));
+            out.writeInt(icon.getColor());
+            out.writeFloat(icon.getOpacity());
+            out.writeInt(icon.getTextureX());
+            out.writeInt(icon.getTextureY());
+            out.writeInt(icon.getTextureWidth());
+            out.writeInt(icon.getTextureHeight());
+            out.writeShort(icon.getRotation());
+            out.writeDouble(icon.getDisplayWidth());
+            out.writeDouble(icon.getDisplayHeight());
+            out.writeDouble(icon.getAnchorX());
+            out.writeDouble(icon.getAnchorY());
+        }
+
+        out.writeInt(tables.groups.size());
+        for (WaypointGroup group : tables.groups)
+        {
+            out.writeInt(tables.stringIndex(group.getModId()));
+            out.writeInt(tables.stringIndex(group.getId()));
+            out.writeInt(tables.stringIndex(group.getName()));
+            out.writeInt(group.getDisplayOrder());
+            writeDisplay(out, tables, group.hasColor() ? group.getColor() : null,
+                    group.hasBackgroundColor() ? group.getBackgroundColor() : null,
+                    group.hasIcon() ? group.getIcon() : null,
+                    group.hasDisplayDimensions() ? group.getDisplayDimensions() : null, 0, NONE);
+        }
+
+        out.writeInt(waypoints.size());
+        for (Waypoint waypoint : waypoints)
+        {
+            BlockPos pos = waypoint.getPosition();
+            out.writeInt(tables.stringIndex(waypoint.getModId()));
+            out.writeInt(tables.stringIndex(waypoint.getId()));
+            out.writeInt(tables.stringIndex(waypoint.getName()));
+            out.writeInt(tables.stringIndex(waypoint.getDimension()));
+            if (fitsPacked(pos.getX(), pos.getY(), pos.getZ()))
+            {
+                out.writeLong(pack(pos.getX(), pos.getY(), pos.getZ()));
+            }
+            else
+            {
+                out.writeLong(UNPACKED_POSITION);
+                out.writeInt(pos.getX());
+                out.writeInt(pos.getY());
+                out.writeInt(pos.getZ());
+            }
+            int flags = (waypoint.isPersistent() ? PERSISTENT : 0) | (waypoint.isEditable() ? EDITABLE : 0);
+            // Only the waypoint's own properties, not those it inherits from its group
+            writeDisplay(out, tables, waypoint.hasColor() ? waypoint.getColor() : null,
+                    waypoint.hasBackgroundColor() ? waypoint.getBackgroundColor() : null,
+                    waypoint.hasIcon() ? waypoint.getIcon() : null,
+                    waypoint.hasDisplayDimensions() ? waypoint.getDisplayDimensions() : null,
+                    flags, waypoint.getGroup() == null ? NONE : tables.groupIndices.get(waypoint.getGroup()));
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads waypoints written by {@link #write(Collection, WritableByteChannel)}.  The channel is not closed.
+     *
+     * @param channel where to read them from
+     * @return the waypoints, in the order written
+     * @throws IOException if they can't be read, or were written by a newer version of the format
+     */
+    public static List<Waypoint> read(ReadableByteChannel channel) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+        if (in.readInt() != MAGIC)
+        {
+            throw new IOException("Not a waypoint file");
+        }
+        short version = in.readShort();
+        if (version > FORMAT_VERSION)
+        {
+            throw new IOException("Waypoint file format " + version + " is newer than " + FORMAT_VERSION);
+        }
+
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++)
+        {
+            strings[i] = in.readUTF();
+        }
+
+        MapImage[] icons = new MapImage[in.readInt()];
+        for (int i = 0; i < icons.length; i++)
+        {
+            ResourceLocation location = new ResourceLocation(strings[in.readInt()]);
+            int color = in.readInt();
+            float opacity = in.readFloat();
+            int textureX = in.readInt();
+            int textureY = in.readInt();
+            int textureWidth = in.readInt();
+            int textureHeight = in.readInt();
+            icons[i] = new MapImage(location, textureX, textureY, textureWidth, textureHeight, color, opacity)
+                    .setRotation(in.readShort())
+                    .setDisplayWidth(in.readDouble())
+                    .setDisplayHeight(in.readDouble())
+                    .setAnchorX(in.readDouble())
+                    .setAnchorY(in.readDouble());
+        }
+
+        WaypointGroup[] groups = new WaypointGroup[in.readInt()];
+        for (int i = 0; i < groups.length; i++)
+        {
+            WaypointGroup group = new WaypointGroup(strings[in.readInt()], strings[in.readInt()], strings[in.readInt()]);
+            group.setDisplayOrder(in.readInt());
+            readDisplay(in, strings, icons, group);
+            groups[i] = group;
+        }
+
+        int count = in.readInt();
+        List<Waypoint> waypoints = new ArrayList<Waypoint>(count);
+        for (int i = 0; i < count; i++)
+        {
+            String modId = strings[in.readInt()];
+            String id = strings[in.readInt()];
+            String name = strings[in.readInt()];
+            String dimension = strings[in.readInt()];
+            long packed = in.readLong();
+            BlockPos pos = version >= 2 && packed == UNPACKED_POSITION
+                    ? new BlockPos(in.readInt(), in.readInt(), in.readInt())
+                    : new BlockPos(unpackX(packed), unpackY(packed), unpackZ(packed));
+            Waypoint waypoint = new Waypoint(modId, id, name, dimension, pos);
+            int flags = readDisplay(in, strings, icons, waypoint);
+            if ((flags & HAS_GROUP) != 0)
+            {
+                waypoint.setGroup(groups[in.readInt()]);
+            }
+            waypoint.setEditable((flags & EDITABLE) != 0);
+            waypoint.setPersistent((flags & PERSISTENT) != 0);
+            // Freshly loaded, so nothing needs saving
+            waypoint.setDirty(false);
+            waypoints.add(waypoint);
+        }
+        return waypoints;
+    }
+
+    /**
+     * Reads waypoints from the JSON array they were saved in before this format existed.  Waypoints which can't
+     * be read are skipped.
+     *
+     * @param reader the JSON
+     * @return the waypoints
+     */
+    public static List<Waypoint> readJson(Reader reader)
+    {
+        JsonElement root = JsonParser.parseReader(reader);
+        JsonArray array = root.isJsonArray() ? root.getAsJsonArray() : new JsonArray();
+        if (root.isJsonObject())
+        {
+            array.add(root);
+        }
+
+        HashMap<String, WaypointGroup> groups = new HashMap<String, WaypointGroup>();
+        List<Waypoint> waypoints = new ArrayList<Waypoint>(array.size());
+        for (JsonElement element : array)
+        {
+            try
+            {
+                JsonObject json = element.getAsJsonObject();
+                Waypoint waypoint = new Waypoint(json.get("modId").getAsString(), json.get("id").getAsString(),
+                        json.get("name").getAsString(), json.get("dim").getAsString(), readJsonPos(json.get("pos")));
+                readJsonDisplay(json, waypoint);
+                if (json.has("persistent"))
+                {
+                    waypoint.setPersistent(json.get("persistent").getAsBoolean());
+                }
+                if (json.has("editable"))
+                {
+                    waypoint.setEditable(json.get("editable").getAsBoolean());
+                }
+                if (json.has("group") && json.get("group").isJsonObject())
+                {
+                    JsonObject groupJson = json.getAsJsonObject("group");
+                    String key = groupJson.get("modId").getAsString() + ":" + groupJson.get("id").getAsString();
+                    WaypointGroup group = groups.get(key);
+                    if (group == null)
+                    {
+                        group = new WaypointGroup(groupJson.get("modId").getAsString(), groupJson.get("id").getAsString(),
+                                groupJson.get("name").getAsString());
+                        if (groupJson.has("order"))
+                        {
+                            group.setDisplayOrder(groupJson.get("order").getAsInt());
+                        }
+                        readJsonDisplay(groupJson, group);
+                        groups.put(key, group);
+                    }
+                    waypoint.setGroup(group);
+                }
+                waypoint.setDirty(false);
+                waypoints.add(waypoint);
+            }
+            catch (RuntimeException e)
+            {
+                PluginHelper.LOGGER.warn("Skipping waypoint which can't be read: " + element + " (" + e + ")");
+            }
+        }
+        return waypoints;
+    }
+
+    private static void writeDisplay(DataOutputStream out, Tables tables, @Nullable Integer color,
+                                     @Nullable Integer bgColor, @Nullable MapImage icon, @Nullable String[] dimensions,
+                                     int flags, int groupIndex) throws IOException
+    {
+        Integer iconIndex = icon == null ? null : tables.iconIndices.get(Tables.iconKey(icon));
+        flags |= (color != null ? HAS_COLOR : 0)
+                | (bgColor != null ? HAS_BACKGROUND_COLOR : 0)
+                | (iconIndex != null ? HAS_ICON : 0)
+                | (dimensions != null ? HAS_DISPLAY_DIMENSIONS : 0)
+                | (groupIndex != NONE ? HAS_GROUP : 0);
+        out.writeByte(flags);
+        if (color != null)
+        {
+            out.writeInt(color);
+        }
+        if (bgColor != null)
+        {
+            out.writeInt(bgColor);
+        }
+        if (iconIndex != null)
+        {
+            out.writeInt(iconIndex);
+        }
+        if (dimensions != null)
+        {
+            out.writeShort(dimensions.length);
+            for (String dimension : dimensions)
+            {
+                out.writeInt(tables.stringIndex(dimension));
+            }
+        }
+        if (groupIndex != NONE)
+        {
+            out.writeInt(groupIndex);
+        }
+    }
+
+    /**
+     * Reads the properties written by writeDisplay, except the group.
+     *
+     * @return the flags
+     */
+    private static int readDisplay(DataInputStream in, String[] strings, MapImage[] icons,
+                                   WaypointBase<?> target) throws IOException
+    {
+        int flags = in.readUnsignedByte();
+        if ((flags & HAS_COLOR) != 0)
+        {
+            target.setColor(in.readInt());
+        }
+        if ((flags & HAS_BACKGROUND_COLOR) != 0)
+        {
+            target.setBackgroundColor(in.readInt());
+        }
+        if ((flags & HAS_ICON) != 0)
+        {
+            target.setIcon(icons[in.readInt()]);
+        }
+        if ((flags & HAS_DISPLAY_DIMENSIONS) != 0)
+        {
+            String[] dimensions = new String[in.readUnsignedShort()];
+            for (int i = 0; i < dimensions.length; i++)
+            {
+                dimensions[i] = strings[in.readInt()];
+            }
+            target.setDisplayDimensions(dimensions);
+        }
+        return flags;
+    }
+
+    private static void readJsonDisplay(JsonObject json, WaypointBase<?> target)
+    {
+        if (json.has("color") && !json.get("color").isJsonNull())
+        {
+            target.setColor(json.get("color").getAsInt());
+        }
+        if (json.has("bgColor") && !json.get("bgColor").isJsonNull())
+        {
+            target.setBackgroundColor(json.get("bgColor").getAsInt());
+        }
+        if (json.has("displayDims") && json.get("displayDims").isJsonArray())
+        {
+            JsonArray dims = json.getAsJsonArray("displayDims");
+            String[] dimensions = new String[dims.size()];
+            for (int i = 0; i < dimensions.length; i++)
+            {
+                dimensions[i] = dims.get(i).getAsString();
+            }
+            target.setDisplayDimensions(dimensions);
+        }
+        if (json.has("icon") && json.get("icon").isJsonObject())
+        {
+            MapImage icon = readJsonIcon(json.getAsJsonObject("icon"));
+            if (icon != null)
+            {
+                target.setIcon(icon);
+            }
+        }
+    }
+
+    @Nullable
+    private static MapImage readJsonIcon(JsonObject json)
+    {
+        JsonElement location = json.get("imageLocation");
+        if (location == null || location.isJsonNull())
+        {
+            return null;
+        }
+        // Gson writes a ResourceLocation either as a string or as its fields, depending on its adapters
+        ResourceLocation imageLocation = location.isJsonPrimitive()
+                ? new ResourceLocation(location.getAsString())
+                : new ResourceLocation(member(location.getAsJsonObject(), 0, "namespace", "f_135804_").getAsString(),
+                member(location.getAsJsonObject(), 1, "path", "f_135805_").getAsString());
+
+        MapImage icon = new MapImage(imageLocation, intOf(json, "textureX", 0), intOf(json, "textureY", 0),
+                intOf(json, "textureWidth", 1), intOf(json, "textureHeight", 1),
+                intOf(json, "color", 0xffffff), json.has("opacity") ? json.get("opacity").getAsFloat() : 1f);
+        icon.setRotation(intOf(json, "rotation", 0));
+        if (json.has("displayWidth"))
+        {
+            icon.setDisplayWidth(json.get("displayWidth").getAsDouble());
+        }
+        if (json.has("displayHeight"))
+        {
+            icon.setDisplayHeight(json.get("displayHeight").getAsDouble());
+        }
+        if (json.has("anchorX"))
+        {
+            icon.setAnchorX(json.get("anchorX").getAsDouble());
+        }
+        if (json.has("anchorY"))
+        {
+            icon.setAnchorY(json.get("anchorY").getAsDouble());
+        }
+        return icon;
+    }
+
+    /**
+     * Reads a BlockPos written by Gson: an object of its Vec3i fields, or an array of x, y, z.
+     */
+    private static BlockPos readJsonPos(JsonElement pos)
+    {
+        if (pos.isJsonArray())
+        {
+            JsonArray xyz = pos.getAsJsonArray();
+            return new BlockPos(xyz.get(0).getAsInt(), xyz.get(1).getAsInt(), xyz.get(2).getAsInt());
+        }
+        JsonObject xyz = pos.getAsJsonObject();
+        return new BlockPos(member(xyz, 0, "x", "f_123285_").getAsInt(), member(xyz, 1, "y", "f_123286_").getAsInt(),
+                member(xyz, 2, "z", "f_123289_").getAsInt());
+    }
+
+    /**
+     * Gets a field Gson wrote reflectively.  Its name depends on the mappings of the client which wrote it: the
+     * development name, or the SRG name in production.  If neither is there, the field is taken by position, since
+     * Gson writes fields in declaration order.
+     */
+    private static JsonElement member(JsonObject json, int index, String... names)
+    {
+        for (String name : names)
+        {
+            JsonElement element = json.get(name);
+            if (element != null)
+            {
+                return element;
+            }
+        }
+        int i = 0;
+        for (Map.Entry<String, JsonElement> entry : json.entrySet())
+        {
+            if (i++ == index)
+            {
+                return entry.getValue();
+            }
+        }
+        throw new JsonParseException("Missing " + names[0] + " in " + json);
+    }
+
+    private static int intOf(JsonObject json, String member, int defaultValue)
+    {
+        JsonElement element = json.get(member);
+        return element == null || element.isJsonNull() ? defaultValue : element.getAsInt();
+    }
+
+    /**
+     * Whether pack keeps a position intact.  X = -2^25 is left out so it can't be mistaken for UNPACKED_POSITION.
+     */
+    static boolean fitsPacked(int x, int y, int z)
+    {
+        int xzLimit = 1 << (XZ_BITS - 1);
+        int yLimit = 1 << (Y_BITS - 1);
+        return x > -xzLimit && x < xzLimit && z >= -xzLimit && z < xzLimit && y >= -yLimit && y < yLimit;
+    }
+
+    /**
+     * Packs a position; coordinates which don't {@link #fitsPacked(int, int, int) fit} are truncated.
+     */
+    static long pack(int x, int y, int z)
+    {
+        long xzMask = (1L << XZ_BITS) - 1;
+        long yMask = (1L << Y_BITS) - 1;
+        return ((x & xzMask) << (XZ_BITS + Y_BITS)) | ((z & xzMask) << Y_BITS) | (y & yMask);
+    }
+
+    static int unpackX(long packed)
+    {
+        return (int) (packed << (64 - XZ_BITS * 2 - Y_BITS) >> (64 - XZ_BITS));
+    }
+
+    static int unpackY(long packed)
+    {
+        return (int) (packed << (64 - Y_BITS) >> (64 - Y_BITS));
+    }
+
+    static int unpackZ(long packed)
+    {
+        return (int) (packed << (64 - XZ_BITS - Y_BITS) >> (64 - XZ_BITS));
+    }
+
+    /**
+     * The string, icon and group tables, built before anything is written.
+     */
+    private static class Tables
+    {
+        final List<String> strings = new ArrayList<String>();
+        final HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+        final List<MapImage> icons = new ArrayList<MapImage>();
+        final HashMap<List<Object>, Integer> iconIndices = new HashMap<List<Object>, Integer>();
+        final List<WaypointGroup> groups = new ArrayList<WaypointGroup>();
+        final Map<WaypointGroup, Integer> groupIndices = new IdentityHashMap<WaypointGroup, Integer>();
+
+        void add(Waypoint waypoint)
+        {
+            addString(waypoint.getModId());
+            addString(waypoint.getId());
+            addString(waypoint.getName());
+            addString(waypoint.getDimension());
+            addDisplay(waypoint.hasIcon() ? waypoint.getIcon() : null,
+                    waypoint.hasDisplayDimensions() ? waypoint.getDisplayDimensions() : null);
+
+            WaypointGroup group = waypoint.getGroup();
+            if (group != null && !groupIndices.containsKey(group))
+            {
+                groupIndices.put(group, groups.size());
+                groups.add(group);
+                addString(group.getModId());
+                addString(group.getId());
+                addString(group.getName());
+                addDisplay(group.hasIcon() ? group.getIcon() : null,
+                        group.hasDisplayDimensions() ? group.getDisplayDimensions() : null);
+            }
+        }
+
+        void addDisplay(@Nullable MapImage icon, @Nullable String[] dimensions)
+        {
+            if (icon != null && icon.getImageLocation() != null && !iconIndices.containsKey(iconKey(icon)))
+            {
+                iconIndices.put(iconKey(icon), icons.size());
+                icons.add(icon);
+                addString(icon.getImageLocation().toString());
+            }
+            if (dimensions != null)
+            {
+                for (String dimension : dimensions)
+                {
+                    addString(dimension);
+                }
+            }
+        }
+
+        void addString(String string)
+        {
+            if (!stringIndices.containsKey(string))
+            {
+                stringIndices.put(string, strings.size());
+                strings.add(string);
+            }
+        }
+
+        /**
+         * MapImage.equals ignores rotation and display size, so those are part of the key too.
+         */
+        static List<Object> iconKey(MapImage icon)
+        {
+            return Arrays.<Object>asList(icon, icon.getRotation(), icon.getDisplayWidth(), icon.getDisplayHeight());
+        }
+
+        int stringIndex(String string)
+        {
+            return stringIndices.get(string);
+        }
+    }
+}
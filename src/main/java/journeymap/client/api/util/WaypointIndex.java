@@ -0,0 +1,424 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import journeymap.client.api.display.DisplayKey;
+import journeymap.client.api.display.Waypoint;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.phys.AABB;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Spatial index of Waypoints, for finding the waypoints near a position without checking every waypoint.
+ * <p>
+ * A waypoint is indexed in each of its {@link Waypoint#getDisplayDimensions()}, at its
+ * {@link Waypoint#getPosition(String) position in that dimension}, so a Nether waypoint shown in the Overworld is
+ * found at its Overworld coordinates.  Distances are horizontal (X and Z).
+ * <p>
+ * Each dimension has its own 2-d tree.  Updates don't rebuild it: added waypoints wait in a short list and removed
+ * ones are marked, and both are checked by queries.  The tree is only rebuilt when those changes grow past an eighth
+ * of its size, so updates cost O(log n) amortized.
+ * <p>
+ * Waypoints are keyed the same way as {@link journeymap.client.api.IClientAPI#show}, so putting a waypoint with the
+ * same modId and id replaces the previous one.  If a waypoint's position or display dimensions change,
+ * call {@link #put(Waypoint)} again to update the index.
+ * <p>
+ * Not thread-safe.
+ */
+@ParametersAreNonnullByDefault
+public class WaypointIndex
+{
+    /**
+     * Changes a tree tolerates before being rebuilt, at minimum.
+     */
+    private static final int MIN_CHANGES_BEFORE_REBUILD = 64;
+
+    private final HashMap<String, Tree> trees = new HashMap<String, Tree>();
+    private final HashMap<DisplayKey, Point[]> entries = new HashMap<DisplayKey, Point[]>();
+
+    /**
+     * Adds a waypoint to the index, or updates it if it was already added.
+     *
+     * @param waypoint the waypoint
+     */
+    public void put(Waypoint waypoint)
+    {
+        remove(waypoint);
+
+        String[] dimensions = waypoint.getDisplayDimensions();
+        Point[] points = new Point[dimensions.length];
+        for (int i = 0; i < dimensions.length; i++)
+        {
+            Tree tree = trees.get(dimensions[i]);
+            if (tree == null)
+            {
+                tree = new Tree();
+                trees.put(dimensions[i], tree);
+            }
+            points[i] = new Point(waypoint, tree, waypoint.getPosition(dimensions[i]));
+            tree.add(points[i]);
+        }
+        entries.put(waypoint.getKey(), points);
+    }
+
+    /**
+     * Removes a waypoint from the index.
+     *
+     * @param waypoint the waypoint
+     * @return true if it was in the index
+     */
+    public boolean remove(Waypoint waypoint)
+    {
+        Point[] points = entries.remove(waypoint.getKey());
+        if (points == null)
+        {
+            return false;
+        }
+        for (Point point : points)
+        {
+            point.tree.remove(point);
+        }
+        return true;
+    }
+
+    /**
+     * Whether the waypoint is in the index.
+     *
+     * @param waypoint the waypoint
+     * @return true if indexed
+     */
+    public boolean contains(Waypoint waypoint)
+    {
+        return entries.containsKey(waypoint.getKey());
+    }
+
+    /**
+     * Removes all waypoints.
+     */
+    public void clear()
+    {
+        trees.clear();
+        entries.clear();
+    }
+
+    /**
+     * Number of waypoints in the index.
+     *
+     * @return the size
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Finds the waypoints displayed in a dimension which are nearest to a position.
+     *
+     * @param dimension the dimension
+     * @param x         block x
+     * @param z         block z
+     * @param count     maximum number of waypoints
+     * @return the waypoints, nearest first
+     */
+    public List<Waypoint> nearest(String dimension, double x, double z, int count)
+    {
+        Tree tree = trees.get(dimension);
+        if (tree == null || count <= 0)
+        {
+            return Collections.emptyList();
+        }
+
+        // Farthest candidate at the head, so it can be replaced by anything nearer
+        PriorityQueue<Point> candidates = new PriorityQueue<Point>(count + 1,
+                Comparator.comparingDouble((Point point) -> point.distanceSq(x, z)).reversed());
+        tree.nearest(x, z, count, candidates);
+
+        Waypoint[] result = new Waypoint[candidates.size()];
+        for (int i = result.length - 1; i >= 0; i--)
+        {
+            result[i] = candidates.poll().waypoint;
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Finds the waypoints displayed in a dimension within a horizontal distance of a position.
+     *
+     * @param dimension the dimension
+     * @param x         block x
+     * @param z         block z
+     * @param radius    distance in blocks
+     * @return the waypoints, in no particular order
+     */
+    public List<Waypoint> withinRadius(String dimension, double x, double z, double radius)
+    {
+        ArrayList<Waypoint> result = new ArrayList<Waypoint>();
+        double radiusSq = radius * radius;
+        query(dimension, x - radius, z - radius, x + radius, z + radius, point -> {
+            if (point.distanceSq(x, z) <= radiusSq)
+            {
+                result.add(point.waypoint);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Finds the waypoints displayed in a dimension within the bounds.
+     *
+     * @param dimension the dimension
+     * @param bounds    the area of blocks, including the Y axis
+     * @return the waypoints, in no particular order
+     */
+    public List<Waypoint> within(String dimension, AABB bounds)
+    {
+        ArrayList<Waypoint> result = new ArrayList<Waypoint>();
+        query(dimension, bounds.minX, bounds.minZ, bounds.maxX, bounds.maxZ, point -> {
+            if (point.y >= bounds.minY && point.y <= bounds.maxY)
+            {
+                result.add(point.waypoint);
+            }
+        });
+        return result;
+    }
+
+    private void query(String dimension, double minX, double minZ, double maxX, double maxZ, Consumer<Point> visitor)
+    {
+        Tree tree = trees.get(dimension);
+        if (tree != null)
+        {
+            tree.query(minX, minZ, maxX, maxZ, visitor);
+        }
+    }
+
+    /**
+     * A waypoint at its position in one dimension.
+     */
+    private static class Point
+    {
+        final Waypoint waypoint;
+        final Tree tree;
+        final int x;
+        final int y;
+        final int z;
+        boolean removed;
+
+        Point(Waypoint waypoint, Tree tree, BlockPos pos)
+        {
+            this.waypoint = waypoint;
+            this.tree = tree;
+            this.x = pos.getX();
+            this.y = pos.getY();
+            this.z = pos.getZ();
+        }
+
+        double distanceSq(double fromX, double fromZ)
+        {
+            double dx = x - fromX;
+            double dz = z - fromZ;
+            return dx * dx + dz * dz;
+        }
+    }
+
+    /**
+     * 2-d tree of one dimension, stored in an array: the middle of each range is the node, split on X at even depths
+     * and Z at odd depths, with the lower half of the range on its left and the upper half on its right.
+     */
+    private static class Tree
+    {
+        static final Comparator<Point> BY_X = Comparator.comparingInt((Point point) -> point.x);
+        static final Comparator<Point> BY_Z = Comparator.comparingInt((Point point) -> point.z);
+
+        Point[] nodes = new Point[0];
+        final ArrayList<Point> pending = new ArrayList<Point>();
+        int removed;
+
+        void add(Point point)
+        {
+            pending.add(point);
+            rebuildIfStale();
+        }
+
+        void remove(Point point)
+        {
+            point.removed = true;
+            removed++;
+        }
+
+        void query(double minX, double minZ, double maxX, double maxZ, Consumer<Point> visitor)
+        {
+            rebuildIfStale();
+            query(0, nodes.length, 0, minX, minZ, maxX, maxZ, visitor);
+            for (Point point : pending)
+            {
+                if (!point.removed && point.x >= minX && point.x <= maxX && point.z >= minZ && point.z <= maxZ)
+                {
+                    visitor.accept(point);
+                }
+            }
+        }
+
+        void nearest(double x, double z, int count, PriorityQueue<Point> candidates)
+        {
+            rebuildIfStale();
+            nearest(0, nodes.length, 0, x, z, count, candidates);
+            for (Point point : pending)
+            {
+                if (!point.removed)
+                {
+                    offer(point, x, z, count, candidates);
+                }
+            }
+        }
+
+        private void query(int from, int to, int depth, double minX, double minZ, double maxX, double maxZ,
+                           Consumer<Point> visitor)
+        {
+            if (from >= to)
+            {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            Point point = nodes[mid];
+            if (!point.removed && point.x >= minX && point.x <= maxX && point.z >= minZ && point.z <= maxZ)
+            {
+                visitor.accept(point);
+            }
+
+            int value = depth % 2 == 0 ? point.x : point.z;
+            double min = depth % 2 == 0 ? minX : minZ;
+            double max = depth % 2 == 0 ? maxX : maxZ;
+            if (min <= value)
+            {
+                query(from, mid, depth + 1, minX, minZ, maxX, maxZ, visitor);
+            }
+            if (max >= value)
+            {
+                query(mid + 1, to, depth + 1, minX, minZ, maxX, maxZ, visitor);
+            }
+        }
+
+        private void nearest(int from, int to, int depth, double x, double z, int count, PriorityQueue<Point> candidates)
+        {
+            if (from >= to)
+            {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            Point point = nodes[mid];
+            if (!point.removed)
+            {
+                offer(point, x, z, count, candidates);
+            }
+
+            double offset = depth % 2 == 0 ? x - point.x : z - point.z;
+            boolean lowerFirst = offset <= 0;
+            if (lowerFirst)
+            {
+                nearest(from, mid, depth + 1, x, z, count, candidates);
+            }
+            else
+            {
+                nearest(mid + 1, to, depth + 1, x, z, count, candidates);
+            }
+
+            // The other side can only hold something nearer if the splitting line is nearer than the farthest candidate
+            if (candidates.size() < count || offset * offset < candidates.peek().distanceSq(x, z))
+            {
+                if (lowerFirst)
+                {
+                    nearest(mid + 1, to, depth + 1, x, z, count, candidates);
+                }
+                else
+                {
+                    nearest(from, mid, depth + 1, x, z, count, candidates);
+                }
+            }
+        }
+
+        private static void offer(Point point, double x, double z, int count, PriorityQueue<Point> candidates)
+        {
+            if (candidates.size() < count)
+            {
+                candidates.add(point);
+            }
+            else if (point.distanceSq(x, z) < candidates.peek().distanceSq(x, z))
+            {
+                candidates.poll();
+                candidates.add(point);
+            }
+        }
+
+        private void rebuildIfStale()
+        {
+            int live = nodes.length + pending.size() - removed;
+            if (pending.size() + removed > Math.max(MIN_CHANGES_BEFORE_REBUILD, live / 8))
+            {
+                rebuild();
+            }
+        }
+
+        private void rebuild()
+        {
+            Point[] rebuilt = new Point[nodes.length + pending.size() - removed];
+            int size = 0;
+            for (Point point : nodes)
+            {
+                if (!point.removed)
+                {
+                    rebuilt[size++] = point;
+                }
+            }
+            for (Point point : pending)
+            {
+                if (!point.removed)
+                {
+                    rebuilt[size++] = point;
+                }
+            }
+            build(rebuilt, 0, size, 0);
+            nodes = rebuilt;
+            pending.clear();
+            removed = 0;
+        }
+
+        private static void build(Point[] points, int from, int to, int depth)
+        {
+            if (to - from <= 1)
+            {
+                return;
+            }
+            Arrays.sort(points, from, to, depth % 2 == 0 ? BY_X : BY_Z);
+            int mid = (from + to) >>> 1;
+            build(points, from, mid, depth + 1);
+            build(points, mid + 1, to, depth + 1);
+        }
+    }
+}
@@ -0,0 +1,638 @@
+/*
+ * JourneyMap API (http://journeymap.info)
+ * http://github.com/TeamJM/journeymap-api
+ *
+ * Copyright (c) 2011-2016 Techbrew.  All Rights Reserved.
+ * The following limited rights are granted to you:
+ *
+ * You MAY:
+ *  + Write your own code that uses the API source code in journeymap.* packages as a dependency.
+ *  + Write and distribute your own code that uses, modifies, or extends the example source code in example.* packages
+ *  + Fork and modify any source code for the purpose of submitting Pull Requests to the TeamJM/journeymap-api repository.
+ *    Submitting new or modified code to the repository means that you are granting Techbrew all rights to the submitted code.
+ *
+ * You MAY NOT:
+ *  - Distribute source code or classes (whether modified or not) from journeymap.* packages.
+ *  - Submit any code to the TeamJM/journeymap-api repository with a different license than this one.
+ *  - Use code or artifacts from the repository in any way not explicitly granted by this license.
+ *
+ */
+
+package journeymap.client.api.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import journeymap.client.api.display.Waypoint;
+import journeymap.client.api.model.WaypointBase;
+import net.minecraft.core.BlockPos;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Saves persistent waypoints incrementally: each save appends only the fields which changed to a memory-mapped
+ * journal, and a compactor folds the journal into a {@link WaypointCodec} snapshot from time to time.
+ * <p>
+ * The directory holds {@code waypoints.bin}, the snapshot, and {@code journal.N.log} files.  Each journal has a
+ * generation N, and the snapshot records the last generation it includes; on opening, the snapshot is loaded and
+ * newer journals are replayed on top of it.  Journal records carry a CRC, so a record torn by a crash is detected
+ * and dropped along with anything after it.
+ * <p>
+ * Records hold field values rather than differences, so replaying a record more than once is harmless.
+ * <p>
+ * The journal keeps its own copies of the waypoints, built from the records it writes, and never changes a copy once
+ * it has been stored; callers go on changing their waypoints while snapshots are encoded from the copies.
+ * <p>
+ * Journal writes survive the game crashing as soon as they are made, since the operating system owns the mapped
+ * pages; call {@link #flush()} to force them to the disk as well.
+ * <p>
+ * Thread-safe.
+ */
+@ParametersAreNonnullByDefault
+public class WaypointJournal implements Closeable
+{
+    private static final Logger LOGGER = LogManager.getLogger("journeymap");
+    private static final String SNAPSHOT = "waypoints.bin";
+    private static final String JOURNAL_PREFIX = "journal.";
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final int INITIAL_CAPACITY = 1 << 20;
+
+    /**
+     * Header of each record: body length and CRC32 of the body.
+     */
+    private static final int HEADER_BYTES = 8;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_FIELDS = 2;
+    private static final byte RECORD_REMOVE = 3;
+
+    /**
+     * Fields written as field records; changes to any others are written as a whole waypoint.
+     */
+    private static final int FIELD_RECORD_MASK = WaypointBase.DIRTY_NAME | WaypointBase.DIRTY_COLOR
+            | WaypointBase.DIRTY_BACKGROUND_COLOR | WaypointBase.DIRTY_DISPLAY_DIMENSIONS
+            | Waypoint.DIRTY_POSITION | Waypoint.DIRTY_FLAGS;
+
+    private final Path directory;
+    private final LinkedHashMap<String, Waypoint> waypoints = new LinkedHashMap<String, Waypoint>();
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+    private final Object compactionLock = new Object();
+
+    private long generation;
+    private FileChannel channel;
+    private MappedByteBuffer journal;
+    private ScheduledExecutorService compactor;
+
+    /**
+     * Opens the journal in a directory, loading the snapshot and replaying the journals.
+     *
+     * @param directory the directory, which is created if needed
+     * @throws IOException if the snapshot can't be read or the journal can't be opened
+     */
+    public WaypointJournal(Path directory) throws IOException
+    {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        long snapshotGeneration = -1;
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot))
+        {
+            try (FileChannel in = FileChannel.open(snapshot))
+            {
+                DataInputStream header = new DataInputStream(Channels.newInputStream(in));
+                snapshotGeneration = header.readLong();
+                for (Waypoint waypoint : WaypointCodec.read(in))
+                {
+                    waypoint.setDirty(false);
+                    waypoints.put(waypoint.getGuid(), waypoint);
+                }
+            }
+        }
+
+        // Journals left behind by a compaction which finished writing the snapshot
+        deleteJournals(snapshotGeneration);
+
+        NavigableMap<Long, Path> journals = findJournals().tailMap(snapshotGeneration, false);
+        for (Long journalGeneration : journals.keySet())
+        {
+            if (!journalGeneration.equals(journals.lastKey()))
+            {
+                replay(FileChannel.open(journals.get(journalGeneration), StandardOpenOption.READ, StandardOpenOption.WRITE), true);
+            }
+        }
+
+        generation = journals.isEmpty() ? snapshotGeneration + 1 : Math.max(journals.lastKey(), snapshotGeneration + 1);
+        channel = FileChannel.open(journalPath(generation), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay(channel, false);
+    }
+
+    /**
+     * Copies of the saved waypoints, including every change recorded so far.
+     *
+     * @return the waypoints
+     * @throws IOException if the waypoints can't be copied
+     */
+    public List<Waypoint> getWaypoints() throws IOException
+    {
+        List<Waypoint> saved;
+        synchronized (this)
+        {
+            saved = new ArrayList<Waypoint>(waypoints.values());
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        WaypointCodec.write(saved, Channels.newChannel(encoded));
+        List<Waypoint> copies = WaypointCodec.read(Channels.newChannel(new ByteArrayInputStream(encoded.toByteArray())));
+        for (Waypoint copy : copies)
+        {
+            copy.setDirty(false);
+        }
+        return copies;
+    }
+
+    /**
+     * Saves the dirty fields of a waypoint and marks it clean.  A waypoint which isn't persistent is removed instead.
+     *
+     * @param waypoint the waypoint
+     * @throws IOException if the journal can't be written
+     */
+    public synchronized void record(Waypoint waypoint) throws IOException
+    {
+        if (!waypoint.isPersistent())
+        {
+            remove(waypoint);
+            return;
+        }
+        if (!waypoint.isDirty())
+        {
+            return;
+        }
+
+        int fields = waypoint.getDirtyFields();
+        if (!waypoints.containsKey(waypoint.getGuid()) || (fields & ~FIELD_RECORD_MASK) != 0)
+        {
+            startRecord(RECORD_PUT, waypoint);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            WaypointCodec.write(Collections.singletonList(waypoint), Channels.newChannel(encoded));
+            record.writeInt(encoded.size());
+            encoded.writeTo(record);
+        }
+        else
+        {
+            startRecord(RECORD_FIELDS, waypoint);
+            writeFields(waypoint, fields);
+        }
+        append();
+        // Only once the record is written, so a failed write is retried as the same kind of record
+        apply(new DataInputStream(new ByteArrayInputStream(recordBytes.toByteArray())));
+        waypoint.setDirty(false);
+    }
+
+    /**
+     * Saves that a waypoint has been deleted.
+     *
+     * @param waypoint the waypoint
+     * @throws IOException if the journal can't be written
+     */
+    public synchronized void remove(Waypoint waypoint) throws IOException
+    {
+        if (waypoints.containsKey(waypoint.getGuid()))
+        {
+            startRecord(RECORD_REMOVE, waypoint);
+            append();
+            waypoints.remove(waypoint.getGuid());
+        }
+    }
+
+    /**
+     * Forces journal writes to the disk.
+     */
+    public synchronized void flush()
+    {
+        journal.force();
+    }
+
+    /**
+     * Bytes of records in the current journal.
+     *
+     * @return the size
+     */
+    public synchronized int getJournalBytes()
+    {
+        return journal.position();
+    }
+
+    /**
+     * Folds the journal into the snapshot.  Records made while the snapshot is written go to a new journal.
+     * <p>
+     * Journals included in the snapshot are deleted if possible, otherwise the next time the directory is opened.
+     *
+     * @throws IOException if the snapshot can't be written
+     */
+    public void compact() throws IOException
+    {
+        synchronized (compactionLock)
+        {
+            List<Waypoint> saved;
+            long includedGeneration;
+            synchronized (this)
+            {
+                if (journal.position() == 0)
+                {
+                    return;
+                }
+                includedGeneration = generation;
+                saved = new ArrayList<Waypoint>(waypoints.values());
+
+                journal.force();
+                channel.close();
+                generation++;
+                channel = FileChannel.open(journalPath(generation), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_CAPACITY);
+            }
+
+            Path temp = Files.createTempFile(directory, "waypoints", ".tmp");
+            try
+            {
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE))
+                {
+                    ByteBuffer header = ByteBuffer.allocate(Long.BYTES).putLong(includedGeneration);
+                    header.flip();
+                    out.write(header);
+                    WaypointCodec.write(saved, out);
+                    out.force(true);
+                }
+                Files.move(temp, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e)
+            {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            deleteJournals(includedGeneration);
+        }
+    }
+
+    /**
+     * Compacts the journal on a background thread every so often, if anything has been recorded.
+     *
+     * @param period time between compactions
+     * @param unit   unit of the period
+     */
+    public synchronized void startCompactor(long period, TimeUnit unit)
+    {
+        if (compactor == null)
+        {
+            compactor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("JourneyMap-API-Waypoint-Compactor").setDaemon(true).build());
+            compactor.scheduleWithFixedDelay(() -> {
+                try
+                {
+                    compact();
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    // Caught so that later runs aren't cancelled; the journal keeps every change meanwhile
+                    LOGGER.error("Can't compact waypoint journal in " + directory + ": " + e, e);
+                }
+            }, period, period, unit);
+        }
+    }
+
+    /**
+     * Stops the compactor, compacts the journal and closes it.
+     *
+     * @throws IOException if the snapshot can't be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this)
+        {
+            if (compactor != null)
+            {
+                compactor.shutdownNow();
+                compactor = null;
+            }
+        }
+        compact();
+        synchronized (this)
+        {
+            journal.force();
+            channel.close();
+        }
+    }
+
+    private void startRecord(byte type, Waypoint waypoint) throws IOException
+    {
+        recordBytes.reset();
+        record.writeByte(type);
+        record.writeUTF(waypoint.getGuid());
+    }
+
+    private void writeFields(Waypoint waypoint, int fields) throws IOException
+    {
+        fields &= FIELD_RECORD_MASK;
+        record.writeInt(fields);
+        if ((fields & WaypointBase.DIRTY_NAME) != 0)
+        {
+            record.writeUTF(waypoint.getName());
+        }
+        if ((fields & WaypointBase.DIRTY_COLOR) != 0)
+        {
+            writeOptionalInt(waypoint.hasColor() ? waypoint.getColor() : null);
+        }
+        if ((fields & WaypointBase.DIRTY_BACKGROUND_COLOR) != 0)
+        {
+            writeOptionalInt(waypoint.hasBackgroundColor() ? waypoint.getBackgroundColor() : null);
+        }
+        if ((fields & WaypointBase.DIRTY_DISPLAY_DIMENSIONS) != 0)
+        {
+            String[] dimensions = waypoint.hasDisplayDimensions() ? waypoint.getDisplayDimensions() : null;
+            record.writeShort(dimensions == null ? -1 : dimensions.length);
+            if (dimensions != null)
+            {
+                for (String dimension : dimensions)
+                {
+                    record.writeUTF(dimension);
+                }
+            }
+        }
+        if ((fields & Waypoint.DIRTY_POSITION) != 0)
+        {
+            BlockPos pos = waypoint.getPosition();
+            record.writeUTF(waypoint.getDimension());
+            record.writeInt(pos.getX());
+            record.writeInt(pos.getY());
+            record.writeInt(pos.getZ());
+        }
+        if ((fields & Waypoint.DIRTY_FLAGS) != 0)
+        {
+            record.writeBoolean(waypoint.isPersistent());
+            record.writeBoolean(waypoint.isEditable());
+        }
+    }
+
+    private void writeOptionalInt(@Nullable Integer value) throws IOException
+    {
+        record.writeBoolean(value != null);
+        if (value != null)
+        {
+            record.writeInt(value);
+        }
+    }
+
+    /**
+     * Appends the record built by startRecord and its fields, growing the journal if needed.
+     */
+    private void append() throws IOException
+    {
+        int length = recordBytes.size();
+        if (journal.remaining() < HEADER_BYTES + length + HEADER_BYTES)
+        {
+            int position = journal.position();
+            long capacity = Math.max((long) journal.capacity() * 2, position + HEADER_BYTES * 2L + length);
+            journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            journal.position(position);
+        }
+
+        crc.reset();
+        crc.update(recordBytes.toByteArray(), 0, length);
+        int position = journal.position();
+        // Body first, then the header, so a torn write never looks like a complete record
+        journal.position(position + HEADER_BYTES);
+        journal.put(recordBytes.toByteArray(), 0, length);
+        journal.putInt(position + 4, (int) crc.getValue());
+        journal.putInt(position, length);
+    }
+
+    /**
+     * Applies the records in a journal.  When continuing, the journal is left mapped with its position after the
+     * last complete record and anything after that zeroed; otherwise it is closed.
+     */
+    private void replay(FileChannel file, boolean closeAfter) throws IOException
+    {
+        MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(file.size(), INITIAL_CAPACITY));
+        int applied = 0;
+        boolean torn = false;
+        while (buffer.remaining() >= HEADER_BYTES)
+        {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining())
+            {
+                torn = length != 0 || checksum != 0;
+                buffer.position(start);
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(body);
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != checksum)
+            {
+                torn = true;
+                buffer.position(start);
+                break;
+            }
+            apply(new DataInputStream(new ByteArrayInputStream(body)));
+            applied++;
+        }
+
+        if (torn)
+        {
+            LOGGER.warn(String.format("Dropping torn waypoint journal record at %s in %s", buffer.position(), directory));
+        }
+        if (closeAfter)
+        {
+            file.close();
+        }
+        else
+        {
+            if (torn)
+            {
+                // Clear the partial record, so records appended over it can't be mistaken for part of it
+                for (int i = buffer.position(); i < buffer.capacity(); i++)
+                {
+                    buffer.put(i, (byte) 0);
+                }
+            }
+            channel = file;
+            journal = buffer;
+        }
+        if (applied > 0)
+        {
+            LOGGER.info(String.format("Replayed %s waypoint journal records in %s", applied, directory));
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException
+    {
+        byte type = in.readByte();
+        String guid = in.readUTF();
+        if (type == RECORD_REMOVE)
+        {
+            waypoints.remove(guid);
+            return;
+        }
+        if (type == RECORD_PUT)
+        {
+            byte[] encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+            for (Waypoint waypoint : WaypointCodec.read(Channels.newChannel(new ByteArrayInputStream(encoded))))
+            {
+                waypoint.setDirty(false);
+                waypoints.put(waypoint.getGuid(), waypoint);
+            }
+            return;
+        }
+
+        Waypoint saved = waypoints.get(guid);
+        if (saved == null)
+        {
+            LOGGER.warn("Ignoring waypoint journal record for unknown waypoint " + guid);
+            return;
+        }
+        // Copied rather than changed in place, since a compaction may be encoding the saved one
+        Waypoint waypoint = copyOf(saved);
+        int fields = in.readInt();
+        if ((fields & WaypointBase.DIRTY_NAME) != 0)
+        {
+            waypoint.setName(in.readUTF());
+        }
+        if ((fields & WaypointBase.DIRTY_COLOR) != 0)
+        {
+            if (in.readBoolean())
+            {
+                waypoint.setColor(in.readInt());
+            }
+            else
+            {
+                waypoint.clearColor();
+            }
+        }
+        if ((fields & WaypointBase.DIRTY_BACKGROUND_COLOR) != 0)
+        {
+            if (in.readBoolean())
+            {
+                waypoint.setBackgroundColor(in.readInt());
+            }
+            else
+            {
+                waypoint.clearBackgroundColor();
+            }
+        }
+        if ((fields & WaypointBase.DIRTY_DISPLAY_DIMENSIONS) != 0)
+        {
+            int count = in.readShort();
+            if (count < 0)
+            {
+                waypoint.clearDisplayDimensions();
+            }
+            else
+            {
+                String[] dimensions = new String[count];
+                for (int i = 0; i < count; i++)
+                {
+                    dimensions[i] = in.readUTF();
+                }
+                waypoint.setDisplayDimensions(dimensions);
+            }
+        }
+        if ((fields & Waypoint.DIRTY_POSITION) != 0)
+        {
+            waypoint.setPosition(in.readUTF(), new BlockPos(in.readInt(), in.readInt(), in.readInt()));
+        }
+        if ((fields & Waypoint.DIRTY_FLAGS) != 0)
+        {
+            waypoint.setPersistent(in.readBoolean());
+            waypoint.setEditable(in.readBoolean());
+        }
+        waypoint.setDirty(false);
+        waypoints.put(guid, waypoint);
+    }
+
+    private static Waypoint copyOf(Waypoint waypoint) throws IOException
+    {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        WaypointCodec.write(Collections.singletonList(waypoint), Channels.newChannel(encoded));
+        Waypoint copy = WaypointCodec.read(Channels.newChannel(new ByteArrayInputStream(encoded.toByteArray()))).get(0);
+        // Shared, so waypoints in one group stay in one group in the snapshot
+        copy.setGroup(waypoint.getGroup());
+        return copy;
+    }
+
+    private TreeMap<Long, Path> findJournals() throws IOException
+    {
+        TreeMap<Long, Path> journals = new TreeMap<Long, Path>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX))
+        {
+            for (Path path : files)
+            {
+                String name = path.getFileName().toString();
+                try
+                {
+                    journals.put(Long.parseLong(name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_SUFFIX.length())), path);
+                }
+                catch (NumberFormatException e)
+                {
+                    LOGGER.warn("Ignoring unexpected file " + path);
+                }
+            }
+        }
+        return journals;
+    }
+
+    /**
+     * Deletes the journals up to a generation.  Files which are still mapped can't be deleted on some platforms,
+     * so failures are left for the next time the directory is opened.
+     */
+    private void deleteJournals(long throughGeneration) throws IOException
+    {
+        for (Path path : findJournals().headMap(throughGeneration, true).values())
+        {
+            try
+            {
+                Files.deleteIfExists(path);
+            }
+            catch (IOException e)
+            {
+                LOGGER.debug("Can't delete waypoint journal " + path + " yet: " + e);
+            }
+        }
+    }
+
+    private Path journalPath(long journalGeneration)
+    {
+        return directory.resolve(JOURNAL_PREFIX + journalGeneration + JOURNAL_SUFFIX);
+    }
+}
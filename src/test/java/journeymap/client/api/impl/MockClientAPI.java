@@ -20,20 +20,40 @@
 
 package journeymap.client.api.impl;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.LinkedHashMultimap;
+import journeymap.client.api.IClientAPI;
+import journeymap.client.api.IClientPlugin;
 import journeymap.client.api.display.Context;
 import journeymap.client.api.display.DisplayType;
 import journeymap.client.api.display.Displayable;
+import journeymap.client.api.display.IOverlayListener;
+import journeymap.client.api.display.ImageOverlay;
+import journeymap.client.api.display.MarkerOverlay;
+import journeymap.client.api.display.Overlay;
+import journeymap.client.api.display.OverlayHandle;
+import journeymap.client.api.display.PolygonOverlay;
+import journeymap.client.api.display.Waypoint;
 import journeymap.client.api.event.ClientEvent;
+import journeymap.client.api.event.DisplayUpdateEvent;
+import journeymap.client.api.event.FullscreenMapEvent;
+import journeymap.client.api.event.IMouseMoveListener;
+import journeymap.client.api.model.IBlockInfo;
+import journeymap.client.api.model.MapTileKey;
+import journeymap.client.api.util.MapTileCache;
+import journeymap.client.api.util.MapTileScheduler;
+import journeymap.client.api.util.MouseMoveCoalescer;
+import journeymap.client.api.util.OverlayIndex;
+import journeymap.client.api.util.PluginEventDispatcher;
+import journeymap.client.api.util.PluginMetrics;
 import journeymap.client.api.util.UIState;
-import net.minecraft.client.Minecraft;
+import journeymap.client.api.util.WaypointIndex;
 import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.phys.AABB;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -42,163 +62,882 @@ import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.geom.Rectangle2D;
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.EnumSet;
-import java.util.Random;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
- * Stub implementation of the IClientAPI. Doesn't actually do anything, other than track displayIds.
+ * Headless implementation of the IClientAPI, for testing plugins and measuring them under load without Minecraft.
+ * <p>
+ * Displayables are stored as JourneyMap would store them, and overlays are kept in an {@link OverlayIndex}.
+ * Each UI has a simulated UIState, set with {@link #setUIState(UIState)}; overlays which come into or go out of view
+ * get {@link IOverlayListener#onActivate(UIState)} and {@link IOverlayListener#onDeactivate(UIState)} calls, and
+ * subscribed plugins get a {@link DisplayUpdateEvent}.  Other events are sent with {@link #fireEvent(ClientEvent)}.
+ * Events are delivered through a {@link PluginEventDispatcher}, so most are queued until {@link #drainEvents(long)}.
+ * <p>
+ * Mouse moves are combined until {@link #flushMouseMove()}, and changes made through an {@link OverlayHandle} are queued until
+ * {@link #applyOverlayUpdates()}; both stand in for the next frame.
+ * <p>
+ * Map tiles are rendered into off-screen images on worker threads, and cached.  Tile callbacks are called on the
+ * worker thread, since there is no client thread to hand them to.
+ * <p>
+ * Thread-safe.  Overlay listeners are called on the thread which made the change, after the change is made.
  */
-//@Optional.Interface(iface = "journeymap.client.api.IClientAPI", modid = "journeymap")
 @ParametersAreNonnullByDefault
-enum MockClientAPI implements journeymap.client.api.IClientAPI
+public class MockClientAPI implements IClientAPI
 {
-    INSTANCE;
+    private static final Logger LOGGER = LogManager.getLogger("journeymap-stub");
 
-    private final static Logger LOGGER = LogManager.getLogger("journeymap-stub");
+    /**
+     * Time each plugin may take handling a cancellable event.
+     */
+    private static final long SYNC_EVENT_BUDGET_MILLIS = 5;
 
-    // This stub only needs to store displayIds by DisplayType by modId, so a cache of multimaps is convenient
-    // and avoids all the boilerplate check-and-create-if-missing mess.
-    private final LoadingCache<String, LinkedHashMultimap<DisplayType, String>> modDisplayables =
-            CacheBuilder.newBuilder().build(
-                    new CacheLoader<String, LinkedHashMultimap<DisplayType, String>>()
-                    {
-                        public LinkedHashMultimap<DisplayType, String> load(String key)
-                        {
-                            LinkedHashMultimap<DisplayType, String> multimap = LinkedHashMultimap.create();
-                            return multimap;
-                        }
-                    });
+    private final HashMap<String, EnumMap<DisplayType, LinkedHashMap<String, Displayable>>> modDisplayables =
+            new HashMap<String, EnumMap<DisplayType, LinkedHashMap<String, Displayable>>>();
+    private final OverlayIndex overlayIndex = new OverlayIndex();
+    private final WaypointIndex waypointIndex = new WaypointIndex();
+    private final EnumMap<Context.UI, UIState> uiStates = new EnumMap<Context.UI, UIState>(Context.UI.class);
+    private final EnumMap<Context.UI, LinkedHashSet<Overlay>> activeOverlays =
+            new EnumMap<Context.UI, LinkedHashSet<Overlay>>(Context.UI.class);
+    private final HashMap<String, EnumSet<DisplayType>> refusedTypes = new HashMap<String, EnumSet<DisplayType>>();
+    private final HashMap<List<Object>, Boolean> displayToggles = new HashMap<List<Object>, Boolean>();
+    private final HashMap<List<Object>, Boolean> waypointToggles = new HashMap<List<Object>, Boolean>();
+    private final ArrayDeque<OverlayHandle<?>> changedHandles = new ArrayDeque<OverlayHandle<?>>();
+    private final MouseMoveCoalescer mouseMoves = new MouseMoveCoalescer();
 
+    private final PluginEventDispatcher events = new PluginEventDispatcher(SYNC_EVENT_BUDGET_MILLIS);
+    private final MapTileCache tileCache;
+    private final MapTileScheduler tileScheduler;
 
-    @Override
-    public UIState getUIState(Context.UI ui)
+    /**
+     * Constructor with 2 tile workers and a 32MB tile cache.
+     */
+    public MockClientAPI()
     {
-        if (ui == Context.UI.Any)
+        this(2, 32 * 1024 * 1024);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tileWorkers    number of threads rendering map tiles
+     * @param tileCacheBytes bytes of rendered tiles to keep in memory
+     */
+    public MockClientAPI(int tileWorkers, long tileCacheBytes)
+    {
+        this.tileCache = new MapTileCache(tileCacheBytes);
+        this.tileScheduler = new MapTileScheduler(tileWorkers, tileCache.loadingFrom(MockClientAPI::renderTile));
+        for (Context.UI ui : Context.UI.values())
         {
-            return null;
+            if (ui != Context.UI.Any)
+            {
+                uiStates.put(ui, new UIState(ui, false, Level.OVERWORLD, 0, Context.MapType.Day,
+                        new BlockPos(0, 68, 0), null, null, null));
+                activeOverlays.put(ui, new LinkedHashSet<Overlay>());
+            }
+        }
+    }
+
+    /**
+     * Registers a plugin and initializes it, as JourneyMap does for each {@link journeymap.client.api.ClientPlugin}.
+     *
+     * @param plugin the plugin
+     */
+    public void register(IClientPlugin plugin)
+    {
+        events.register(plugin);
+        plugin.initialize(this);
+    }
+
+    /**
+     * Sends an event to every plugin subscribed to its type.  Cancellable events are delivered before this returns;
+     * others are queued until {@link #drainEvents(long)}, or handled on a background thread by plugins which
+     * accept async events.
+     *
+     * @param event the event
+     * @return false if the event was cancelled
+     */
+    public boolean fireEvent(ClientEvent event)
+    {
+        return events.dispatch(event);
+    }
+
+    /**
+     * Delivers queued events to plugins which handle them on the main thread, as JourneyMap does once per frame.
+     *
+     * @param budgetMillis time to spend
+     * @return the number of events delivered
+     */
+    public int drainEvents(long budgetMillis)
+    {
+        return events.drainMainThreadEvents(budgetMillis);
+    }
+
+    /**
+     * The dispatcher sending events to plugins, for its queue and budget statistics.
+     *
+     * @return the dispatcher
+     */
+    public PluginEventDispatcher getEventDispatcher()
+    {
+        return events;
+    }
+
+    /**
+     * Simulates a change to a UI, such as the map being panned, zoomed, opened or closed.
+     * Overlays which come into or go out of view are notified, then subscribed plugins get a {@link DisplayUpdateEvent}.
+     *
+     * @param uiState the new state of the UI
+     */
+    public void setUIState(UIState uiState)
+    {
+        if (uiState.ui == Context.UI.Any)
+        {
+            throw new IllegalArgumentException("UIState must be for a specific UI");
+        }
+
+        List<Runnable> notifications = new ArrayList<Runnable>();
+        synchronized (this)
+        {
+            uiStates.put(uiState.ui, uiState);
+            LinkedHashSet<Overlay> active = activeOverlays.get(uiState.ui);
+            LinkedHashSet<Overlay> visible = new LinkedHashSet<Overlay>(overlayIndex.query(uiState));
+            for (Overlay overlay : active)
+            {
+                if (!visible.contains(overlay))
+                {
+                    deactivate(overlay, uiState, notifications);
+                }
+            }
+            for (Overlay overlay : visible)
+            {
+                if (!active.contains(overlay))
+                {
+                    activate(overlay, uiState, notifications);
+                }
+            }
+            active.clear();
+            active.addAll(visible);
+        }
+        dispatch(notifications);
+        fireEvent(new DisplayUpdateEvent(uiState));
+    }
+
+    /**
+     * Applies the changes made through OverlayHandles since the last call, as JourneyMap does once per frame.
+     * Overlays which were moved are re-indexed, and overlays which were moved or had their visibility changed
+     * come into or go out of view.  Changes to overlays which have since been removed or replaced are dropped.
+     *
+     * @return the number of overlays updated
+     */
+    public int applyOverlayUpdates()
+    {
+        int updated = 0;
+        List<Runnable> notifications = new ArrayList<Runnable>();
+        synchronized (this)
+        {
+            OverlayHandle<?> handle;
+            while ((handle = changedHandles.poll()) != null)
+            {
+                int changes = handle.takeChanges();
+                Overlay overlay = handle.getOverlay();
+                LinkedHashMap<String, Displayable> byId = getByType(overlay.getModId(), overlay.getDisplayType(), false);
+                if (changes == 0 || byId == null || byId.get(overlay.getId()) != overlay)
+                {
+                    continue;
+                }
+                if ((changes & Overlay.DIRTY_GEOMETRY) != 0)
+                {
+                    overlayIndex.put(overlay);
+                }
+                if ((changes & (Overlay.DIRTY_GEOMETRY | Overlay.DIRTY_VISIBILITY)) != 0)
+                {
+                    refreshActive(overlay, notifications);
+                }
+                updated++;
+            }
+        }
+        dispatch(notifications);
+        return updated;
+    }
+
+    /**
+     * Simulates the mouse moving over the Fullscreen map.  Moves are combined until {@link #flushMouseMove()}.
+     * Call from one thread, as the client thread would.
+     *
+     * @param level  the dimension shown in the map
+     * @param mouseX scaled screen x of the mouse
+     * @param mouseY scaled screen y of the mouse
+     * @param blockX x of the block under the mouse
+     * @param blockY y of the block under the mouse
+     * @param blockZ z of the block under the mouse
+     */
+    public void moveMouse(ResourceKey<Level> level, double mouseX, double mouseY, int blockX, int blockY, int blockZ)
+    {
+        mouseMoves.move(level, mouseX, mouseY, blockX, blockY, blockZ);
+    }
+
+    /**
+     * Delivers the last mouse move since the previous call, as JourneyMap does once per frame: mouse move listeners
+     * are called, then one MouseMoveEvent is sent to plugins subscribed to MAP_MOUSE_MOVED.
+     *
+     * @return true if the mouse had moved
+     */
+    public boolean flushMouseMove()
+    {
+        if (!mouseMoves.hasPendingMove())
+        {
+            return false;
+        }
+
+        // Nothing is allocated unless a plugin is subscribed
+        FullscreenMapEvent.MouseMoveEvent event = null;
+        if (events.isSubscribed(ClientEvent.Type.MAP_MOUSE_MOVED))
+        {
+            BlockPos blockPos = new BlockPos(mouseMoves.getBlockX(), mouseMoves.getBlockY(), mouseMoves.getBlockZ());
+            event = new FullscreenMapEvent.MouseMoveEvent(mouseMoves.getLevel(), new BlockInfo(blockPos),
+                    new Point2D.Double(mouseMoves.getMouseX(), mouseMoves.getMouseY()), System.currentTimeMillis());
+        }
+        mouseMoves.flush();
+        if (event != null)
+        {
+            fireEvent(event);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the overlays currently in view in a UI.
+     *
+     * @param ui the UI
+     * @return the overlays, in the order they came into view
+     */
+    public synchronized List<Overlay> getActiveOverlays(Context.UI ui)
+    {
+        LinkedHashSet<Overlay> active = activeOverlays.get(ui);
+        return active == null ? Collections.<Overlay>emptyList() : new ArrayList<Overlay>(active);
+    }
+
+    /**
+     * Gets the displayables shown by a mod.
+     *
+     * @param modId       the mod id
+     * @param displayType the display type
+     * @return the displayables, in the order they were first shown
+     */
+    public synchronized List<Displayable> getDisplayables(String modId, DisplayType displayType)
+    {
+        LinkedHashMap<String, Displayable> byId = getByType(modId, displayType, false);
+        return byId == null ? Collections.<Displayable>emptyList() : new ArrayList<Displayable>(byId.values());
+    }
+
+    /**
+     * Number of displayables shown, by all mods.
+     *
+     * @return the count
+     */
+    public synchronized int getDisplayableCount()
+    {
+        int count = 0;
+        for (EnumMap<DisplayType, LinkedHashMap<String, Displayable>> byType : modDisplayables.values())
+        {
+            for (LinkedHashMap<String, Displayable> byId : byType.values())
+            {
+                count += byId.size();
+            }
         }
+        return count;
+    }
 
-        return new UIState(ui, true, Level.OVERWORLD, 1,
-                Context.MapType.Day,
-                new BlockPos(128, 0, 128), null,
-                new AABB(new net.minecraft.core.BlockPos(0, 0, 0), new net.minecraft.core.BlockPos(256, 256, 256)),
-                new Rectangle2D.Double(0, 0, 1240, 960));
+    /**
+     * Simulates the player allowing or refusing a mod's displayables of one type.
+     * Displayables the player refuses are not shown.
+     *
+     * @param modId       the mod id
+     * @param displayType the display type
+     * @param accepts     whether the player accepts them
+     */
+    public synchronized void setPlayerAccepts(String modId, DisplayType displayType, boolean accepts)
+    {
+        EnumSet<DisplayType> refused = refusedTypes.computeIfAbsent(modId, k -> EnumSet.noneOf(DisplayType.class));
+        if (accepts)
+        {
+            refused.remove(displayType);
+        }
+        else
+        {
+            refused.add(displayType);
+        }
+    }
+
+    /**
+     * Stops the tile workers and event threads.  Pending tile requests are cancelled and queued events are dropped.
+     */
+    public void shutdown()
+    {
+        tileScheduler.shutdown();
+        events.shutdown();
+    }
+
+    @Override
+    @Nullable
+    public synchronized UIState getUIState(Context.UI ui)
+    {
+        return uiStates.get(ui);
     }
 
     @Override
     public void subscribe(String modId, EnumSet<ClientEvent.Type> eventTypes)
     {
-        // Not implemented
+        events.subscribe(modId, eventTypes);
+    }
+
+    @Override
+    public boolean addMouseMoveListener(String modId, IMouseMoveListener listener)
+    {
+        mouseMoves.addListener(listener);
+        return true;
+    }
+
+    @Override
+    public void removeMouseMoveListener(String modId, IMouseMoveListener listener)
+    {
+        mouseMoves.removeListener(listener);
     }
 
     @Override
     public void show(Displayable displayable)
     {
-        showDisplayable(displayable.getModId(), displayable.getDisplayType(), displayable.getId());
+        long start = System.nanoTime();
+        long allocated = PluginMetrics.INSTANCE.allocatedBytes();
+        List<Runnable> notifications = new ArrayList<Runnable>();
+        synchronized (this)
+        {
+            store(displayable, notifications);
+        }
+        PluginMetrics.INSTANCE.record(displayable.getModId(), PluginMetrics.OP_SHOW, start, allocated);
+        dispatch(notifications);
+    }
+
+    @Override
+    public OverlayHandle.Marker showWithHandle(MarkerOverlay overlay)
+    {
+        show(overlay);
+        return new OverlayHandle.Marker(overlay, this::queueUpdate);
+    }
+
+    @Override
+    public OverlayHandle.Image showWithHandle(ImageOverlay overlay)
+    {
+        show(overlay);
+        return new OverlayHandle.Image(overlay, this::queueUpdate);
+    }
+
+    @Override
+    public OverlayHandle.Polygon showWithHandle(PolygonOverlay overlay)
+    {
+        show(overlay);
+        return new OverlayHandle.Polygon(overlay, this::queueUpdate);
     }
 
-    private void showDisplayable(String modId, DisplayType displayType, String displayId)
+    @Override
+    public void showAll(Collection<? extends Displayable> displayables)
     {
-        modDisplayables.getUnchecked(modId).put(displayType, displayId);
-        log(String.format("Showed %s:%s:%s", modId, displayType, displayId));
+        List<Runnable> notifications = new ArrayList<Runnable>();
+        synchronized (this)
+        {
+            applyEach(displayables, PluginMetrics.OP_SHOW, this::store, notifications);
+        }
+        dispatch(notifications);
     }
 
     @Override
     public void remove(Displayable displayable)
     {
-        modDisplayables.getUnchecked(displayable.getModId()).remove(displayable.getDisplayType(), displayable.getId());
+        long start = System.nanoTime();
+        long allocated = PluginMetrics.INSTANCE.allocatedBytes();
+        List<Runnable> notifications = new ArrayList<Runnable>();
+        synchronized (this)
+        {
+            discard(displayable, notifications);
+        }
+        PluginMetrics.INSTANCE.record(displayable.getModId(), PluginMetrics.OP_REMOVE, start, allocated);
+        dispatch(notifications);
+    }
+
+    @Override
+    public void removeAll(Collection<? extends Displayable> displayables)
+    {
+        List<Runnable> notifications = new ArrayList<Runnable>();
+        synchronized (this)
+        {
+            applyEach(displayables, PluginMetrics.OP_REMOVE, this::discard, notifications);
+        }
+        dispatch(notifications);
     }
 
     @Override
     public void removeAll(String modId, DisplayType displayType)
     {
-        modDisplayables.getUnchecked(modId).removeAll(displayType);
-        log(String.format("Removed all %s:%s", modId, displayType));
+        long start = System.nanoTime();
+        long allocated = PluginMetrics.INSTANCE.allocatedBytes();
+        List<Runnable> notifications = new ArrayList<Runnable>();
+        synchronized (this)
+        {
+            LinkedHashMap<String, Displayable> byId = getByType(modId, displayType, false);
+            if (byId != null)
+            {
+                for (Displayable displayable : new ArrayList<Displayable>(byId.values()))
+                {
+                    discard(displayable, notifications);
+                }
+            }
+        }
+        PluginMetrics.INSTANCE.record(modId, PluginMetrics.OP_REMOVE, start, allocated);
+        dispatch(notifications);
     }
 
     @Override
     public void removeAll(String modId)
     {
-        modDisplayables.invalidateAll();
-        log(String.format("Removed all %s", modId));
+        long start = System.nanoTime();
+        long allocated = PluginMetrics.INSTANCE.allocatedBytes();
+        List<Runnable> notifications = new ArrayList<Runnable>();
+        synchronized (this)
+        {
+            EnumMap<DisplayType, LinkedHashMap<String, Displayable>> byType = modDisplayables.get(modId);
+            if (byType != null)
+            {
+                List<Displayable> all = new ArrayList<Displayable>();
+                for (LinkedHashMap<String, Displayable> byId : byType.values())
+                {
+                    all.addAll(byId.values());
+                }
+                for (Displayable displayable : all)
+                {
+                    discard(displayable, notifications);
+                }
+            }
+        }
+        PluginMetrics.INSTANCE.record(modId, PluginMetrics.OP_REMOVE, start, allocated);
+        dispatch(notifications);
     }
 
     @Override
-    public boolean exists(Displayable displayable)
+    public synchronized boolean exists(Displayable displayable)
     {
-        return modDisplayables.getUnchecked(displayable.getModId()).containsEntry(displayable.getDisplayType(), displayable.getId());
+        LinkedHashMap<String, Displayable> byId = getByType(displayable.getModId(), displayable.getDisplayType(), false);
+        return byId != null && byId.containsKey(displayable.getId());
     }
 
     @Override
-    public boolean playerAccepts(String modId, DisplayType displayType)
+    public synchronized boolean playerAccepts(String modId, DisplayType displayType)
     {
-        return true;
+        EnumSet<DisplayType> refused = refusedTypes.get(modId);
+        return refused == null || !refused.contains(displayType);
     }
 
     @Override
-    public void requestMapTile(String modId, ResourceKey<Level> dimension, Context.MapType mapType, net.minecraft.world.level.ChunkPos startChunk, ChunkPos endChunk,
+    public synchronized List<Waypoint> getNearestWaypoints(String dimension, double x, double z, int count)
+    {
+        return waypointIndex.nearest(dimension, x, z, count);
+    }
+
+    @Override
+    public synchronized List<Waypoint> getWaypointsWithin(String dimension, double x, double z, double radius)
+    {
+        return waypointIndex.withinRadius(dimension, x, z, radius);
+    }
+
+    @Override
+    public synchronized List<Waypoint> getWaypointsWithin(String dimension, AABB bounds)
+    {
+        return waypointIndex.within(dimension, bounds);
+    }
+
+    @Override
+    public void requestMapTile(String modId, ResourceKey<Level> dimension, Context.MapType mapType, ChunkPos startChunk, ChunkPos endChunk,
                                @Nullable Integer chunkY, int zoom, boolean showGrid, final Consumer<BufferedImage> callback)
     {
-        // Determine chunks for coordinates at zoom level
-        final int scale = (int) Math.pow(2, zoom);
-        final int chunkSize = 32 / scale;
-        final int pixels = chunkSize * 16;
-        final int width = Math.min(512, (endChunk.x - startChunk.x) * pixels);
-        final int height = Math.min(512, (endChunk.z - startChunk.z) * pixels);
+        MapTileKey tile = new MapTileKey(dimension, mapType, startChunk, endChunk, chunkY, zoom, showGrid);
+        requestMapTile(modId, tile, MapTileScheduler.PRIORITY_VISIBLE)
+                .whenComplete((image, error) -> callback.accept(error == null ? image : null));
+    }
 
-        Minecraft.getInstance().submit(() -> callback.accept(createFakeImage(width, height)));
+    @Override
+    public CompletableFuture<BufferedImage> requestMapTile(String modId, MapTileKey tile, int priority)
+    {
+        return tileScheduler.submit(tile, priority);
+    }
+
+    @Override
+    public int getMapTileQueueDepth()
+    {
+        return tileScheduler.getQueueDepth();
     }
 
     @Override
-    public void toggleDisplay(@Nullable ResourceKey<Level> dimension, Context.MapType mapType, Context.UI mapUI, boolean enable)
+    public synchronized void toggleDisplay(@Nullable ResourceKey<Level> dimension, Context.MapType mapType, Context.UI mapUI, boolean enable)
     {
-        log(String.format("Toggled display in %s:%s:%s:%s", dimension, mapType, mapUI, enable));
+        toggle(displayToggles, dimension, mapType, mapUI, enable);
     }
 
     @Override
-    public void toggleWaypoints(@Nullable ResourceKey<Level> dimension, Context.MapType mapType, Context.UI mapUI, boolean enable)
+    public synchronized void toggleWaypoints(@Nullable ResourceKey<Level> dimension, Context.MapType mapType, Context.UI mapUI, boolean enable)
     {
-        log(String.format("Toggled waypoints in %s:%s:%s:%s", dimension, mapType, mapUI, enable));
+        toggle(waypointToggles, dimension, mapType, mapUI, enable);
     }
 
     @Override
-    public boolean isDisplayEnabled(@Nullable ResourceKey<Level> dimension, Context.MapType mapType, Context.UI mapUI)
+    public synchronized boolean isDisplayEnabled(@Nullable ResourceKey<Level> dimension, Context.MapType mapType, Context.UI mapUI)
     {
-        return false;
+        return isEnabled(displayToggles, dimension, mapType, mapUI);
     }
 
     @Override
-    public boolean isWaypointsEnabled(@Nullable ResourceKey<Level> dimension, Context.MapType mapType, Context.UI mapUI)
+    public synchronized boolean isWaypointsEnabled(@Nullable ResourceKey<Level> dimension, Context.MapType mapType, Context.UI mapUI)
     {
-        return false;
+        return isEnabled(waypointToggles, dimension, mapType, mapUI);
+    }
+
+    private synchronized void queueUpdate(OverlayHandle<?> handle)
+    {
+        changedHandles.add(handle);
+    }
+
+    @Nullable
+    private LinkedHashMap<String, Displayable> getByType(String modId, DisplayType displayType, boolean create)
+    {
+        EnumMap<DisplayType, LinkedHashMap<String, Displayable>> byType = modDisplayables.get(modId);
+        if (byType == null)
+        {
+            if (!create)
+            {
+                return null;
+            }
+            byType = new EnumMap<DisplayType, LinkedHashMap<String, Displayable>>(DisplayType.class);
+            modDisplayables.put(modId, byType);
+        }
+        LinkedHashMap<String, Displayable> byId = byType.get(displayType);
+        if (byId == null && create)
+        {
+            byId = new LinkedHashMap<String, Displayable>();
+            byType.put(displayType, byId);
+        }
+        return byId;
     }
 
     /**
-     * Create a randomly-colored image
-     *
-     * @return
+     * Stores a displayable, replacing any with the same key, and brings it into view where it is visible.
+     */
+    /**
+     * Stores or discards each of a batch, recording the operation once for each run of displayables from one mod.
+     */
+    private void applyEach(Collection<? extends Displayable> displayables, String operation,
+                           BiConsumer<Displayable, List<Runnable>> action, List<Runnable> notifications)
+    {
+        String modId = null;
+        long start = 0;
+        long allocated = 0;
+        for (Displayable displayable : displayables)
+        {
+            if (!displayable.getModId().equals(modId))
+            {
+                if (modId != null)
+                {
+                    PluginMetrics.INSTANCE.record(modId, operation, start, allocated);
+                }
+                modId = displayable.getModId();
+                start = System.nanoTime();
+                allocated = PluginMetrics.INSTANCE.allocatedBytes();
+            }
+            action.accept(displayable, notifications);
+        }
+        if (modId != null)
+        {
+            PluginMetrics.INSTANCE.record(modId, operation, start, allocated);
+        }
+    }
+
+    private void store(Displayable displayable, List<Runnable> notifications)
+    {
+        if (!playerAccepts(displayable.getModId(), displayable.getDisplayType()))
+        {
+            return;
+        }
+
+        Displayable previous = getByType(displayable.getModId(), displayable.getDisplayType(), true)
+                .put(displayable.getId(), displayable);
+        if (previous instanceof Overlay && previous != displayable)
+        {
+            unindex((Overlay) previous, notifications);
+        }
+
+        if (displayable instanceof Overlay)
+        {
+            Overlay overlay = (Overlay) displayable;
+            overlayIndex.put(overlay);
+            refreshActive(overlay, notifications);
+        }
+        else if (displayable instanceof Waypoint)
+        {
+            waypointIndex.put((Waypoint) displayable);
+        }
+    }
+
+    /**
+     * Brings an overlay into view where it is visible, and out of view where it isn't.
+     */
+    private void refreshActive(Overlay overlay, List<Runnable> notifications)
+    {
+        for (Map.Entry<Context.UI, LinkedHashSet<Overlay>> entry : activeOverlays.entrySet())
+        {
+            UIState uiState = uiStates.get(entry.getKey());
+            boolean visible = isVisible(overlay, uiState);
+            // Already active overlays which are shown again stay active, without another notification
+            if (visible && entry.getValue().add(overlay))
+            {
+                activate(overlay, uiState, notifications);
+            }
+            else if (!visible && entry.getValue().remove(overlay))
+            {
+                deactivate(overlay, uiState, notifications);
+            }
+        }
+    }
+
+    /**
+     * Removes a displayable, taking it out of view where it was visible.
+     */
+    private void discard(Displayable displayable, List<Runnable> notifications)
+    {
+        LinkedHashMap<String, Displayable> byId = getByType(displayable.getModId(), displayable.getDisplayType(), false);
+        Displayable previous = byId == null ? null : byId.remove(displayable.getId());
+        if (previous instanceof Overlay)
+        {
+            unindex((Overlay) previous, notifications);
+        }
+        else if (previous instanceof Waypoint)
+        {
+            waypointIndex.remove((Waypoint) previous);
+        }
+    }
+
+    private void unindex(Overlay overlay, List<Runnable> notifications)
+    {
+        overlayIndex.remove(overlay);
+        for (Map.Entry<Context.UI, LinkedHashSet<Overlay>> entry : activeOverlays.entrySet())
+        {
+            if (entry.getValue().remove(overlay))
+            {
+                deactivate(overlay, uiStates.get(entry.getKey()), notifications);
+            }
+        }
+    }
+
+    /**
+     * Same test as {@link OverlayIndex#query(UIState)}, for a single overlay.
      */
-    private BufferedImage createFakeImage(int width, int height)
+    private static boolean isVisible(Overlay overlay, UIState uiState)
     {
+        if (uiState.blockBounds == null || !overlay.isActiveIn(uiState))
+        {
+            return false;
+        }
+        AABB bounds = overlay.getBounds();
+        AABB view = uiState.blockBounds;
+        return bounds.minX <= view.maxX && bounds.maxX >= view.minX && bounds.minZ <= view.maxZ && bounds.maxZ >= view.minZ;
+    }
+
+    private static void activate(Overlay overlay, UIState uiState, List<Runnable> notifications)
+    {
+        IOverlayListener listener = overlay.getOverlayListener();
+        if (listener != null)
+        {
+            notifications.add(measured(overlay, () -> listener.onActivate(uiState)));
+        }
+    }
+
+    private static void deactivate(Overlay overlay, UIState uiState, List<Runnable> notifications)
+    {
+        IOverlayListener listener = overlay.getOverlayListener();
+        if (listener != null)
+        {
+            notifications.add(measured(overlay, () -> listener.onDeactivate(uiState)));
+        }
+    }
+
+    /**
+     * Records the time an overlay listener callback takes against the overlay's mod.
+     */
+    private static Runnable measured(Overlay overlay, Runnable callback)
+    {
+        return () -> {
+            long start = System.nanoTime();
+            long allocated = PluginMetrics.INSTANCE.allocatedBytes();
+            try
+            {
+                callback.run();
+            }
+            finally
+            {
+                PluginMetrics.INSTANCE.record(overlay.getModId(), PluginMetrics.OP_OVERLAY_LISTENER, start, allocated);
+            }
+        };
+    }
+
+    private static void dispatch(List<Runnable> notifications)
+    {
+        for (Runnable notification : notifications)
+        {
+            try
+            {
+                notification.run();
+            }
+            catch (Throwable t)
+            {
+                LOGGER.error("Overlay listener failed", t);
+            }
+        }
+    }
+
+    /**
+     * Toggles are stored per dimension, with a null dimension for the setting that applies to all of them.
+     * Setting all dimensions clears any per-dimension settings.
+     */
+    private static void toggle(Map<List<Object>, Boolean> toggles, @Nullable ResourceKey<Level> dimension,
+                               Context.MapType mapType, Context.UI mapUI, boolean enable)
+    {
+        if (dimension == null)
+        {
+            toggles.keySet().removeIf(key -> key.get(1) == mapType && key.get(2) == mapUI);
+        }
+        toggles.put(Arrays.<Object>asList(dimension, mapType, mapUI), enable);
+    }
+
+    private static boolean isEnabled(Map<List<Object>, Boolean> toggles, @Nullable ResourceKey<Level> dimension,
+                                     Context.MapType mapType, Context.UI mapUI)
+    {
+        Boolean enabled = toggles.get(Arrays.<Object>asList(dimension, mapType, mapUI));
+        if (enabled == null && dimension != null)
+        {
+            enabled = toggles.get(Arrays.<Object>asList(null, mapType, mapUI));
+        }
+        return enabled == null || enabled;
+    }
+
+    /**
+     * Renders a tile off-screen: each chunk gets a color derived from its position, so the same tile always looks the
+     * same, with chunk borders drawn if the grid is shown.
+     */
+    private static BufferedImage renderTile(MapTileKey tile)
+    {
+        ChunkPos start = tile.getStartChunk();
+        ChunkPos end = tile.getEndChunk();
+        int chunksX = Math.max(1, end.x - start.x);
+        int chunksZ = Math.max(1, end.z - start.z);
+
+        // Determine chunks for coordinates at zoom level
+        int scale = (int) Math.pow(2, tile.getZoom());
+        int chunkPixels = Math.max(1, 32 / scale) * 16;
+        int width = Math.min(512, chunksX * chunkPixels);
+        int height = Math.min(512, chunksZ * chunkPixels);
+        int chunkWidth = Math.max(1, width / chunksX);
+        int chunkHeight = Math.max(1, height / chunksZ);
+
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g = image.createGraphics();
-        int color = new Random().nextInt(0xffffff);
-        g.setColor(new Color(color));
-        g.fillRect(0, 0, 512, 512);
+        for (int cx = 0; cx < chunksX; cx++)
+        {
+            for (int cz = 0; cz < chunksZ; cz++)
+            {
+                int seed = 31 * (31 * (start.x + cx) + (start.z + cz)) + tile.getMapType().ordinal();
+                g.setColor(new Color((seed * 0x9E3779B1) >>> 8));
+                g.fillRect(cx * chunkWidth, cz * chunkHeight, chunkWidth, chunkHeight);
+                if (tile.isShowGrid())
+                {
+                    g.setColor(Color.DARK_GRAY);
+                    g.drawRect(cx * chunkWidth, cz * chunkHeight, chunkWidth - 1, chunkHeight - 1);
+                }
+            }
+        }
         g.dispose();
         return image;
     }
 
     /**
-     * Log what's happening in the stub, since there's nothing real to see.
-     *
-     * @param message
+     * What is known about a block without a world: just its position.
      */
-    private void log(String message)
+    private static class BlockInfo implements IBlockInfo
     {
-        LOGGER.info(String.format("[%s] %s", getClass().getSimpleName(), message));
+        private final BlockPos blockPos;
+
+        BlockInfo(BlockPos blockPos)
+        {
+            this.blockPos = blockPos;
+        }
+
+        @Override
+        public BlockPos getBlockPos()
+        {
+            return blockPos;
+        }
+
+        @Override
+        public Block getBlock()
+        {
+            return null;
+        }
+
+        @Override
+        public BlockState getBlockState()
+        {
+            return null;
+        }
+
+        @Override
+        public Biome getBiome()
+        {
+            return null;
+        }
+
+        @Override
+        public LevelChunk getChunk()
+        {
+            return null;
+        }
+
+        @Override
+        public ChunkPos getChunkPos()
+        {
+            return new ChunkPos(blockPos.getX() >> 4, blockPos.getZ() >> 4);
+        }
+
+        @Override
+        public Integer getRegionX()
+        {
+            return blockPos.getX() >> 9;
+        }
+
+        @Override
+        public Integer getRegionZ()
+        {
+            return blockPos.getZ() >> 9;
+        }
     }
 }